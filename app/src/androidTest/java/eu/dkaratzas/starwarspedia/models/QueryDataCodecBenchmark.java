@@ -0,0 +1,161 @@
+package eu.dkaratzas.starwarspedia.models;
+
+import android.os.Parcel;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.dkaratzas.starwarspedia.api.SwapiCategory;
+import eu.dkaratzas.starwarspedia.api.SwapiRelation;
+
+/**
+ * Times the parcels written through the {@link QueryDataCodec} against the field by field Parcelable mapping they replaced.
+ * Not a correctness test, timings depend on the device: run it on its own and read the log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryDataCodecBenchmark {
+    private static final String TAG = "QueryDataCodecBenchmark";
+    private static final int ITEMS = 1000;
+    private static final int ROUNDS = 200;
+
+    @Test
+    public void categoryItems() {
+        CategoryItems categoryItems = new CategoryItems(items(ITEMS, SwapiCategory.PEOPLE));
+
+        // Warm up both paths
+        writeListRoundTrips(categoryItems, ROUNDS);
+        codecRoundTrips(categoryItems, ROUNDS);
+
+        long startedAt = SystemClock.elapsedRealtimeNanos();
+        int listSize = writeListRoundTrips(categoryItems, ROUNDS);
+        long listNanos = SystemClock.elapsedRealtimeNanos() - startedAt;
+
+        startedAt = SystemClock.elapsedRealtimeNanos();
+        int codecSize = codecRoundTrips(categoryItems, ROUNDS);
+        long codecNanos = SystemClock.elapsedRealtimeNanos() - startedAt;
+
+        Log.i(TAG, ROUNDS + " parcel round trips of " + ITEMS + " items: writeList " + listSize + " bytes in " + listNanos / 1000000
+                + " ms, codec " + codecSize + " bytes in " + codecNanos / 1000000 + " ms");
+    }
+
+    @Test
+    public void allQueryData() {
+        LinkedHashMap<String, String> detailsMap = new LinkedHashMap<>();
+        detailsMap.put("Director", "George Lucas");
+        detailsMap.put("Producer", "Gary Kurtz, Rick McCallum");
+        LinkedHashMap<SwapiRelation, List<SimpleQueryData>> relatedItems = new LinkedHashMap<>();
+        for (SwapiRelation relation : SwapiRelation.of(SwapiCategory.FILM)) {
+            relatedItems.put(relation, items(40, relation.getTarget()));
+        }
+        AllQueryData queryData = new AllQueryData("cj0nxmy3fga5s01148gf8iy3c", "A New Hope", SwapiCategory.FILM, detailsMap, relatedItems);
+
+        // Warm up both paths
+        fieldByFieldRoundTrips(queryData, ROUNDS);
+        codecRoundTrips(queryData, ROUNDS);
+
+        long startedAt = SystemClock.elapsedRealtimeNanos();
+        int fieldsSize = fieldByFieldRoundTrips(queryData, ROUNDS);
+        long fieldsNanos = SystemClock.elapsedRealtimeNanos() - startedAt;
+
+        startedAt = SystemClock.elapsedRealtimeNanos();
+        int codecSize = codecRoundTrips(queryData, ROUNDS);
+        long codecNanos = SystemClock.elapsedRealtimeNanos() - startedAt;
+
+        Log.i(TAG, ROUNDS + " parcel round trips of a film: field by field " + fieldsSize + " bytes in " + fieldsNanos / 1000000
+                + " ms, codec " + codecSize + " bytes in " + codecNanos / 1000000 + " ms");
+    }
+
+    private static int writeListRoundTrips(CategoryItems categoryItems, int rounds) {
+        int size = 0;
+        for (int round = 0; round < rounds; round++) {
+            Parcel parcel = Parcel.obtain();
+            parcel.writeList(categoryItems.getQueryDataList());
+            size = parcel.dataSize();
+            parcel.setDataPosition(0);
+            parcel.readList(new ArrayList<SimpleQueryData>(), SimpleQueryData.class.getClassLoader());
+            parcel.recycle();
+        }
+        return size;
+    }
+
+    private static int codecRoundTrips(CategoryItems categoryItems, int rounds) {
+        int size = 0;
+        for (int round = 0; round < rounds; round++) {
+            Parcel parcel = Parcel.obtain();
+            categoryItems.writeToParcel(parcel, 0);
+            size = parcel.dataSize();
+            parcel.setDataPosition(0);
+            CategoryItems.CREATOR.createFromParcel(parcel);
+            parcel.recycle();
+        }
+        return size;
+    }
+
+    /**
+     * The AllQueryData mapping before the codec
+     */
+    private static int fieldByFieldRoundTrips(AllQueryData queryData, int rounds) {
+        int size = 0;
+        for (int round = 0; round < rounds; round++) {
+            Parcel parcel = Parcel.obtain();
+            parcel.writeString(queryData.getId());
+            parcel.writeString(queryData.getTitle());
+            parcel.writeInt(queryData.getDetailsMap().size());
+            for (Map.Entry<String, String> entry : queryData.getDetailsMap().entrySet()) {
+                parcel.writeString(entry.getKey());
+                parcel.writeString(entry.getValue());
+            }
+            parcel.writeInt(queryData.getCategory().ordinal());
+            parcel.writeInt(queryData.getRelatedItems().size());
+            for (Map.Entry<SwapiRelation, List<SimpleQueryData>> entry : queryData.getRelatedItems().entrySet()) {
+                parcel.writeInt(entry.getKey().ordinal());
+                parcel.writeTypedList(entry.getValue());
+            }
+            size = parcel.dataSize();
+
+            parcel.setDataPosition(0);
+            parcel.readString();
+            parcel.readString();
+            for (int i = parcel.readInt(); i > 0; i--) {
+                parcel.readString();
+                parcel.readString();
+            }
+            parcel.readInt();
+            for (int i = parcel.readInt(); i > 0; i--) {
+                parcel.readInt();
+                parcel.createTypedArrayList(SimpleQueryData.CREATOR);
+            }
+            parcel.recycle();
+        }
+        return size;
+    }
+
+    private static int codecRoundTrips(AllQueryData queryData, int rounds) {
+        int size = 0;
+        for (int round = 0; round < rounds; round++) {
+            Parcel parcel = Parcel.obtain();
+            queryData.writeToParcel(parcel, 0);
+            size = parcel.dataSize();
+            parcel.setDataPosition(0);
+            AllQueryData.CREATOR.createFromParcel(parcel);
+            parcel.recycle();
+        }
+        return size;
+    }
+
+    private static List<SimpleQueryData> items(int count, SwapiCategory category) {
+        List<SimpleQueryData> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(new SimpleQueryData("cj0nv9p8yewci0130wjy" + i, "Item " + i, category));
+        }
+        return items;
+    }
+}
@@ -0,0 +1,72 @@
+package eu.dkaratzas.starwarspedia.models;
+
+import android.os.Parcel;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import eu.dkaratzas.starwarspedia.api.SwapiCategory;
+import eu.dkaratzas.starwarspedia.api.SwapiRelation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The parcels written through the {@link QueryDataCodec}, the round trips themselves are covered by the unit tests
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryDataCodecParcelTest {
+    private static final int ITEMS = 1000;
+
+    @Test
+    public void categoryItems_smallerThanWriteList() {
+        List<SimpleQueryData> items = new ArrayList<>(ITEMS);
+        for (int i = 0; i < ITEMS; i++) {
+            items.add(new SimpleQueryData("cj0nv9p8yewci0130wjy" + i, "Item " + i, SwapiCategory.PEOPLE));
+        }
+
+        // The Parcelable mapping before the codec
+        Parcel parcel = Parcel.obtain();
+        parcel.writeList(items);
+        int listSize = parcel.dataSize();
+        parcel.recycle();
+
+        parcel = Parcel.obtain();
+        new CategoryItems(items, true).writeToParcel(parcel, 0);
+        int codecSize = parcel.dataSize();
+        parcel.setDataPosition(0);
+        CategoryItems decoded = CategoryItems.CREATOR.createFromParcel(parcel);
+        parcel.recycle();
+
+        assertEquals(ITEMS, decoded.getQueryDataList().size());
+        assertEquals(items.get(ITEMS - 1).getId(), decoded.getQueryDataList().get(ITEMS - 1).getId());
+        assertTrue(decoded.isEndReached());
+        assertTrue(codecSize < listSize);
+    }
+
+    @Test
+    public void allQueryData_roundTripsThroughParcel() {
+        LinkedHashMap<String, String> detailsMap = new LinkedHashMap<>();
+        detailsMap.put("Director", "George Lucas");
+        LinkedHashMap<SwapiRelation, List<SimpleQueryData>> relatedItems = new LinkedHashMap<>();
+        relatedItems.put(SwapiRelation.PLANETS, Collections.singletonList(new SimpleQueryData("p1", "Tatooine", SwapiCategory.PLANET)));
+        AllQueryData queryData = new AllQueryData("cj0nxmy3fga5s01148gf8iy3c", "A New Hope", SwapiCategory.FILM, detailsMap, relatedItems);
+
+        Parcel parcel = Parcel.obtain();
+        queryData.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        AllQueryData decoded = AllQueryData.CREATOR.createFromParcel(parcel);
+        parcel.recycle();
+
+        assertEquals(queryData.getId(), decoded.getId());
+        assertEquals(queryData.getCategory(), decoded.getCategory());
+        assertEquals(queryData.getDetailsMap(), decoded.getDetailsMap());
+        assertEquals("Tatooine", decoded.getRelatedItems().get(SwapiRelation.PLANETS).get(0).getTitle());
+    }
+}
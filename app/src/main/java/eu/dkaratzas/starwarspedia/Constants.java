@@ -20,6 +20,10 @@ public class Constants {
     public static final String BASE_URL = "https://api.graphcms.com/simple/v1/swapi";
     public static final String IN_APP_BILLING_LICENSE_KEY = "your in app billing license key";
     public static final String MERCHANT_ID = "your merchant id";
+    public static final String NORMALIZED_CACHE_DB_NAME = "swapi_cache.db";
+    public static final int NORMALIZED_MEMORY_CACHE_SIZE = 2 * 1024 * 1024;
+    public static final String HTTP_CACHE_DIR_NAME = "graphql_http_cache";
+    public static final long HTTP_CACHE_SIZE = 10 * 1024 * 1024;
 
     public static String PREMIUM_PRODUCT_ID() {
         if (BuildConfig.DEBUG)
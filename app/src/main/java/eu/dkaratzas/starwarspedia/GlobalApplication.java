@@ -25,6 +25,12 @@ import com.crashlytics.android.core.CrashlyticsCore;
 import com.squareup.leakcanary.LeakCanary;
 import com.squareup.leakcanary.RefWatcher;
 
+import eu.dkaratzas.starwarspedia.api.ApolloManager;
+import eu.dkaratzas.starwarspedia.api.CategoryPrefetcher;
+import eu.dkaratzas.starwarspedia.api.TimberMetricsSink;
+import eu.dkaratzas.starwarspedia.libs.metrics.LoadTracer;
+import eu.dkaratzas.starwarspedia.provider.FavouriteIds;
+import eu.dkaratzas.starwarspedia.provider.SwapiStore;
 import io.fabric.sdk.android.Fabric;
 import timber.log.Timber;
 
@@ -48,11 +54,16 @@ public class GlobalApplication extends Application {
         }
         refWatcher = LeakCanary.install(this);
 
-        if (BuildConfig.DEBUG) {
+        if (BuildConfig.DEBUG)
             Timber.plant(new Timber.DebugTree());
-        }
-
 
+        ApolloManager.init(this);
+        if (BuildConfig.DEBUG)
+            LoadTracer.setMetricsSink(new TimberMetricsSink(ApolloManager.instance().getHttpCacheStats(), ApolloManager.instance().getPersistedQueryStats()));
+        FavouriteIds.init(this);
+        SwapiStore.init(this);
+        ApolloManager.instance().refreshStore();
+        registerActivityLifecycleCallbacks(CategoryPrefetcher.getLifecycleCallbacks());
         InAppBillingManager.init(this);
     }
 
@@ -23,9 +23,12 @@ import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ImageView;
 
 import com.bumptech.glide.load.engine.DiskCacheStrategy;
 
+import java.util.List;
+
 import eu.dkaratzas.starwarspedia.R;
 import eu.dkaratzas.starwarspedia.holders.CategoryViewHolder;
 import eu.dkaratzas.starwarspedia.libs.GlideApp;
@@ -63,12 +66,34 @@ public class CategoryAdapter extends RecyclerView.Adapter<CategoryViewHolder> {
             }
         });
 
+        loadImage(queryData, holder.mIvThumb);
+    }
+
+    protected void loadImage(SimpleQueryData queryData, ImageView imageView) {
         GlideApp.with(mContext)
                 .load(queryData.getImageStorageReference())
                 .error(R.drawable.ic_image_placeholder)
                 .diskCacheStrategy(DiskCacheStrategy.ALL)
                 .fitCenter()
-                .into(holder.mIvThumb);
+                .into(imageView);
+    }
+
+    /**
+     * Append a page of items at the end of the list
+     */
+    public void addItems(List<SimpleQueryData> items) {
+        int positionStart = mCategoryItems.getQueryDataList().size();
+        mCategoryItems.getQueryDataList().addAll(items);
+        notifyItemRangeInserted(positionStart, items.size());
+    }
+
+    /**
+     * Replace the whole list, i.e. with the results of a new search
+     */
+    public void setItems(List<SimpleQueryData> items) {
+        mCategoryItems.getQueryDataList().clear();
+        mCategoryItems.getQueryDataList().addAll(items);
+        notifyDataSetChanged();
     }
 
     @Override
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.adapters;
+
+import android.content.Context;
+import android.widget.ImageView;
+
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+
+import eu.dkaratzas.starwarspedia.R;
+import eu.dkaratzas.starwarspedia.libs.GlideApp;
+import eu.dkaratzas.starwarspedia.models.CategoryItems;
+import eu.dkaratzas.starwarspedia.models.SimpleQueryData;
+import eu.dkaratzas.starwarspedia.provider.ThumbnailStore;
+
+/**
+ * Shows the thumbnails kept on the {@link ThumbnailStore}, so favourites don't need the network.
+ * Glide decodes them on its own executors, downsampled to the view and kept on its memory LRU cache.
+ * Items without a stored thumbnail fall back to the remote image.
+ */
+public class FavouritesAdapter extends CategoryAdapter {
+    private Context mContext;
+
+    public FavouritesAdapter(Context context, CategoryItems categoryItems, OnItemClickListener itemClickListener) {
+        super(context, categoryItems, itemClickListener);
+        mContext = context;
+    }
+
+    @Override
+    protected void loadImage(SimpleQueryData queryData, ImageView imageView) {
+        GlideApp.with(mContext)
+                .load(ThumbnailStore.getFileForItem(mContext, queryData.getId()))
+                .diskCacheStrategy(DiskCacheStrategy.NONE)
+                .fitCenter()
+                .error(GlideApp.with(mContext)
+                        .load(queryData.getImageStorageReference())
+                        .error(R.drawable.ic_image_placeholder)
+                        .diskCacheStrategy(DiskCacheStrategy.ALL)
+                        .fitCenter())
+                .into(imageView);
+    }
+}
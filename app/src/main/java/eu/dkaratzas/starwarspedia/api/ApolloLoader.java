@@ -30,6 +30,7 @@ import javax.annotation.Nonnull;
 
 /**
  * Loader implementation for Apollo Call API.
+ * The calls go through the {@link RequestRegistry}, so identical loads issued concurrently share one request.
  *
  * @param <T> The data type to be loaded.
  */
@@ -45,11 +46,15 @@ class ApolloLoader<T> extends Loader<ResultHolder<T>> {
      * @param context  The Context to provide to the ApolloLoader.
      * @param manager  The LoaderManager instance.
      * @param id       The unique identifier to be used for the ApolloLoader.
+     * @param key      Identifies the query, loads with the same key in flight share their request.
      * @param call     The call to be executed.
+     * @param cacheable Whether the result can be served from, and is kept in, the {@link RequestManager} result cache.
+     * @param priority The {@link RequestPriority} the call is scheduled with.
+     * @param retryPolicy The {@link RetryPolicy} of the call.
      * @param callback The Apollo callback.
      */
-    public static <T> void load(Context context, LoaderManager manager, int id, ApolloCall<T> call, ApolloCall.Callback<T> callback) {
-        manager.initLoader(id, null, new LoaderCallbacksDelegator<>(context, call, callback));
+    public static <T> void load(Context context, LoaderManager manager, int id, String key, ApolloCall<T> call, boolean cacheable, RequestPriority priority, RetryPolicy retryPolicy, ApolloCall.Callback<T> callback) {
+        manager.initLoader(id, null, new LoaderCallbacksDelegator<>(context, key, call, cacheable, priority, retryPolicy, callback));
     }
 
     /**
@@ -61,32 +66,51 @@ class ApolloLoader<T> extends Loader<ResultHolder<T>> {
      * @param context  The Context to provide to the ApolloLoader.
      * @param manager  The LoaderManager instance.
      * @param id       The unique identifier to be used for the ApolloLoader.
+     * @param key      Identifies the query, loads with the same key in flight share their request.
      * @param call     The call to be executed.
+     * @param cacheable Whether the result is kept in the {@link RequestManager} result cache.
+     * @param priority The {@link RequestPriority} the call is scheduled with.
+     * @param retryPolicy The {@link RetryPolicy} of the call.
      * @param callback The Apollo callback.
      */
-    public static <T> void reload(Context context, LoaderManager manager, int id, ApolloCall<T> call, ApolloCall.Callback<T> callback) {
-        manager.restartLoader(id, null, new LoaderCallbacksDelegator<>(context, call, callback));
+    public static <T> void reload(Context context, LoaderManager manager, int id, String key, ApolloCall<T> call, boolean cacheable, RequestPriority priority, RetryPolicy retryPolicy, ApolloCall.Callback<T> callback) {
+        manager.restartLoader(id, null, new LoaderCallbacksDelegator<>(context, key, call, cacheable, priority, retryPolicy, callback));
     }
 
     static class LoaderCallbacksDelegator<T> implements LoaderManager.LoaderCallbacks<ResultHolder<T>> {
         private final Context context;
+        private final String key;
         private final ApolloCall<T> call;
+        private final boolean cacheable;
+        private final RequestPriority priority;
+        private final RetryPolicy retryPolicy;
         private final ApolloCall.Callback<T> callback;
+        private ResultHolder<T> lastDelivered;
 
-        LoaderCallbacksDelegator(Context context, ApolloCall<T> call, ApolloCall.Callback<T> callback) {
+        LoaderCallbacksDelegator(Context context, String key, ApolloCall<T> call, boolean cacheable, RequestPriority priority, RetryPolicy retryPolicy, ApolloCall.Callback<T> callback) {
             this.context = context;
+            this.key = key;
             this.call = call;
+            this.cacheable = cacheable;
+            this.priority = priority;
+            this.retryPolicy = retryPolicy;
             this.callback = callback;
         }
 
         @NonNull
         @Override
         public Loader<ResultHolder<T>> onCreateLoader(int id, Bundle args) {
-            return new ApolloLoader<>(context, call);
+            return new ApolloLoader<>(context, key, call, cacheable, priority, retryPolicy);
         }
 
         @Override
         public void onLoadFinished(@NonNull Loader<ResultHolder<T>> loader, ResultHolder<T> resultHolder) {
+            // The loader redelivers its result every time its owner starts, every callback sees a result once
+            if (resultHolder == lastDelivered) {
+                return;
+            }
+            lastDelivered = resultHolder;
+
             Response<T> response;
             try {
                 response = resultHolder.get();
@@ -102,17 +126,30 @@ class ApolloLoader<T> extends Loader<ResultHolder<T>> {
         }
     }
 
+    private final String key;
     private final ApolloCall<T> call;
-    private ApolloCall<T> currentCall, cancellingCall;
+    private final boolean cacheable;
+    private final RequestPriority priority;
+    private final RetryPolicy retryPolicy;
+    private RequestRegistry.Subscription<T> currentSubscription;
     private ResultHolder<T> result;
 
-    public ApolloLoader(Context context, ApolloCall<T> call) {
+    public ApolloLoader(Context context, String key, ApolloCall<T> call, boolean cacheable, RequestPriority priority, RetryPolicy retryPolicy) {
         super(context);
+        this.key = key;
         this.call = call;
+        this.cacheable = cacheable;
+        this.priority = priority;
+        this.retryPolicy = retryPolicy;
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     protected void onStartLoading() {
+        if (result == null && cacheable) {
+            result = (ResultHolder<T>) RequestManager.getCachedResult(key);
+        }
+
         if (result != null) {
             deliverResult(result);
         } else {
@@ -150,60 +187,58 @@ class ApolloLoader<T> extends Loader<ResultHolder<T>> {
     protected void onForceLoad() {
         super.onForceLoad();
         cancelLoad();
-        currentCall = call.clone();
-        if (cancellingCall == null) {
-            currentCall.enqueue(new ResultHandler());
-        }
+        ResultHandler resultHandler = new ResultHandler();
+        currentSubscription = RequestRegistry.subscribe(key, call, priority, retryPolicy, resultHandler);
+        resultHandler.subscription = currentSubscription;
     }
 
     @Override
     protected boolean onCancelLoad() {
-        if (currentCall == null) {
-            return false;
-        }
-        if (cancellingCall != null) {
-            // There was a pending call already waiting for a previous
-            // one being canceled; just drop it.
-            currentCall = null;
+        if (currentSubscription == null) {
             return false;
         }
-        currentCall.cancel();
-        cancellingCall = currentCall;
-        currentCall = null;
-        return true;
+        // Unsubscribing is immediate, the request itself is cancelled once nobody else waits for it
+        currentSubscription.cancel();
+        currentSubscription = null;
+        return false;
     }
 
     private class ResultHandler extends ApolloCall.Callback<T> {
-        private final ApolloCall<T> call;
-
-        ResultHandler() {
-            call = currentCall;
-        }
+        private RequestRegistry.Subscription<T> subscription;
 
         @Override
         public void onResponse(@Nonnull Response<T> response) {
-            onResult(new ResultHolder.ResponseHolder<>(response));
+            onResult(new ResultHolder.ResponseHolder<>(response), false);
         }
 
         @Override
         public void onFailure(@Nonnull ApolloException e) {
-            onResult(new ResultHolder.ErrorHolder<T>(e));
+            onResult(new ResultHolder.ErrorHolder<T>(e), true);
+        }
+
+        @Override
+        public void onStatusEvent(@Nonnull ApolloCall.StatusEvent event) {
+            // A CACHE_AND_NETWORK call responds twice, the call is done only once completed
+            if (event == ApolloCall.StatusEvent.COMPLETED && isCurrent()) {
+                currentSubscription = null;
+            }
         }
 
-        private void onResult(ResultHolder<T> result) {
-            if (currentCall != call) {
-                if (cancellingCall == call) {
-                    cancellingCall = null;
-                    deliverCancellation();
-                    if (currentCall != null) {
-                        currentCall.enqueue(new ResultHandler());
-                    }
+        private boolean isCurrent() {
+            // A result may arrive while subscribe() hasn't returned yet
+            return subscription == null || currentSubscription == subscription;
+        }
+
+        private void onResult(ResultHolder<T> result, boolean completed) {
+            if (isCurrent() && !isAbandoned()) {
+                if (completed) {
+                    currentSubscription = null;
+                }
+                if (cacheable && result instanceof ResultHolder.ResponseHolder) {
+                    RequestManager.putCachedResult(key, result);
                 }
-            } else if (!isAbandoned()) {
-                currentCall = null;
                 deliverResult(result);
             }
         }
     }
 }
-
@@ -16,30 +16,43 @@
 
 package eu.dkaratzas.starwarspedia.api;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v4.app.LoaderManager;
 
 import com.apollographql.apollo.ApolloCall;
 import com.apollographql.apollo.ApolloClient;
+import com.apollographql.apollo.ApolloQueryCall;
+import com.apollographql.apollo.api.Operation;
 import com.apollographql.apollo.api.Response;
+import com.apollographql.apollo.api.ResponseField;
+import com.apollographql.apollo.api.cache.http.HttpCachePolicy;
+import com.apollographql.apollo.cache.normalized.CacheKey;
+import com.apollographql.apollo.cache.normalized.CacheKeyResolver;
+import com.apollographql.apollo.cache.normalized.NormalizedCacheFactory;
+import com.apollographql.apollo.cache.normalized.lru.EvictionPolicy;
+import com.apollographql.apollo.cache.normalized.lru.LruNormalizedCacheFactory;
+import com.apollographql.apollo.cache.normalized.sql.ApolloSqlHelper;
+import com.apollographql.apollo.cache.normalized.sql.SqlNormalizedCacheFactory;
 import com.apollographql.apollo.exception.ApolloException;
 import com.apollographql.apollo.response.CustomTypeAdapter;
 import com.apollographql.apollo.response.CustomTypeValue;
 import com.crashlytics.android.Crashlytics;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nonnull;
 import javax.net.ssl.SSLContext;
@@ -47,12 +60,6 @@ import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509TrustManager;
 
-import api.AllFilmsQuery;
-import api.AllPersonsQuery;
-import api.AllPlanetsQuery;
-import api.AllSpeciesQuery;
-import api.AllStarshipsQuery;
-import api.AllVehiclesQuery;
 import api.FilmQuery;
 import api.PersonQuery;
 import api.PlanetQuery;
@@ -61,108 +68,230 @@ import api.StarshipQuery;
 import api.VehicleQuery;
 import api.type.CustomType;
 import eu.dkaratzas.starwarspedia.Constants;
+import eu.dkaratzas.starwarspedia.libs.IsoDateTime;
 import eu.dkaratzas.starwarspedia.libs.Tls12SocketFactory;
+import eu.dkaratzas.starwarspedia.libs.metrics.LoadTrace;
+import eu.dkaratzas.starwarspedia.libs.metrics.LoadTracer;
 import eu.dkaratzas.starwarspedia.models.AllQueryData;
-import eu.dkaratzas.starwarspedia.models.CategoryItems;
+import eu.dkaratzas.starwarspedia.models.JsonQueryDataMapper;
+import eu.dkaratzas.starwarspedia.models.SimpleQueryData;
+import eu.dkaratzas.starwarspedia.provider.SwapiStore;
+import okhttp3.CacheControl;
 import okhttp3.ConnectionSpec;
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
+import okhttp3.Request;
 import okhttp3.TlsVersion;
 import timber.log.Timber;
 
 /**
  * ApolloManager Singleton Class
- * Every call uses a custom Loaded {@link ApolloLoader} to fetch and deliver the result to controllers
+ * Category lists are streamed by the {@link StreamingCategoryFetcher}, item queries use a custom Loaded {@link ApolloLoader}
+ * to fetch and deliver the result to controllers.
+ * Responses are normalized by SWAPI id into a memory LRU cache chained to a SQLite cache, so entities
+ * shared between queries are read locally according to the {@link FetchPolicy} of each call.
+ * Requests go through the {@link RequestScheduler}: the loads a screen waits on are interactive,
+ * the rows around the viewport are visible and the prefetching runs in background.
  */
 public class ApolloManager implements Serializable {
-
-    private static volatile ApolloManager sharedInstance = new ApolloManager();
+    // Detail queries are retried on transient errors and hedged when slower than their p95
+    private static final RetryPolicy DETAIL_RETRY_POLICY = new RetryPolicy(3, 500, 8000, true);
+    // Set by Apollo from the HttpCachePolicy of the call
+    private static final String APOLLO_FETCH_STRATEGY_HEADER = "X-APOLLO-CACHE-FETCH-STRATEGY";
+
+    private static volatile ApolloManager sharedInstance;
+    private Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private ApolloClient apolloClient;
+    private OkHttpClient okHttpClient;
+    private GraphQLHttpCache httpCache;
+    private PersistedQueryInterceptor persistedQueries;
+    private BatchedItemFetcher batchedItemFetcher;
+    private StreamingCategoryFetcher streamingCategoryFetcher;
+    private StoreRefresher storeRefresher;
+
+    public static void init(Context context) {
+        if (sharedInstance == null) {
+            synchronized (ApolloManager.class) {
+                if (sharedInstance == null) sharedInstance = new ApolloManager(context.getApplicationContext());
+            }
+        }
+    }
 
-    private ApolloManager() {
+    private ApolloManager(Context context) {
         // Prevent from the reflection api.
         if (sharedInstance != null) {
-            throw new RuntimeException("Use getInstance() method to get the single instance of this class.");
+            throw new RuntimeException("Use instance() method to get the single instance of this class.");
         }
+        this.context = context;
 
-        // Custom DateTime Scalar Type
+        // Custom DateTime Scalar Type, decoded on the Apollo dispatcher threads so no shared or per call format objects
         CustomTypeAdapter dateCustomTypeAdapter = new CustomTypeAdapter<Date>() {
             @Override
             public Date decode(CustomTypeValue value) {
-
-                @SuppressLint("SimpleDateFormat") SimpleDateFormat dateFormatParse = new SimpleDateFormat("yyyy-MM-dd'T'hh:mm:ss.SSS'Z'");
-                try {
-                    Date date = dateFormatParse.parse(value.value.toString());
-                    Timber.d("Date ->%s", date);
-                    return date;
-                } catch (ParseException e) {
-                    throw new RuntimeException(e);
-
-                }
+                return IsoDateTime.parse(value.value.toString());
             }
 
             @Override
             public CustomTypeValue encode(@NonNull Date value) {
-                return new CustomTypeValue.GraphQLString(DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT).format(value));
+                return new CustomTypeValue.GraphQLString(IsoDateTime.format(value.getTime()));
             }
         };
 
+        persistedQueries = new PersistedQueryInterceptor();
+        httpCache = new GraphQLHttpCache(new File(context.getCacheDir(), Constants.HTTP_CACHE_DIR_NAME), Constants.HTTP_CACHE_SIZE);
+        // Every request goes to the same host, let the lanes of the RequestScheduler decide what runs
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(RequestScheduler.getMaxConcurrentRequests());
+
+        okHttpClient = enableTls12OnPreLollipop(new OkHttpClient.Builder())
+                .dispatcher(dispatcher)
+                .addInterceptor(provideForceNetworkInterceptor())
+                .addInterceptor(httpCache)
+                .addInterceptor(persistedQueries)
+                .addNetworkInterceptor(LoadTracer.firstByteInterceptor())
+                .build();
+        httpCache.setRevalidationClient(okHttpClient);
+
         apolloClient = ApolloClient.builder()
                 .serverUrl(Constants.BASE_URL)
                 .addCustomTypeAdapter(CustomType.DATETIME, dateCustomTypeAdapter)
-                .okHttpClient(enableTls12OnPreLollipop(new OkHttpClient.Builder()).build())
+                .normalizedCache(provideNormalizedCacheFactory(context), provideCacheKeyResolver())
+                .defaultHttpCachePolicy(HttpCachePolicy.CACHE_FIRST)
+                .okHttpClient(okHttpClient)
                 .build();
+
+        batchedItemFetcher = new BatchedItemFetcher(context, okHttpClient, DETAIL_RETRY_POLICY.forOperation("BatchedItems"));
+        streamingCategoryFetcher = new StreamingCategoryFetcher(okHttpClient);
+        storeRefresher = new StoreRefresher(context, okHttpClient);
     }
 
     public static ApolloManager instance() {
+        // Prevent from the reflection api.
         if (sharedInstance == null) {
-            synchronized (ApolloManager.class) {
-                if (sharedInstance == null) sharedInstance = new ApolloManager();
-            }
+            throw new RuntimeException("Must call init first.");
         }
 
         return sharedInstance;
     }
 
     /**
-     * Fetch a SWAPI category from the server using {@link ApolloLoader}
-     *
-     * @param context       The Context to provide to the ApolloLoader.
-     * @param swapiCategory The {@link SwapiCategory} to fetch from the server
-     * @param loaderManager The LoaderManager instance.
-     * @param loaderId      The unique identifier to be used for the ApolloLoader.
-     * @param apiCallback   The Loader callback.
+     * @return How the GraphQL requests were served by the HTTP cache since the app started
      */
-    public void fetchSwapiCategory(Context context, SwapiCategory swapiCategory, LoaderManager loaderManager, int loaderId, final StarWarsApiCallback<CategoryItems> apiCallback) {
+    public GraphQLHttpCache.Stats getHttpCacheStats() {
+        return httpCache.getStats();
+    }
 
-        ApolloLoader.load(context, loaderManager, loaderId, getApolloCallForCategory(swapiCategory), new ApolloCall.Callback() {
-            @Override
-            public void onResponse(@Nonnull Response response) {
-                apiCallback.onResponse(new CategoryItems(response));
-            }
+    /**
+     * @return How many queries were sent by hash since the app started
+     */
+    public PersistedQueryInterceptor.Stats getPersistedQueryStats() {
+        return persistedQueries.getStats();
+    }
 
-            @Override
-            public void onFailure(@Nonnull ApolloException e) {
-                apiCallback.onResponse(null);
+    /**
+     * Fetch in background the entities edited since the {@link SwapiStore} was last refreshed, see {@link StoreRefresher}
+     */
+    public void refreshStore() {
+        storeRefresher.refresh();
+    }
 
-                Timber.e(e);
-                Crashlytics.logException(e);
-            }
-        });
+    /**
+     * Stream a page of a SWAPI category, the items are handed over while the response is being parsed.
+     *
+     * @param swapiCategory The {@link SwapiCategory} to fetch from the server
+     * @param skip          The number of items before the page, see {@link CategoryPager}.
+     * @param fetchPolicy   {@link FetchPolicy#NETWORK_ONLY} skips the HTTP cache, the rest may be served by it.
+     * @param loadTrace     The {@link LoadTrace} whose FIRST_BYTE the request marks, if any.
+     * @param callback      Receives the items on the main thread.
+     * @return The {@link CategoryStream}, cancel it to drop the request.
+     */
+    public CategoryStream streamSwapiCategory(SwapiCategory swapiCategory, int skip, FetchPolicy fetchPolicy, @Nullable LoadTrace loadTrace, CategoryStreamCallback callback) {
+        return streamSwapiCategory(swapiCategory, skip, fetchPolicy, RequestPriority.INTERACTIVE, loadTrace, callback);
+    }
 
+    /**
+     * @param priority The {@link RequestPriority} of the stream, i.e. background for prefetching
+     * @see #streamSwapiCategory(SwapiCategory, int, FetchPolicy, LoadTrace, CategoryStreamCallback)
+     */
+    CategoryStream streamSwapiCategory(SwapiCategory swapiCategory, int skip, FetchPolicy fetchPolicy, RequestPriority priority, @Nullable LoadTrace loadTrace, CategoryStreamCallback callback) {
+        return streamingCategoryFetcher.fetch(swapiCategory, skip, fetchPolicy, priority, loadTrace, callback);
     }
 
     /**
-     * Fetch a SWAPI item from the server using {@link ApolloLoader}
+     * Fetch a SWAPI item using {@link ApolloLoader}, serving it from the {@link SwapiStore} or the normalized cache when available.
      *
      * @param context       The Context to provide to the ApolloLoader.
      * @param swapiCategory The {@link SwapiCategory} where the item belong, to fetch from the server
-     * @param loaderManager The LoaderManager instance.
-     * @param loaderId      The unique identifier to be used for the ApolloLoader.
+     * @param loaderManager The LoaderManager instance, the loader id is derived from the query.
      * @param apiCallback   The Loader callback.
      */
-    public void fetchSwapiItem(final Context context, String id, SwapiCategory swapiCategory, LoaderManager loaderManager, int loaderId, final StarWarsApiCallback<AllQueryData> apiCallback) {
+    public void fetchSwapiItem(final Context context, String id, SwapiCategory swapiCategory, LoaderManager loaderManager, final StarWarsApiCallback<AllQueryData> apiCallback) {
+        fetchSwapiItem(context, id, swapiCategory, FetchPolicy.CACHE_FIRST, loaderManager, apiCallback);
+    }
 
-        ApolloLoader.load(context, loaderManager, loaderId, getApolloCallForItemOnCategoryById(id, swapiCategory),
+    /**
+     * Fetch a SWAPI item using {@link ApolloLoader}.
+     * Transient failures are retried with backoff and slow responses are hedged, see {@link RetryPolicy}.
+     *
+     * @param context       The Context to provide to the ApolloLoader.
+     * @param swapiCategory The {@link SwapiCategory} where the item belong, to fetch from the server
+     * @param fetchPolicy   The {@link FetchPolicy} to resolve the item with.
+     * @param loaderManager The LoaderManager instance, the loader id is derived from the query.
+     * @param apiCallback   The Loader callback.
+     */
+    public void fetchSwapiItem(final Context context, final String id, final SwapiCategory swapiCategory, FetchPolicy fetchPolicy, final LoaderManager loaderManager, final StarWarsApiCallback<AllQueryData> apiCallback) {
+
+        // Already mapped, i.e. prefetched by a batch
+        AllQueryData cachedData = SwapiItemCache.get(swapiCategory, id);
+        if (cachedData != null && fetchPolicy != FetchPolicy.NETWORK_ONLY) {
+            apiCallback.onResponse(cachedData);
+            if (fetchPolicy == FetchPolicy.CACHE_FIRST)
+                return;
+        } else if (fetchPolicy == FetchPolicy.CACHE_FIRST && SwapiStore.contains(swapiCategory, id)) {
+            loadStoredItem(id, swapiCategory, apiCallback, new Runnable() {
+                @Override
+                public void run() {
+                    loadItem(context, id, swapiCategory, FetchPolicy.CACHE_FIRST, loaderManager, apiCallback);
+                }
+            });
+            return;
+        }
+
+        loadItem(context, id, swapiCategory, fetchPolicy, loaderManager, apiCallback);
+    }
+
+    /**
+     * Map the item from the {@link SwapiStore} off the main thread
+     *
+     * @param fallback Run on the main thread if the item is gone from the store meanwhile
+     */
+    private void loadStoredItem(final String id, final SwapiCategory swapiCategory, final StarWarsApiCallback<AllQueryData> apiCallback, final Runnable fallback) {
+        SwapiStore.execute(new Runnable() {
+            @Override
+            public void run() {
+                final AllQueryData storedData = JsonQueryDataMapper.map(context, swapiCategory, SwapiStore.getDetails(swapiCategory, id));
+                SwapiItemCache.put(storedData);
+                EntityGraph.record(storedData);
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (storedData != null) {
+                            apiCallback.onResponse(storedData);
+                        } else {
+                            fallback.run();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void loadItem(final Context context, String id, SwapiCategory swapiCategory, FetchPolicy fetchPolicy, LoaderManager loaderManager, final StarWarsApiCallback<AllQueryData> apiCallback) {
+        RequestManager.load(context, loaderManager, getItemKey(id, swapiCategory, fetchPolicy), getApolloCallForItemOnCategoryById(id, swapiCategory, fetchPolicy), fetchPolicy, RequestPriority.INTERACTIVE,
+                DETAIL_RETRY_POLICY.forOperation(swapiCategory.name()),
                 new ApolloCall.Callback() {
                     @Override
                     public void onResponse(@Nonnull Response response) {
@@ -170,6 +299,8 @@ public class ApolloManager implements Serializable {
                         if (responseData.getCategory() == null) // Responce.Data.Model was null
                             responseData = null;
 
+                        SwapiItemCache.put(responseData);
+                        EntityGraph.record(responseData);
                         apiCallback.onResponse(responseData);
                     }
 
@@ -184,50 +315,240 @@ public class ApolloManager implements Serializable {
     }
 
     /**
+     * @return The item if it can be displayed right away: its details from the {@link SwapiItemCache}, or just its related items
+     * from the {@link EntityGraph} when its details are still to be fetched, see {@link AllQueryData#hasDetails()}.
+     * Null when the item must be fetched first.
+     */
+    @Nullable
+    public AllQueryData peekSwapiItem(String id, SwapiCategory swapiCategory) {
+        AllQueryData cachedData = SwapiItemCache.get(swapiCategory, id);
+        return cachedData != null ? cachedData : EntityGraph.getOutline(swapiCategory, id);
+    }
+
+    /**
+     * Fetch a SWAPI item through the {@link BatchedItemFetcher}, the requests issued close together
+     * travel in a single GraphQL document.
+     *
      * @param id            The id of the item to fetch
      * @param swapiCategory The {@link SwapiCategory} where the item belong
-     * @return {@link ApolloCall} that will be used by the Loader to async execute the request
+     * @param apiCallback   Called on the main thread with the item, or null if it failed.
      */
-    private ApolloCall getApolloCallForItemOnCategoryById(String id, SwapiCategory swapiCategory) {
-        switch (swapiCategory) {
-            case FILM:
-                return apolloClient.query(FilmQuery.builder().id(id).build());
-            case PEOPLE:
-                return apolloClient.query(PersonQuery.builder().id(id).build());
-            case PLANET:
-                return apolloClient.query(PlanetQuery.builder().id(id).build());
-            case SPECIES:
-                return apolloClient.query(SpeciesQuery.builder().id(id).build());
-            case VEHICLE:
-                return apolloClient.query(VehicleQuery.builder().id(id).build());
-            case STARSHIP:
-                return apolloClient.query(StarshipQuery.builder().id(id).build());
+    public void fetchSwapiItemBatched(final String id, final SwapiCategory swapiCategory, final StarWarsApiCallback<AllQueryData> apiCallback) {
+        AllQueryData cachedData = SwapiItemCache.get(swapiCategory, id);
+        if (cachedData != null) {
+            apiCallback.onResponse(cachedData);
+        } else if (SwapiStore.contains(swapiCategory, id)) {
+            loadStoredItem(id, swapiCategory, apiCallback, new Runnable() {
+                @Override
+                public void run() {
+                    batchedItemFetcher.fetch(id, swapiCategory, apiCallback);
+                }
+            });
+        } else {
+            batchedItemFetcher.fetch(id, swapiCategory, apiCallback);
         }
+    }
 
-        return null;
+    /**
+     * Fetch the header of a SWAPI item to display it right away: its details and only the related items already
+     * known to the {@link EntityGraph}. The rest of the relations are loaded on their own with {@link #fetchRelatedItemsBatched},
+     * so a film with dozens of characters doesn't hold back the first paint. Stored items are complete.
+     * The user waits on it: it runs in the interactive lane, retried and hedged with the detail {@link RetryPolicy}.
+     *
+     * @param id            The id of the item to fetch
+     * @param swapiCategory The {@link SwapiCategory} where the item belong
+     * @param apiCallback   Called on the main thread with the item, or null if it failed.
+     */
+    public void fetchSwapiItemHeader(final String id, final SwapiCategory swapiCategory, final StarWarsApiCallback<AllQueryData> apiCallback) {
+        AllQueryData cachedData = SwapiItemCache.get(swapiCategory, id);
+        if (cachedData != null) {
+            apiCallback.onResponse(cachedData);
+        } else if (SwapiStore.contains(swapiCategory, id)) {
+            loadStoredItem(id, swapiCategory, apiCallback, new Runnable() {
+                @Override
+                public void run() {
+                    batchedItemFetcher.fetchHeader(id, swapiCategory, apiCallback);
+                }
+            });
+        } else {
+            batchedItemFetcher.fetchHeader(id, swapiCategory, apiCallback);
+        }
+    }
+
+    /**
+     * Withdraw a {@link #fetchSwapiItemHeader} call whose result is not needed anymore, i.e. its screen is gone.
+     *
+     * @param id            The id of the item
+     * @param swapiCategory The {@link SwapiCategory} where the item belong
+     * @param apiCallback   The callback given to {@link #fetchSwapiItemHeader}
+     */
+    public void cancelSwapiItemHeader(String id, SwapiCategory swapiCategory, StarWarsApiCallback<AllQueryData> apiCallback) {
+        batchedItemFetcher.cancelHeader(id, swapiCategory, apiCallback);
+    }
+
+    /**
+     * Fetch a single relation of a SWAPI item, i.e. a section of its details scrolled into view.
+     *
+     * @param id            The id of the item
+     * @param swapiCategory The {@link SwapiCategory} where the item belong
+     * @param relation      The {@link SwapiRelation} to fetch
+     * @param apiCallback   Called on the main thread with the item holding the relation, or null if it failed.
+     */
+    public void fetchRelatedItemsBatched(final String id, final SwapiCategory swapiCategory, final SwapiRelation relation, final StarWarsApiCallback<AllQueryData> apiCallback) {
+        AllQueryData cachedData = SwapiItemCache.get(swapiCategory, id);
+        if (cachedData != null && cachedData.getRelatedItems().containsKey(relation)) {
+            apiCallback.onResponse(cachedData);
+        } else if (SwapiStore.contains(swapiCategory, id)) {
+            loadStoredItem(id, swapiCategory, apiCallback, new Runnable() {
+                @Override
+                public void run() {
+                    batchedItemFetcher.fetchRelated(id, swapiCategory, relation, apiCallback);
+                }
+            });
+        } else {
+            batchedItemFetcher.fetchRelated(id, swapiCategory, relation, apiCallback);
+        }
+    }
+
+    /**
+     * Withdraw a {@link #fetchRelatedItemsBatched} call whose result is not needed anymore.
+     *
+     * @param id            The id of the item
+     * @param swapiCategory The {@link SwapiCategory} where the item belong
+     * @param relation      The {@link SwapiRelation} given to {@link #fetchRelatedItemsBatched}
+     * @param apiCallback   The callback given to {@link #fetchRelatedItemsBatched}
+     */
+    public void cancelRelatedItemsBatched(String id, SwapiCategory swapiCategory, SwapiRelation relation, StarWarsApiCallback<AllQueryData> apiCallback) {
+        batchedItemFetcher.cancelRelated(id, swapiCategory, relation, apiCallback);
+    }
+
+    /**
+     * Withdraw a {@link #fetchSwapiItemBatched} call whose result is not needed anymore.
+     *
+     * @param id            The id of the item
+     * @param swapiCategory The {@link SwapiCategory} where the item belong
+     * @param apiCallback   The callback given to {@link #fetchSwapiItemBatched}
+     */
+    public void cancelSwapiItemBatched(String id, SwapiCategory swapiCategory, StarWarsApiCallback<AllQueryData> apiCallback) {
+        batchedItemFetcher.cancel(id, swapiCategory, apiCallback);
+    }
+
+    /**
+     * Fetch in one request the details of the items that are not already cached,
+     * so opening any of them later doesn't hit the network.
+     *
+     * @param items The items to prefetch
+     */
+    public void prefetchSwapiItems(List<SimpleQueryData> items) {
+        for (SimpleQueryData item : items) {
+            if (!SwapiItemCache.contains(item.getCategory(), item.getId()) && !SwapiStore.contains(item.getCategory(), item.getId()))
+                batchedItemFetcher.fetch(item.getId(), item.getCategory(), null);
+        }
     }
 
     /**
-     * @param swapiCategory The {@link SwapiCategory} to return the corresponding {@link ApolloCall}
+     * @param id            The id of the item to fetch
+     * @param swapiCategory The {@link SwapiCategory} where the item belong
+     * @param fetchPolicy   The {@link FetchPolicy} to apply on the call
      * @return {@link ApolloCall} that will be used by the Loader to async execute the request
      */
-    private ApolloCall getApolloCallForCategory(SwapiCategory swapiCategory) {
+    private ApolloCall getApolloCallForItemOnCategoryById(String id, SwapiCategory swapiCategory, FetchPolicy fetchPolicy) {
+        ApolloQueryCall call = null;
         switch (swapiCategory) {
             case FILM:
-                return apolloClient.query(AllFilmsQuery.builder().build());
+                call = apolloClient.query(FilmQuery.builder().id(id).build());
+                break;
             case PEOPLE:
-                return apolloClient.query(AllPersonsQuery.builder().build());
+                call = apolloClient.query(PersonQuery.builder().id(id).build());
+                break;
             case PLANET:
-                return apolloClient.query(AllPlanetsQuery.builder().build());
+                call = apolloClient.query(PlanetQuery.builder().id(id).build());
+                break;
             case SPECIES:
-                return apolloClient.query(AllSpeciesQuery.builder().build());
+                call = apolloClient.query(SpeciesQuery.builder().id(id).build());
+                break;
             case VEHICLE:
-                return apolloClient.query(AllVehiclesQuery.builder().build());
+                call = apolloClient.query(VehicleQuery.builder().id(id).build());
+                break;
             case STARSHIP:
-                return apolloClient.query(AllStarshipsQuery.builder().build());
+                call = apolloClient.query(StarshipQuery.builder().id(id).build());
+                break;
         }
 
-        return null;
+        return call == null ? null : applyFetchPolicy(call, fetchPolicy);
+    }
+
+    /**
+     * @return The {@link RequestRegistry} key of an item query
+     */
+    private static String getItemKey(String id, SwapiCategory swapiCategory, FetchPolicy fetchPolicy) {
+        return swapiCategory.name() + "(" + id + ")/" + fetchPolicy.name();
+    }
+
+    /**
+     * {@link FetchPolicy#NETWORK_ONLY} skips the normalized cache and the {@link GraphQLHttpCache} too
+     */
+    private static ApolloCall applyFetchPolicy(ApolloQueryCall call, FetchPolicy fetchPolicy) {
+        if (fetchPolicy == FetchPolicy.NETWORK_ONLY)
+            call = call.httpCachePolicy(HttpCachePolicy.NETWORK_ONLY);
+        return call.responseFetcher(fetchPolicy.getResponseFetcher());
+    }
+
+    /**
+     * Apollo calls can't carry an OkHttp {@link CacheControl}, so their network only {@link HttpCachePolicy}
+     * is turned into {@link CacheControl#FORCE_NETWORK} before the {@link GraphQLHttpCache} sees the request.
+     */
+    private static Interceptor provideForceNetworkInterceptor() {
+        return new Interceptor() {
+            @Override
+            public okhttp3.Response intercept(@NonNull Chain chain) throws IOException {
+                Request request = chain.request();
+                if (!HttpCachePolicy.NETWORK_ONLY.fetchStrategy.name().equals(request.header(APOLLO_FETCH_STRATEGY_HEADER)))
+                    return chain.proceed(request);
+
+                return chain.proceed(request.newBuilder()
+                        .cacheControl(CacheControl.FORCE_NETWORK)
+                        .build());
+            }
+        };
+    }
+
+    /**
+     * Memory LRU cache in front of a SQLite cache, so repeated reads within a session never touch the disk.
+     */
+    private NormalizedCacheFactory provideNormalizedCacheFactory(Context context) {
+        ApolloSqlHelper apolloSqlHelper = ApolloSqlHelper.create(context, Constants.NORMALIZED_CACHE_DB_NAME);
+
+        return new LruNormalizedCacheFactory(EvictionPolicy.builder().maxSizeBytes(Constants.NORMALIZED_MEMORY_CACHE_SIZE).build())
+                .chain(new SqlNormalizedCacheFactory(apolloSqlHelper));
+    }
+
+    /**
+     * Every SWAPI entity carries a globally unique id, so records are keyed by it.
+     * This lets an entity seen in a list query or as a related item of another entity
+     * resolve the same cache record as its own detail query.
+     */
+    private CacheKeyResolver provideCacheKeyResolver() {
+        return new CacheKeyResolver() {
+            @Nonnull
+            @Override
+            public CacheKey fromFieldRecordSet(@Nonnull ResponseField field, @Nonnull Map<String, Object> recordSet) {
+                return formatCacheKey((String) recordSet.get("id"));
+            }
+
+            @Nonnull
+            @Override
+            public CacheKey fromFieldArguments(@Nonnull ResponseField field, @Nonnull Operation.Variables variables) {
+                return formatCacheKey((String) field.resolveArgument("id", variables));
+            }
+
+            private CacheKey formatCacheKey(String id) {
+                if (id == null || id.isEmpty()) {
+                    return CacheKey.NO_KEY;
+                }
+                return CacheKey.from(id);
+            }
+        };
     }
 
     private OkHttpClient.Builder enableTls12OnPreLollipop(OkHttpClient.Builder client) {
@@ -0,0 +1,652 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.api;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.crashlytics.android.Crashlytics;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.dkaratzas.starwarspedia.Constants;
+import eu.dkaratzas.starwarspedia.models.AllQueryData;
+import eu.dkaratzas.starwarspedia.models.JsonQueryDataMapper;
+import eu.dkaratzas.starwarspedia.models.SimpleQueryData;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import timber.log.Timber;
+
+/**
+ * Coalesces the item requests issued within {@link #BATCH_WINDOW} ms into a single GraphQL document,
+ * every item being an aliased root field, i.e. <code>i0: Person(id: $i0) {..} i1: Film(id: $i1) {..}</code>.
+ * The response is split back to the callbacks of every item and the complete mapped items are kept in the {@link SwapiItemCache}.
+ * A batch runs in the lane of its most urgent item: {@link RequestPriority#INTERACTIVE} for a header, which is flushed
+ * right away, {@link RequestPriority#VISIBLE} for the other items with a callback, and background for prefetching.
+ * Failed batches are retried and slow ones hedged as the {@link RetryPolicy} says, prefetch only batches are not hedged.
+ * Items whose related items are all known to the {@link EntityGraph} select only their scalar fields.
+ * The header of an item and each of its relations can be fetched on their own, see {@link #fetchHeader} and {@link #fetchRelated}.
+ */
+class BatchedItemFetcher {
+    private static final long BATCH_WINDOW = 30;
+    private static final int MAX_BATCH_SIZE = 25;
+    private static final MediaType MEDIA_TYPE_JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private final Context context;
+    private final OkHttpClient okHttpClient;
+    private final RetryPolicy retryPolicy;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Object lock = new Object();
+    private LinkedHashMap<String, PendingItem> pendingItems = new LinkedHashMap<>();
+    private final Map<String, PendingItem> inFlightItems = new HashMap<>();
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    BatchedItemFetcher(Context context, OkHttpClient okHttpClient, RetryPolicy retryPolicy) {
+        this.context = context.getApplicationContext();
+        this.okHttpClient = okHttpClient;
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Queue the item on the current batch.
+     *
+     * @param id       The id of the item to fetch
+     * @param category The {@link SwapiCategory} where the item belong
+     * @param callback Called on the main thread with the item, or null if it failed. When null the item is
+     *                 fetched for prefetching and can't be cancelled.
+     */
+    void fetch(String id, SwapiCategory category, @Nullable StarWarsApiCallback<AllQueryData> callback) {
+        enqueue(id, category, null, false, callback == null ? RequestPriority.BACKGROUND : RequestPriority.VISIBLE, callback);
+    }
+
+    /**
+     * Queue the scalar fields of the item on the current batch, with the related items the {@link EntityGraph} knows.
+     * The user waits on it, the batch is sent right away in the interactive lane.
+     *
+     * @param id       The id of the item to fetch
+     * @param category The {@link SwapiCategory} where the item belong
+     * @param callback Called on the main thread with the item, or null if it failed
+     */
+    void fetchHeader(String id, SwapiCategory category, StarWarsApiCallback<AllQueryData> callback) {
+        enqueue(id, category, null, true, RequestPriority.INTERACTIVE, callback);
+    }
+
+    /**
+     * Queue a single relation of the item on the current batch.
+     *
+     * @param id       The id of the item
+     * @param category The {@link SwapiCategory} where the item belong
+     * @param relation The relation to fetch
+     * @param callback Called on the main thread with the item holding the relation, combined with the item in the
+     *                 {@link SwapiItemCache} if any, or null if it failed
+     */
+    void fetchRelated(String id, SwapiCategory category, SwapiRelation relation, StarWarsApiCallback<AllQueryData> callback) {
+        enqueue(id, category, relation, false, RequestPriority.VISIBLE, callback);
+    }
+
+    private void enqueue(String id, SwapiCategory category, @Nullable SwapiRelation relation, boolean header, RequestPriority priority, @Nullable StarWarsApiCallback<AllQueryData> callback) {
+        Batch joinedBatch = null;
+        synchronized (lock) {
+            String key = key(id, category, relation, header);
+
+            PendingItem pendingItem = inFlightItems.get(key);
+            if (pendingItem != null) {
+                // Already scheduled, just wait for that batch
+                pendingItem.addCallback(callback, priority);
+                joinedBatch = pendingItem.batch;
+            } else {
+                pendingItem = pendingItems.get(key);
+                if (pendingItem == null) {
+                    pendingItem = new PendingItem(key, id, category, relation, header);
+                    pendingItems.put(key, pendingItem);
+                }
+                pendingItem.addCallback(callback, priority);
+
+                if (pendingItems.size() >= MAX_BATCH_SIZE || priority == RequestPriority.INTERACTIVE) {
+                    mainHandler.removeCallbacks(flushRunnable);
+                    mainHandler.post(flushRunnable);
+                } else if (pendingItems.size() == 1) {
+                    mainHandler.postDelayed(flushRunnable, BATCH_WINDOW);
+                }
+            }
+        }
+
+        // Someone waits on a prefetched item now
+        if (joinedBatch != null && callback != null)
+            RequestScheduler.promote(joinedBatch, priority);
+    }
+
+    /**
+     * Withdraw the callback of a previous {@link #fetch} call. When nobody waits for the item anymore it is
+     * dropped from the batch, and when a whole batch on the wire is unwanted its request gets cancelled.
+     *
+     * @param id       The id of the item
+     * @param category The {@link SwapiCategory} where the item belong
+     * @param callback The callback given to {@link #fetch}
+     */
+    void cancel(String id, SwapiCategory category, StarWarsApiCallback<AllQueryData> callback) {
+        withdraw(key(id, category, null, false), callback);
+    }
+
+    /**
+     * Withdraw the callback of a previous {@link #fetchHeader} call, see {@link #cancel}.
+     */
+    void cancelHeader(String id, SwapiCategory category, StarWarsApiCallback<AllQueryData> callback) {
+        withdraw(key(id, category, null, true), callback);
+    }
+
+    /**
+     * Withdraw the callback of a previous {@link #fetchRelated} call, see {@link #cancel}.
+     */
+    void cancelRelated(String id, SwapiCategory category, SwapiRelation relation, StarWarsApiCallback<AllQueryData> callback) {
+        withdraw(key(id, category, relation, false), callback);
+    }
+
+    private void withdraw(String key, StarWarsApiCallback<AllQueryData> callback) {
+        Batch unwantedBatch = null;
+        List<Call> cancelledCalls = null;
+        synchronized (lock) {
+            PendingItem pendingItem = pendingItems.get(key);
+            if (pendingItem != null) {
+                if (pendingItem.removeCallback(callback))
+                    pendingItems.remove(key);
+                return;
+            }
+
+            pendingItem = inFlightItems.get(key);
+            if (pendingItem != null && pendingItem.removeCallback(callback) && pendingItem.batch.isUnwanted()) {
+                Timber.d("Cancelling batch of %d unwanted items", pendingItem.batch.items.size());
+                unwantedBatch = pendingItem.batch;
+                cancelledCalls = unwantedBatch.abort();
+            }
+        }
+
+        if (unwantedBatch != null) {
+            unwantedBatch.cancel(cancelledCalls);
+            RequestScheduler.cancel(unwantedBatch);
+        }
+    }
+
+    private void flush() {
+        final List<PendingItem> items;
+        Batch batch = null;
+        synchronized (lock) {
+            if (pendingItems.isEmpty()) {
+                return;
+            }
+            items = new ArrayList<>(pendingItems.values());
+            pendingItems = new LinkedHashMap<>();
+            for (PendingItem pendingItem : items) {
+                if (pendingItem.header)
+                    pendingItem.relatedItems = EntityGraph.getCompleteRelatedItems(pendingItem.category, pendingItem.id);
+                else if (pendingItem.relation == null)
+                    pendingItem.relatedItems = EntityGraph.getRelatedItems(pendingItem.category, pendingItem.id);
+            }
+
+            Request request = null;
+            try {
+                request = new Request.Builder()
+                        .url(Constants.BASE_URL)
+                        .post(RequestBody.create(MEDIA_TYPE_JSON, buildRequestBody(items)))
+                        .build();
+            } catch (JSONException e) {
+                Timber.e(e);
+            }
+
+            if (request != null) {
+                RequestPriority priority = RequestPriority.BACKGROUND;
+                for (PendingItem pendingItem : items) {
+                    if (pendingItem.priority.ordinal() < priority.ordinal())
+                        priority = pendingItem.priority;
+                }
+
+                batch = new Batch(items, request, priority);
+                for (PendingItem pendingItem : items) {
+                    pendingItem.batch = batch;
+                    inFlightItems.put(pendingItem.key, pendingItem);
+                }
+            }
+        }
+
+        // A request that couldn't be built fails outside the lock, like the network paths, so the callbacks may enqueue again
+        if (batch != null)
+            RequestScheduler.submit(batch);
+        else
+            deliver(items, null);
+    }
+
+    private void deliver(List<PendingItem> batch, @Nullable JSONObject data) {
+        for (int i = 0; i < batch.size(); i++) {
+            final PendingItem pendingItem = batch.get(i);
+            AllQueryData mappedData = data == null ? null : JsonQueryDataMapper.map(context, pendingItem.category, data.optJSONObject(alias(i)));
+            if (mappedData != null && pendingItem.relation != null) {
+                // Only the relation was selected, combine it with the complete item if cached
+                EntityGraph.record(mappedData);
+                AllQueryData cachedData = SwapiItemCache.get(pendingItem.category, pendingItem.id);
+                if (cachedData != null) {
+                    mappedData = cachedData.withRelatedItems(mappedData.getRelatedItems());
+                    SwapiItemCache.put(mappedData);
+                }
+            } else if (mappedData != null && pendingItem.relatedItems != null) {
+                // Only the scalars were selected, the related items come from the graph. A header lacking some is not cached
+                mappedData = mappedData.withRelatedItems(pendingItem.relatedItems);
+                SwapiItemCache.put(mappedData);
+            } else {
+                EntityGraph.record(mappedData);
+                SwapiItemCache.put(mappedData);
+            }
+            final AllQueryData queryData = mappedData;
+
+            final List<StarWarsApiCallback<AllQueryData>> callbacks;
+            synchronized (lock) {
+                inFlightItems.remove(pendingItem.key);
+                callbacks = new ArrayList<>(pendingItem.callbacks);
+            }
+
+            if (!callbacks.isEmpty()) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (StarWarsApiCallback<AllQueryData> callback : callbacks) {
+                            callback.onResponse(queryData);
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    private static String buildRequestBody(List<PendingItem> batch) throws JSONException {
+        StringBuilder variablesDefinition = new StringBuilder();
+        StringBuilder selections = new StringBuilder();
+        JSONObject variables = new JSONObject();
+
+        for (int i = 0; i < batch.size(); i++) {
+            PendingItem pendingItem = batch.get(i);
+            String alias = alias(i);
+
+            if (i != 0)
+                variablesDefinition.append(", ");
+            variablesDefinition.append('$').append(alias).append(": ID");
+
+            selections.append(alias).append(": ")
+                    .append(SwapiSelections.rootField(pendingItem.category))
+                    .append("(id: $").append(alias).append(") ")
+                    .append(selection(pendingItem))
+                    .append(' ');
+
+            variables.put(alias, pendingItem.id);
+        }
+
+        JSONObject body = new JSONObject();
+        body.put("query", "query BatchedItems(" + variablesDefinition + ") { " + selections + "}");
+        body.put("variables", variables);
+        return body.toString();
+    }
+
+    private static String selection(PendingItem pendingItem) {
+        if (pendingItem.relation != null)
+            return SwapiSelections.related(pendingItem.category, pendingItem.relation);
+
+        return pendingItem.relatedItems != null ? SwapiSelections.scalars(pendingItem.category) : SwapiSelections.details(pendingItem.category);
+    }
+
+    private static String alias(int index) {
+        return "i" + index;
+    }
+
+    /**
+     * @return The key of the pending and in flight item, the header and every relation of an item are fetched apart from its details
+     */
+    private static String key(String id, SwapiCategory category, @Nullable SwapiRelation relation, boolean header) {
+        String key = SwapiItemCache.key(category, id);
+        if (relation != null)
+            return key + "/" + relation.name();
+
+        return header ? key + "/header" : key;
+    }
+
+    private static class PendingItem {
+        final String key;
+        final String id;
+        final SwapiCategory category;
+        // Set when only this relation is fetched
+        final SwapiRelation relation;
+        // Only the scalars are fetched, along with the complete relations of the graph
+        final boolean header;
+        final List<StarWarsApiCallback<AllQueryData>> callbacks = new ArrayList<>();
+        boolean pinned;
+        // The lane of the most urgent caller
+        RequestPriority priority = RequestPriority.BACKGROUND;
+        Batch batch;
+        // The related items known when the batch was built, only the scalars are fetched when set
+        LinkedHashMap<SwapiRelation, List<SimpleQueryData>> relatedItems;
+
+        PendingItem(String key, String id, SwapiCategory category, @Nullable SwapiRelation relation, boolean header) {
+            this.key = key;
+            this.id = id;
+            this.category = category;
+            this.relation = relation;
+            this.header = header;
+        }
+
+        void addCallback(@Nullable StarWarsApiCallback<AllQueryData> callback, RequestPriority callerPriority) {
+            if (callback == null)
+                pinned = true;
+            else
+                callbacks.add(callback);
+            if (callerPriority.ordinal() < priority.ordinal())
+                priority = callerPriority;
+        }
+
+        /**
+         * @return true if nobody waits for this item anymore
+         */
+        boolean removeCallback(StarWarsApiCallback<AllQueryData> callback) {
+            callbacks.remove(callback);
+            return isUnwanted();
+        }
+
+        boolean isUnwanted() {
+            return !pinned && callbacks.isEmpty();
+        }
+    }
+
+    private class Batch extends RequestScheduler.Task {
+        final List<PendingItem> items;
+        final Request request;
+        final boolean hedging;
+        // Guarded by lock. The calls on the wire, two while hedging. An interrupted call is cancelled and its outcome ignored
+        final List<Call> calls = new ArrayList<>();
+        boolean aborted;
+        boolean completed;
+        int retries;
+        // When the first call of the current round was issued, a hedge counts from there too
+        long startedAt;
+        // A pending retry or hedge
+        Runnable timer;
+
+        Batch(List<PendingItem> items, Request request, RequestPriority priority) {
+            super("batch of " + items.size() + " items", priority);
+            this.items = items;
+            this.request = request;
+            this.hedging = priority != RequestPriority.BACKGROUND;
+        }
+
+        boolean isUnwanted() {
+            for (PendingItem pendingItem : items) {
+                if (!pendingItem.isUnwanted())
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * Drop the batch, must be called holding lock
+         *
+         * @return The calls to cancel, see {@link #cancel}
+         */
+        List<Call> abort() {
+            aborted = true;
+            for (PendingItem pendingItem : items) {
+                inFlightItems.remove(pendingItem.key);
+            }
+            return detachCalls();
+        }
+
+        @Override
+        void start() {
+            List<Call> previousCalls;
+            Call attemptCall;
+            synchronized (lock) {
+                if (aborted || completed) {
+                    return;
+                }
+                previousCalls = detachCalls();
+                attemptCall = newCall();
+            }
+
+            cancel(previousCalls);
+            Timber.d("Fetching %d items in one request", items.size());
+            issue(attemptCall);
+        }
+
+        @Override
+        void interrupt() {
+            List<Call> interruptedCalls;
+            synchronized (lock) {
+                interruptedCalls = detachCalls();
+            }
+            cancel(interruptedCalls);
+        }
+
+        // Must be called holding lock
+        private Call newCall() {
+            Call attemptCall = okHttpClient.newCall(request);
+            if (calls.isEmpty())
+                startedAt = SystemClock.elapsedRealtime();
+            calls.add(attemptCall);
+            return attemptCall;
+        }
+
+        // Must be called holding lock
+        private List<Call> detachCalls() {
+            cancelTimer();
+            List<Call> detachedCalls = new ArrayList<>(calls);
+            calls.clear();
+            return detachedCalls;
+        }
+
+        // Must be called holding lock
+        private void schedule(Runnable runnable, long delay) {
+            cancelTimer();
+            timer = runnable;
+            mainHandler.postDelayed(runnable, delay);
+        }
+
+        // Must be called holding lock
+        private void cancelTimer() {
+            if (timer != null) {
+                mainHandler.removeCallbacks(timer);
+                timer = null;
+            }
+        }
+
+        /**
+         * Cancel the detached calls, the time they waited is only known to be shorter than their latency
+         */
+        void cancel(List<Call> cancelledCalls) {
+            long waited = -1;
+            synchronized (lock) {
+                if (!cancelledCalls.isEmpty())
+                    waited = SystemClock.elapsedRealtime() - startedAt;
+            }
+            for (Call cancelledCall : cancelledCalls) {
+                cancelledCall.cancel();
+            }
+            if (waited >= 0)
+                retryPolicy.recordCensoredLatency(waited);
+        }
+
+        private void issue(Call attemptCall) {
+            synchronized (lock) {
+                scheduleHedge();
+            }
+
+            attemptCall.enqueue(new Callback() {
+                @Override
+                public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                    if (isCurrent(call)) {
+                        Timber.e(e);
+                        fail(call, true);
+                    }
+                }
+
+                @Override
+                public void onResponse(@NonNull Call call, @NonNull Response response) {
+                    JSONObject data = null;
+                    ResponseBody body = response.body();
+                    try {
+                        if (!isCurrent(call))
+                            return;
+
+                        if (!response.isSuccessful()) {
+                            fail(call, retryPolicy.isRetryable(response.code()));
+                            return;
+                        }
+                        if (body != null) {
+                            data = new JSONObject(body.string()).optJSONObject("data");
+                        }
+                    } catch (IOException e) {
+                        // Cut off while reading the body
+                        Timber.e(e);
+                        fail(call, true);
+                        return;
+                    } catch (JSONException e) {
+                        Timber.e(e);
+                        Crashlytics.logException(e);
+                    } finally {
+                        response.close();
+                    }
+                    succeed(call, data);
+                }
+            });
+        }
+
+        /**
+         * @return false if the call was interrupted or aborted, its outcome is ignored
+         */
+        private boolean isCurrent(Call attemptCall) {
+            synchronized (lock) {
+                return calls.contains(attemptCall);
+            }
+        }
+
+        private void succeed(Call attemptCall, @Nullable JSONObject data) {
+            List<Call> losers;
+            synchronized (lock) {
+                if (completed || !calls.remove(attemptCall)) {
+                    return;
+                }
+                // First to answer, the other copy is not needed anymore
+                completed = true;
+                retryPolicy.recordLatency(SystemClock.elapsedRealtime() - startedAt);
+                losers = detachCalls();
+            }
+
+            // Already counted by the winner
+            for (Call loser : losers) {
+                loser.cancel();
+            }
+            complete(data);
+        }
+
+        private void fail(Call attemptCall, boolean retryable) {
+            synchronized (lock) {
+                if (completed || !calls.remove(attemptCall) || !calls.isEmpty()) {
+                    // The other copy may still succeed
+                    return;
+                }
+                if (retryable && retries < retryPolicy.getMaxRetries()) {
+                    long delay = retryPolicy.getBackoffDelay(retries++);
+                    Timber.d("Retrying the batch of %d items in %d ms", items.size(), delay);
+                    schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            retry();
+                        }
+                    }, delay);
+                    return;
+                }
+                completed = true;
+                cancelTimer();
+            }
+
+            complete(null);
+        }
+
+        // Must be called holding lock
+        private void scheduleHedge() {
+            final long delay = !hedging || calls.size() != 1 || timer != null ? -1 : retryPolicy.getHedgeDelay();
+            if (delay < 0) {
+                return;
+            }
+
+            schedule(new Runnable() {
+                @Override
+                public void run() {
+                    hedge(delay);
+                }
+            }, delay);
+        }
+
+        private void retry() {
+            Call attemptCall;
+            synchronized (lock) {
+                timer = null;
+                if (aborted || completed || !calls.isEmpty()) {
+                    return;
+                }
+                // The failed call is not a latency sample, the retry counts on its own
+                attemptCall = newCall();
+            }
+            issue(attemptCall);
+        }
+
+        private void hedge(long delay) {
+            Call attemptCall;
+            synchronized (lock) {
+                timer = null;
+                if (aborted || completed || calls.size() != 1) {
+                    return;
+                }
+                attemptCall = newCall();
+            }
+            Timber.d("Hedging the batch of %d items, no response after %d ms", items.size(), delay);
+            issue(attemptCall);
+        }
+
+        private void complete(@Nullable JSONObject data) {
+            RequestScheduler.finish(this);
+            deliver(items, data);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.api;
+
+import android.support.annotation.Nullable;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import eu.dkaratzas.starwarspedia.models.CategoryItems;
+
+/**
+ * Process wide memory cache of the category lists, filled by every category response.
+ * The streamed lists keep their first page only, the rest is paged in by a {@link CategoryPager}.
+ * There are only six of them, so they are never evicted;
+ * the HTTP cache of {@link ApolloManager} keeps them on disk across launches.
+ */
+public class CategoryItemsCache {
+    private static final Map<SwapiCategory, CategoryItems> sCache = new EnumMap<>(SwapiCategory.class);
+
+    @Nullable
+    public static synchronized CategoryItems get(SwapiCategory category) {
+        return sCache.get(category);
+    }
+
+    public static synchronized boolean contains(SwapiCategory category) {
+        return sCache.containsKey(category);
+    }
+
+    static synchronized void put(SwapiCategory category, CategoryItems categoryItems) {
+        sCache.put(category, categoryItems);
+    }
+
+    static synchronized void remove(SwapiCategory category) {
+        sCache.remove(category);
+    }
+}
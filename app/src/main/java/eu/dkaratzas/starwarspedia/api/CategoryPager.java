@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.api;
+
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.StaggeredGridLayoutManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import eu.dkaratzas.starwarspedia.models.CategoryItems;
+import eu.dkaratzas.starwarspedia.models.SimpleQueryData;
+import timber.log.Timber;
+
+/**
+ * Pages in the rest of a category list while the user scrolls, the next page is requested
+ * once the last visible row gets within {@link #LOAD_AHEAD_ROWS} rows of the end of the loaded items.
+ * The list handed in must be the one the adapter shows, the pages continue from its size.
+ * Paging stops once a page comes back short, a failed page is retried on the next scroll.
+ */
+public class CategoryPager extends RecyclerView.OnScrollListener {
+    private static final int LOAD_AHEAD_ROWS = 4;
+
+    private final SwapiCategory mCategory;
+    private final CategoryItems mCategoryItems;
+    private final List<SimpleQueryData> mItems;
+    private final Listener mListener;
+    private RecyclerView mRecyclerView;
+    private CategoryStream mStream;
+
+    /**
+     * @param categoryItems The items shown, its end flag is updated from every page loaded
+     */
+    public CategoryPager(SwapiCategory category, CategoryItems categoryItems, Listener listener) {
+        mCategory = category;
+        mCategoryItems = categoryItems;
+        mItems = categoryItems.getQueryDataList();
+        mListener = listener;
+    }
+
+    public void attach(RecyclerView recyclerView) {
+        mRecyclerView = recyclerView;
+        mRecyclerView.addOnScrollListener(this);
+
+        // The first page may not fill the screen
+        mRecyclerView.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mRecyclerView != null)
+                    loadIfNearEnd();
+            }
+        });
+    }
+
+    public void detach() {
+        if (mRecyclerView != null) {
+            mRecyclerView.removeOnScrollListener(this);
+            mRecyclerView = null;
+        }
+        if (mStream != null) {
+            mStream.cancel();
+            mStream = null;
+        }
+    }
+
+    @Override
+    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        if (dy > 0)
+            loadIfNearEnd();
+    }
+
+    private void loadIfNearEnd() {
+        if (mRecyclerView == null || mStream != null || mCategoryItems.isEndReached() || !(mRecyclerView.getLayoutManager() instanceof StaggeredGridLayoutManager))
+            return;
+
+        StaggeredGridLayoutManager layoutManager = (StaggeredGridLayoutManager) mRecyclerView.getLayoutManager();
+        int last = RecyclerView.NO_POSITION;
+        for (int position : layoutManager.findLastVisibleItemPositions(null)) {
+            last = Math.max(last, position);
+        }
+        if (last == RecyclerView.NO_POSITION || last < mItems.size() - layoutManager.getSpanCount() * LOAD_AHEAD_ROWS)
+            return;
+
+        loadNextPage();
+    }
+
+    private void loadNextPage() {
+        final int skip = mItems.size();
+        Timber.d("Loading the %s page after %d items", mCategory, skip);
+
+        mListener.onPageLoading(true);
+        mStream = ApolloManager.instance().streamSwapiCategory(mCategory, skip, FetchPolicy.CACHE_FIRST, RequestPriority.VISIBLE, null, new CategoryStreamCallback() {
+            @Override
+            public void onItems(List<SimpleQueryData> items) {
+                // The listener appends them to the shared list through the adapter
+                mListener.onItems(new ArrayList<>(items));
+            }
+
+            @Override
+            public void onComplete(CategoryItems result) {
+                mStream = null;
+                mListener.onPageLoading(false);
+
+                if (result == null) {
+                    // Retried on the next scroll, from the last item received
+                    Timber.d("Failed to load the %s page after %d items", mCategory, skip);
+                    mListener.onPageFailed();
+                    return;
+                }
+
+                mCategoryItems.setEndReached(result.isEndReached());
+                loadIfNearEnd();
+            }
+        });
+    }
+
+    public interface Listener {
+        /**
+         * Append the items to the adapter, called on the main thread while a page is parsed
+         */
+        void onItems(List<SimpleQueryData> items);
+
+        void onPageLoading(boolean loading);
+
+        /**
+         * The page failed, maybe after some of its items were handed over
+         */
+        void onPageFailed();
+    }
+}
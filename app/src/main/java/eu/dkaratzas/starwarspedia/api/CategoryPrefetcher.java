@@ -0,0 +1,155 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.api;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.dkaratzas.starwarspedia.models.CategoryItems;
+import eu.dkaratzas.starwarspedia.models.SimpleQueryData;
+import timber.log.Timber;
+
+/**
+ * Warms up the {@link CategoryItemsCache} by fetching the first page of every {@link SwapiCategory} list concurrently,
+ * so switching categories from the drawer doesn't wait for the network.
+ * Work stops while the app is in background, see {@link #getLifecycleCallbacks()}.
+ */
+public class CategoryPrefetcher {
+    private static final int MAX_CONCURRENT_REQUESTS = 3;
+
+    private static final Object sLock = new Object();
+    private static final Deque<SwapiCategory> sPending = new ArrayDeque<>();
+    private static final Map<SwapiCategory, CategoryStream> sInFlight = new EnumMap<>(SwapiCategory.class);
+    private static boolean sInterrupted = false;
+
+    /**
+     * Fetch every category that is not already cached, at most {@link #MAX_CONCURRENT_REQUESTS} at a time.
+     */
+    public static void start() {
+        synchronized (sLock) {
+            sInterrupted = false;
+
+            for (SwapiCategory category : SwapiCategory.values()) {
+                if (!CategoryItemsCache.contains(category) && !sInFlight.containsKey(category) && !sPending.contains(category)) {
+                    sPending.add(category);
+                }
+            }
+
+            drain();
+        }
+    }
+
+    /**
+     * Cancel the in flight requests and drop the pending ones.
+     */
+    public static void cancel() {
+        synchronized (sLock) {
+            if (!sPending.isEmpty() || !sInFlight.isEmpty()) {
+                sInterrupted = true;
+                Timber.d("Category prefetch cancelled");
+            }
+
+            sPending.clear();
+            for (CategoryStream stream : sInFlight.values()) {
+                stream.cancel();
+            }
+            sInFlight.clear();
+        }
+    }
+
+    /**
+     * @return Callbacks to register on the {@link Application}, they cancel the prefetch when the app
+     * goes to background and resume it when it comes back.
+     */
+    public static Application.ActivityLifecycleCallbacks getLifecycleCallbacks() {
+        return new Application.ActivityLifecycleCallbacks() {
+            private int startedActivities = 0;
+
+            @Override
+            public void onActivityStarted(Activity activity) {
+                startedActivities++;
+
+                boolean resume;
+                synchronized (sLock) {
+                    resume = startedActivities == 1 && sInterrupted;
+                }
+                if (resume)
+                    start();
+            }
+
+            @Override
+            public void onActivityStopped(Activity activity) {
+                startedActivities--;
+
+                if (startedActivities == 0)
+                    cancel();
+            }
+
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            }
+
+            @Override
+            public void onActivityResumed(Activity activity) {
+            }
+
+            @Override
+            public void onActivityPaused(Activity activity) {
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+            }
+
+            @Override
+            public void onActivityDestroyed(Activity activity) {
+            }
+        };
+    }
+
+    // Must be called holding sLock
+    private static void drain() {
+        while (sInFlight.size() < MAX_CONCURRENT_REQUESTS && !sPending.isEmpty()) {
+            final SwapiCategory category = sPending.poll();
+
+            CategoryStream stream = ApolloManager.instance().streamSwapiCategory(category, 0, FetchPolicy.CACHE_FIRST, RequestPriority.BACKGROUND, null, new CategoryStreamCallback() {
+                @Override
+                public void onItems(List<SimpleQueryData> items) {
+                }
+
+                @Override
+                public void onComplete(CategoryItems result) {
+                    synchronized (sLock) {
+                        // Removed already if the prefetch got cancelled
+                        if (sInFlight.remove(category) != null) {
+                            drain();
+                        }
+                    }
+                }
+            });
+
+            sInFlight.put(category, stream);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.api;
+
+/**
+ * The interest of one caller on a category list being streamed, see {@link ApolloManager#streamSwapiCategory}.
+ */
+public class CategoryStream {
+    private final StreamingCategoryFetcher fetcher;
+    final StreamingCategoryFetcher.ListStream stream;
+    final CategoryStreamCallback callback;
+    volatile boolean cancelled;
+
+    CategoryStream(StreamingCategoryFetcher fetcher, StreamingCategoryFetcher.ListStream stream, CategoryStreamCallback callback) {
+        this.fetcher = fetcher;
+        this.stream = stream;
+        this.callback = callback;
+    }
+
+    /**
+     * Stop receiving items, the request is cancelled if nobody else waits for the list
+     */
+    public void cancel() {
+        if (!cancelled) {
+            cancelled = true;
+            fetcher.cancel(this);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.api;
+
+import android.support.annotation.Nullable;
+
+import java.util.List;
+
+import eu.dkaratzas.starwarspedia.models.CategoryItems;
+import eu.dkaratzas.starwarspedia.models.SimpleQueryData;
+
+/**
+ * Receives a category list while it is being parsed, every method is called on the main thread.
+ */
+public interface CategoryStreamCallback {
+
+    /**
+     * @param items The next items of the list, in order
+     */
+    void onItems(List<SimpleQueryData> items);
+
+    /**
+     * @param categoryItems The complete list, or null if it failed. A list may fail after some of its items were handed over.
+     */
+    void onComplete(@Nullable CategoryItems categoryItems);
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.api;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import eu.dkaratzas.starwarspedia.models.AllQueryData;
+import eu.dkaratzas.starwarspedia.models.SimpleQueryData;
+
+/**
+ * Process wide graph of the SWAPI entities, a node per category and id linked by typed {@link SwapiRelation} edges.
+ * Every mapped item response is recorded, its edges become complete and the inverse edges are added to the related nodes,
+ * so the items reached from a detail page already have their title and, once recorded, their related items.
+ * The nodes hold no details, those stay in the bounded {@link SwapiItemCache}. SWAPI has a few hundred
+ * entities so the graph is not bounded.
+ */
+public class EntityGraph {
+    private static final Object sLock = new Object();
+    private static final Map<String, Node> sNodes = new HashMap<>();
+
+    /**
+     * Record the related items of a mapped response, the relations it holds replace the known edges
+     */
+    static void record(@Nullable AllQueryData queryData) {
+        if (queryData == null || queryData.getCategory() == null || queryData.getId() == null)
+            return;
+
+        synchronized (sLock) {
+            Node node = node(queryData.getCategory(), queryData.getId(), queryData.getTitle());
+
+            for (Map.Entry<SwapiRelation, List<SimpleQueryData>> entry : queryData.getRelatedItems().entrySet()) {
+                SwapiRelation relation = entry.getKey();
+                SwapiRelation inverse = relation.inverse(node.category);
+
+                Set<Node> targets = new LinkedHashSet<>();
+                for (SimpleQueryData item : entry.getValue()) {
+                    targets.add(node(item.getCategory(), item.getId(), item.getTitle()));
+                }
+
+                // Unlink the nodes the relation doesn't point to anymore
+                Set<Node> previousTargets = node.edges.get(relation);
+                if (previousTargets != null && node.complete.contains(relation)) {
+                    for (Node previousTarget : previousTargets) {
+                        if (!targets.contains(previousTarget))
+                            previousTarget.edges(inverse).remove(node);
+                    }
+                }
+
+                node.edges.put(relation, targets);
+                node.complete.add(relation);
+                for (Node target : targets) {
+                    target.edges(inverse).add(node);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forget that the edges of the item are complete, i.e. when the item got replaced in the {@link eu.dkaratzas.starwarspedia.provider.SwapiStore}.
+     * The edges stay as hints until the item is recorded again.
+     */
+    static void invalidate(SwapiCategory category, String id) {
+        synchronized (sLock) {
+            Node node = sNodes.get(SwapiItemCache.key(category, id));
+            if (node != null)
+                node.complete.clear();
+        }
+    }
+
+    /**
+     * @return The related items of every relation of the item, or null unless all of them are complete
+     */
+    @Nullable
+    static LinkedHashMap<SwapiRelation, List<SimpleQueryData>> getRelatedItems(SwapiCategory category, String id) {
+        LinkedHashMap<SwapiRelation, List<SimpleQueryData>> relatedItems = getCompleteRelatedItems(category, id);
+        return relatedItems.size() == SwapiRelation.of(category).length ? relatedItems : null;
+    }
+
+    /**
+     * @return The related items of the complete relations of the item, the ones a header doesn't have to fetch
+     */
+    static LinkedHashMap<SwapiRelation, List<SimpleQueryData>> getCompleteRelatedItems(SwapiCategory category, String id) {
+        LinkedHashMap<SwapiRelation, List<SimpleQueryData>> relatedItems = new LinkedHashMap<>();
+        synchronized (sLock) {
+            Node node = sNodes.get(SwapiItemCache.key(category, id));
+            if (node == null)
+                return relatedItems;
+
+            for (SwapiRelation relation : SwapiRelation.of(category)) {
+                if (!node.complete.contains(relation))
+                    continue;
+
+                Set<Node> targets = node.edges.get(relation);
+                List<SimpleQueryData> items = new ArrayList<>(targets.size());
+                for (Node target : targets) {
+                    items.add(new SimpleQueryData(target.id, target.title, target.category));
+                }
+                relatedItems.put(relation, items);
+            }
+            return relatedItems;
+        }
+    }
+
+    /**
+     * @return The item with its related items and without details, or null unless all of its relations are complete
+     * @see AllQueryData#hasDetails()
+     */
+    @Nullable
+    public static AllQueryData getOutline(SwapiCategory category, String id) {
+        LinkedHashMap<SwapiRelation, List<SimpleQueryData>> relatedItems = getRelatedItems(category, id);
+        if (relatedItems == null)
+            return null;
+
+        String title;
+        synchronized (sLock) {
+            title = sNodes.get(SwapiItemCache.key(category, id)).title;
+        }
+        return new AllQueryData(id, title, category, new LinkedHashMap<String, String>(), relatedItems);
+    }
+
+    // Must be called holding sLock
+    private static Node node(SwapiCategory category, String id, String title) {
+        String key = SwapiItemCache.key(category, id);
+
+        Node node = sNodes.get(key);
+        if (node == null) {
+            node = new Node(id, category);
+            sNodes.put(key, node);
+        }
+        if (title != null && !title.isEmpty())
+            node.title = title;
+        return node;
+    }
+
+    private static class Node {
+        final String id;
+        final SwapiCategory category;
+        String title = "";
+        // Nodes are unique per key, identity equality is enough for the sets
+        final Map<SwapiRelation, Set<Node>> edges = new EnumMap<>(SwapiRelation.class);
+        // The relations recorded from a response of this item, the rest only hold the inverse edges seen so far
+        final Set<SwapiRelation> complete = EnumSet.noneOf(SwapiRelation.class);
+
+        Node(String id, SwapiCategory category) {
+            this.id = id;
+            this.category = category;
+        }
+
+        Set<Node> edges(SwapiRelation relation) {
+            Set<Node> targets = edges.get(relation);
+            if (targets == null) {
+                targets = new LinkedHashSet<>();
+                edges.put(relation, targets);
+            }
+            return targets;
+        }
+    }
+}
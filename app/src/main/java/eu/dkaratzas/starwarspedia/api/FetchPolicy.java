@@ -0,0 +1,48 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.api;
+
+import com.apollographql.apollo.fetcher.ApolloResponseFetchers;
+import com.apollographql.apollo.fetcher.ResponseFetcher;
+
+/**
+ * How a call resolves its data against the normalized cache of {@link ApolloManager}.
+ */
+public enum FetchPolicy {
+    /**
+     * Read from the cache, go to the network only on a cache miss.
+     */
+    CACHE_FIRST(ApolloResponseFetchers.CACHE_FIRST),
+    /**
+     * Always go to the network, the response still updates the cache.
+     */
+    NETWORK_ONLY(ApolloResponseFetchers.NETWORK_ONLY),
+    /**
+     * Deliver the cached data right away (if any) and then the network response.
+     */
+    CACHE_AND_NETWORK(ApolloResponseFetchers.CACHE_AND_NETWORK);
+
+    private final ResponseFetcher responseFetcher;
+
+    FetchPolicy(ResponseFetcher responseFetcher) {
+        this.responseFetcher = responseFetcher;
+    }
+
+    ResponseFetcher getResponseFetcher() {
+        return responseFetcher;
+    }
+}
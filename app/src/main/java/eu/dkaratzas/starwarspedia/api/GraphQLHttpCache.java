@@ -0,0 +1,649 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.api;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+import okio.Timeout;
+import timber.log.Timber;
+
+/**
+ * OkHttp application interceptor that caches the GraphQL POST responses, which {@link okhttp3.Cache} skips.
+ * Entries are keyed by the request body, i.e. the operation and its variables.
+ * <ul>
+ * <li>Younger than {@link #FRESH_TIME}: served from disk.</li>
+ * <li>Younger than {@link #STALE_TIME}: served from disk and revalidated in the background.</li>
+ * <li>Older: revalidated with If-None-Match / If-Modified-Since before being served.</li>
+ * </ul>
+ * Requests with a no-cache {@link okhttp3.CacheControl}, i.e. {@link okhttp3.CacheControl#FORCE_NETWORK}, always go to the network.
+ * <p>
+ * A network response is written to its entry while the caller reads it, so streaming callers see the bytes as they
+ * arrive. The entry is kept only if the caller read the body to its end.
+ */
+public class GraphQLHttpCache implements Interceptor {
+    private static final long FRESH_TIME = TimeUnit.HOURS.toMillis(6);
+    private static final long STALE_TIME = TimeUnit.DAYS.toMillis(14);
+    private static final int ENTRY_VERSION = 2;
+    private static final String ENTRY_EXTENSION = ".entry";
+    private static final String TMP_EXTENSION = ".tmp";
+    // How long closing a body waits for its unread rest, to complete the entry
+    private static final long DISCARD_TIMEOUT_MILLIS = 100;
+
+    private final File mDirectory;
+    private final long mMaxSize;
+    private final Stats mStats = new Stats();
+    // Keys with a background revalidation queued or in flight
+    private final Set<String> mRevalidatingKeys = new HashSet<>();
+    private volatile OkHttpClient mRevalidationClient;
+
+    public GraphQLHttpCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * @param client The client this interceptor is installed on, background revalidations are issued with it
+     *               bypassing this cache
+     */
+    public void setRevalidationClient(OkHttpClient client) {
+        OkHttpClient.Builder builder = client.newBuilder();
+        builder.interceptors().remove(this);
+        mRevalidationClient = builder.build();
+    }
+
+    public Stats getStats() {
+        return mStats;
+    }
+
+    @Override
+    public Response intercept(@NonNull Chain chain) throws IOException {
+        Request request = chain.request();
+        if (!"POST".equals(request.method()) || request.body() == null) {
+            return chain.proceed(request);
+        }
+
+        Buffer buffer = new Buffer();
+        request.body().writeTo(buffer);
+        final String key = buffer.readByteString().md5().hex();
+
+        // A forced refresh skips the stored entry, the response still replaces it
+        Entry entry = request.cacheControl().noCache() ? null : read(key);
+        if (entry != null) {
+            long age = System.currentTimeMillis() - entry.storedAt;
+            if (age < FRESH_TIME) {
+                mStats.hits.incrementAndGet();
+                return entry.toResponse(request);
+            } else if (age < STALE_TIME) {
+                mStats.staleHits.incrementAndGet();
+                revalidateInBackground(request, key, entry);
+                return entry.toResponse(request);
+            }
+        }
+
+        Response response = chain.proceed(conditional(request, entry));
+        return handleNetworkResponse(request, key, entry, response, false);
+    }
+
+    /**
+     * @param background true for a background revalidation, its request was already counted as a stale hit
+     */
+    private Response handleNetworkResponse(Request request, String key, @Nullable Entry entry, Response response, boolean background) throws IOException {
+        if (response.code() == 304 && entry != null) {
+            response.close();
+            mStats.revalidated.incrementAndGet();
+
+            Entry refreshed = new Entry(System.currentTimeMillis(), entry.etag, entry.lastModified, entry.contentType, entry.body);
+            write(key, refreshed);
+            return refreshed.toResponse(request);
+        }
+
+        if (!background)
+            mStats.misses.incrementAndGet();
+        ResponseBody body = response.body();
+        if (!response.isSuccessful() || body == null) {
+            return response;
+        }
+
+        MediaType mediaType = body.contentType();
+        Entry header = new Entry(System.currentTimeMillis(),
+                response.header("ETag"),
+                response.header("Last-Modified"),
+                mediaType == null ? null : mediaType.toString(),
+                null);
+
+        if (background) {
+            // Nobody reads it, the response is closed right away
+            byte[] bytes = body.bytes();
+            ErrorsMatcher errorsMatcher = new ErrorsMatcher();
+            errorsMatcher.update(new Buffer().write(bytes), 0, bytes.length);
+            if (!errorsMatcher.found)
+                write(key, header.withBody(bytes));
+
+            return response.newBuilder()
+                    .body(ResponseBody.create(mediaType, bytes))
+                    .build();
+        }
+
+        CachingSource cachingSource = CachingSource.open(this, key, header, body.source());
+        if (cachingSource == null) {
+            return response;
+        }
+        return response.newBuilder()
+                .body(ResponseBody.create(mediaType, body.contentLength(), Okio.buffer(cachingSource)))
+                .build();
+    }
+
+    private void revalidateInBackground(final Request request, final String key, final Entry entry) {
+        OkHttpClient client = mRevalidationClient;
+        if (client == null)
+            return;
+
+        synchronized (mRevalidatingKeys) {
+            if (!mRevalidatingKeys.add(key))
+                return;
+        }
+        RequestScheduler.submit(new Revalidation(client, request, key, entry));
+    }
+
+    private static Request conditional(Request request, @Nullable Entry entry) {
+        if (entry == null)
+            return request;
+
+        Request.Builder builder = request.newBuilder();
+        if (entry.etag != null)
+            builder.header("If-None-Match", entry.etag);
+        if (entry.lastModified != null)
+            builder.header("If-Modified-Since", entry.lastModified);
+        return builder.build();
+    }
+
+    // region Disk store
+
+    @Nullable
+    private synchronized Entry read(String key) {
+        File file = new File(mDirectory, key + ENTRY_EXTENSION);
+        if (!file.exists())
+            return null;
+
+        BufferedSource source = null;
+        try {
+            source = Okio.buffer(Okio.source(file));
+            if (source.readInt() != ENTRY_VERSION)
+                return null;
+
+            long storedAt = source.readLong();
+            String etag = readNullableString(source);
+            String lastModified = readNullableString(source);
+            String contentType = readNullableString(source);
+            // The body runs to the end of the file, it is written while the response is read
+            byte[] body = source.readByteArray();
+
+            return new Entry(storedAt, etag, lastModified, contentType, body);
+        } catch (IOException e) {
+            Timber.w(e, "Dropping unreadable cache entry %s", key);
+            if (!file.delete())
+                Timber.w("Failed to delete %s", file);
+            return null;
+        } finally {
+            closeQuietly(source);
+        }
+    }
+
+    private void write(String key, Entry entry) {
+        File tmpFile = null;
+        BufferedSink sink = null;
+        try {
+            tmpFile = createTmpFile(key);
+            sink = openEntry(tmpFile, entry);
+            sink.write(entry.body);
+            sink.close();
+            sink = null;
+
+            commit(key, tmpFile);
+        } catch (IOException e) {
+            Timber.w(e, "Failed to store cache entry %s", key);
+            closeQuietly(sink);
+            deleteQuietly(tmpFile);
+        }
+    }
+
+    /**
+     * Entries are written to a file of their own and renamed once complete, several responses of a key may be read at once
+     */
+    private File createTmpFile(String key) throws IOException {
+        synchronized (this) {
+            if (!mDirectory.exists() && !mDirectory.mkdirs())
+                throw new IOException("Failed to create " + mDirectory);
+        }
+        return File.createTempFile(key, TMP_EXTENSION, mDirectory);
+    }
+
+    /**
+     * @return The sink of the entry file, positioned at the body
+     */
+    private static BufferedSink openEntry(File file, Entry header) throws IOException {
+        BufferedSink sink = Okio.buffer(Okio.sink(file));
+        try {
+            sink.writeInt(ENTRY_VERSION);
+            sink.writeLong(header.storedAt);
+            writeNullableString(sink, header.etag);
+            writeNullableString(sink, header.lastModified);
+            writeNullableString(sink, header.contentType);
+            return sink;
+        } catch (IOException e) {
+            closeQuietly(sink);
+            throw e;
+        }
+    }
+
+    private synchronized void commit(String key, File tmpFile) {
+        if (!tmpFile.renameTo(new File(mDirectory, key + ENTRY_EXTENSION))) {
+            Timber.w("Failed to store cache entry %s", key);
+            deleteQuietly(tmpFile);
+            return;
+        }
+
+        trimToSize();
+    }
+
+    /**
+     * Evict the least recently written entries until the cache fits in its max size,
+     * must be called holding the monitor. Entries being written don't count.
+     */
+    private void trimToSize() {
+        File[] files = mDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File directory, String name) {
+                return name.endsWith(ENTRY_EXTENSION);
+            }
+        });
+        if (files == null)
+            return;
+
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= mMaxSize)
+            return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long difference = first.lastModified() - second.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for (File file : files) {
+            if (size <= mMaxSize)
+                break;
+            size -= file.length();
+            if (!file.delete())
+                Timber.w("Failed to evict %s", file);
+        }
+    }
+
+    private static void writeNullableString(BufferedSink sink, @Nullable String value) throws IOException {
+        if (value == null) {
+            sink.writeInt(-1);
+        } else {
+            ByteString bytes = ByteString.encodeUtf8(value);
+            sink.writeInt(bytes.size());
+            sink.write(bytes);
+        }
+    }
+
+    @Nullable
+    private static String readNullableString(BufferedSource source) throws IOException {
+        int length = source.readInt();
+        return length == -1 ? null : source.readUtf8(length);
+    }
+
+    private static void deleteQuietly(@Nullable File file) {
+        if (file != null && file.exists() && !file.delete())
+            Timber.w("Failed to delete %s", file);
+    }
+
+    private static void closeQuietly(@Nullable Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // endregion
+
+    private static class Entry {
+        final long storedAt;
+        final String etag;
+        final String lastModified;
+        final String contentType;
+        final byte[] body;
+
+        Entry(long storedAt, @Nullable String etag, @Nullable String lastModified, @Nullable String contentType, byte[] body) {
+            this.storedAt = storedAt;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        Entry withBody(byte[] body) {
+            return new Entry(storedAt, etag, lastModified, contentType, body);
+        }
+
+        Response toResponse(Request request) {
+            MediaType mediaType = contentType == null ? null : MediaType.parse(contentType);
+            return new Response.Builder()
+                    .request(request)
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(200)
+                    .message("OK")
+                    .body(ResponseBody.create(mediaType, body))
+                    .build();
+        }
+    }
+
+    /**
+     * Looks for the <code>"errors"</code> key in a body read in pieces. GraphQL reports errors with a 200, those must
+     * not be cached. A string value that is exactly "errors" matches too, that response is just not cached.
+     */
+    private static class ErrorsMatcher {
+        private static final byte[] PATTERN = ByteString.encodeUtf8("\"errors\"").toByteArray();
+
+        private int matched;
+        boolean found;
+
+        void update(Buffer buffer, long offset, long byteCount) {
+            for (long i = offset; i < offset + byteCount && !found; i++) {
+                byte b = buffer.getByte(i);
+                if (b == PATTERN[matched]) {
+                    found = ++matched == PATTERN.length;
+                } else {
+                    // Only the quote starts the pattern again
+                    matched = b == PATTERN[0] ? 1 : 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the body into the entry file while the caller reads it, the entry is committed when the body is read
+     * to its end without errors and dropped otherwise. Like {@link okhttp3.Cache}, closing the body early gives the
+     * rest {@link #DISCARD_TIMEOUT_MILLIS} ms to arrive.
+     */
+    private static class CachingSource extends ForwardingSource {
+        private final GraphQLHttpCache mCache;
+        private final String mKey;
+        private final File mTmpFile;
+        private final ErrorsMatcher mErrorsMatcher = new ErrorsMatcher();
+        // Null once the entry is committed or dropped
+        private BufferedSink mEntrySink;
+
+        private CachingSource(GraphQLHttpCache cache, String key, File tmpFile, BufferedSink entrySink, Source source) {
+            super(source);
+            mCache = cache;
+            mKey = key;
+            mTmpFile = tmpFile;
+            mEntrySink = entrySink;
+        }
+
+        /**
+         * @return The source to hand to the caller, or null if the entry file can't be written
+         */
+        @Nullable
+        static CachingSource open(GraphQLHttpCache cache, String key, Entry header, Source source) {
+            File tmpFile = null;
+            try {
+                tmpFile = cache.createTmpFile(key);
+                return new CachingSource(cache, key, tmpFile, openEntry(tmpFile, header), source);
+            } catch (IOException e) {
+                Timber.w(e, "Failed to store cache entry %s", key);
+                deleteQuietly(tmpFile);
+                return null;
+            }
+        }
+
+        @Override
+        public long read(@NonNull Buffer sink, long byteCount) throws IOException {
+            long read;
+            try {
+                read = super.read(sink, byteCount);
+            } catch (IOException e) {
+                drop();
+                throw e;
+            }
+
+            if (read == -1) {
+                complete();
+                return -1;
+            }
+
+            if (mEntrySink != null) {
+                long offset = sink.size() - read;
+                mErrorsMatcher.update(sink, offset, read);
+                if (mErrorsMatcher.found) {
+                    drop();
+                } else {
+                    try {
+                        sink.copyTo(mEntrySink.buffer(), offset, read);
+                        mEntrySink.emitCompleteSegments();
+                    } catch (IOException e) {
+                        Timber.w(e, "Failed to store cache entry %s", mKey);
+                        drop();
+                    }
+                }
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mEntrySink != null && !discardRest())
+                drop();
+            super.close();
+        }
+
+        /**
+         * @return true if the rest of the body arrived in time, completing the entry
+         */
+        private boolean discardRest() {
+            Timeout timeout = timeout();
+            long now = System.nanoTime();
+            long originalDuration = timeout.hasDeadline() ? timeout.deadlineNanoTime() - now : Long.MAX_VALUE;
+            timeout.deadlineNanoTime(now + Math.min(originalDuration, TimeUnit.MILLISECONDS.toNanos(DISCARD_TIMEOUT_MILLIS)));
+            try {
+                Buffer skipBuffer = new Buffer();
+                while (read(skipBuffer, 8192) != -1) {
+                    skipBuffer.clear();
+                }
+                return true;
+            } catch (IOException e) {
+                // Timed out, or failed
+                return false;
+            } finally {
+                if (originalDuration == Long.MAX_VALUE)
+                    timeout.clearDeadline();
+                else
+                    timeout.deadlineNanoTime(now + originalDuration);
+            }
+        }
+
+        private void complete() {
+            if (mEntrySink == null)
+                return;
+
+            BufferedSink entrySink = mEntrySink;
+            mEntrySink = null;
+            try {
+                entrySink.close();
+            } catch (IOException e) {
+                Timber.w(e, "Failed to store cache entry %s", mKey);
+                deleteQuietly(mTmpFile);
+                return;
+            }
+            mCache.commit(mKey, mTmpFile);
+        }
+
+        private void drop() {
+            if (mEntrySink == null)
+                return;
+
+            closeQuietly(mEntrySink);
+            mEntrySink = null;
+            deleteQuietly(mTmpFile);
+        }
+    }
+
+    /**
+     * A background revalidation, scheduled so it never competes with the requests the user waits on
+     */
+    private class Revalidation extends RequestScheduler.Task {
+        private final OkHttpClient mClient;
+        private final Request mRequest;
+        private final String mKey;
+        private final Entry mEntry;
+        private Call mCall;
+
+        Revalidation(OkHttpClient client, Request request, String key, Entry entry) {
+            super("revalidation of " + key, RequestPriority.BACKGROUND);
+            mClient = client;
+            mRequest = request;
+            mKey = key;
+            mEntry = entry;
+        }
+
+        @Override
+        void start() {
+            final Call call = mClient.newCall(conditional(mRequest, mEntry));
+            Call previousCall;
+            synchronized (this) {
+                previousCall = mCall;
+                mCall = call;
+            }
+            if (previousCall != null)
+                previousCall.cancel();
+
+            call.enqueue(new Callback() {
+                @Override
+                public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                    if (isCurrent(call)) {
+                        Timber.d("Background revalidation failed: %s", e.getMessage());
+                        finish();
+                    }
+                }
+
+                @Override
+                public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
+                    if (!isCurrent(call)) {
+                        response.close();
+                        return;
+                    }
+
+                    try {
+                        handleNetworkResponse(mRequest, mKey, mEntry, response, true).close();
+                    } finally {
+                        finish();
+                    }
+                }
+            });
+        }
+
+        @Override
+        void interrupt() {
+            Call call;
+            synchronized (this) {
+                call = mCall;
+                mCall = null;
+            }
+            if (call != null)
+                call.cancel();
+        }
+
+        private synchronized boolean isCurrent(Call call) {
+            return mCall == call;
+        }
+
+        private void finish() {
+            synchronized (mRevalidatingKeys) {
+                mRevalidatingKeys.remove(mKey);
+            }
+            RequestScheduler.finish(this);
+        }
+    }
+
+    /**
+     * Counters of how the requests were served since the app started
+     */
+    public static class Stats {
+        final AtomicInteger hits = new AtomicInteger();
+        final AtomicInteger staleHits = new AtomicInteger();
+        final AtomicInteger revalidated = new AtomicInteger();
+        final AtomicInteger misses = new AtomicInteger();
+
+        public int getHits() {
+            return hits.get();
+        }
+
+        public int getStaleHits() {
+            return staleHits.get();
+        }
+
+        public int getRevalidated() {
+            return revalidated.get();
+        }
+
+        public int getMisses() {
+            return misses.get();
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hits.get() + ", stale hits=" + staleHits.get() + ", revalidated=" + revalidated.get() + ", misses=" + misses.get();
+        }
+    }
+}
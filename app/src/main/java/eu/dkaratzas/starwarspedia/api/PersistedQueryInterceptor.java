@@ -0,0 +1,250 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.api;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ByteString;
+import timber.log.Timber;
+
+/**
+ * OkHttp application interceptor implementing automatic persisted queries.
+ * A named operation is sent as a GET carrying the SHA-256 hash of its query instead of the query text,
+ * i.e. <code>?operationName=Film&variables={..}&extensions={"persistedQuery":{"version":1,"sha256Hash":".."}}</code>,
+ * so the upload shrinks to the variables and the response can be cached by CDNs and HTTP caches.
+ * <ul>
+ * <li>PersistedQueryNotFound: the query is sent once more as a POST with its text and hash, registering it.</li>
+ * <li>The server doesn't support it, i.e. refuses the GET with a 405 or says so: persisted queries are turned off
+ * and the POST goes through as is.</li>
+ * <li>Any other refused GET, or errors without data: that request falls back to the POST, the next ones are still persisted.
+ * After {@link #MAX_CONSECUTIVE_FALLBACKS} such fallbacks in a row the server is taken as not supporting them either,
+ * so a server refusing in an unknown way doesn't cost a failed GET on every call.</li>
+ * </ul>
+ * Operations without a name, i.e. the dynamic documents of the {@link BatchedItemFetcher}, are never persisted.
+ * Installed after the {@link GraphQLHttpCache}, which keeps keying its entries by the full query.
+ */
+public class PersistedQueryInterceptor implements Interceptor {
+    private static final MediaType MEDIA_TYPE_JSON = MediaType.parse("application/json; charset=utf-8");
+    private static final int PERSISTED_QUERY_VERSION = 1;
+    // The errors of interest come in small bodies
+    private static final long MAX_PEEK_BYTES = 4 * 1024;
+    private static final String ERROR_NOT_FOUND = "PersistedQueryNotFound";
+    private static final String ERROR_NOT_SUPPORTED = "PersistedQueryNotSupported";
+    private static final int MAX_CONSECUTIVE_FALLBACKS = 3;
+
+    private final Map<String, String> mHashes = new ConcurrentHashMap<>();
+    private final Stats mStats = new Stats();
+    private volatile boolean mEnabled = true;
+    // The GETs refused for other reasons since the last one that worked
+    private final AtomicInteger mConsecutiveFallbacks = new AtomicInteger();
+
+    public Stats getStats() {
+        return mStats;
+    }
+
+    @Override
+    public Response intercept(@NonNull Chain chain) throws IOException {
+        Request request = chain.request();
+        if (!mEnabled || !"POST".equals(request.method()) || request.body() == null) {
+            return chain.proceed(request);
+        }
+
+        Buffer buffer = new Buffer();
+        request.body().writeTo(buffer);
+        long postBytes = buffer.size();
+
+        JSONObject operation;
+        try {
+            operation = new JSONObject(buffer.readUtf8());
+        } catch (JSONException e) {
+            return chain.proceed(request);
+        }
+
+        String query = operation.optString("query", null);
+        String operationName = operation.optString("operationName", null);
+        if (query == null || operationName == null || operationName.isEmpty()) {
+            return chain.proceed(request);
+        }
+
+        String hash = hash(query);
+        JSONObject extensions;
+        try {
+            extensions = persistedQueryExtension(hash);
+        } catch (JSONException e) {
+            return chain.proceed(request);
+        }
+
+        JSONObject variables = operation.optJSONObject("variables");
+        HttpUrl url = request.url().newBuilder()
+                .addQueryParameter("operationName", operationName)
+                .addQueryParameter("variables", variables == null ? "{}" : variables.toString())
+                .addQueryParameter("extensions", extensions.toString())
+                .build();
+
+        Response response = chain.proceed(request.newBuilder().url(url).get().build());
+        String error = persistedQueryError(response);
+
+        if (error == null) {
+            mConsecutiveFallbacks.set(0);
+            mStats.hits.incrementAndGet();
+            mStats.savedBytes.addAndGet(postBytes - url.encodedQuery().length());
+            return response;
+        }
+        response.close();
+
+        if (ERROR_NOT_FOUND.equals(error)) {
+            mConsecutiveFallbacks.set(0);
+            // Register the query along with its hash, the next calls are served by the hash
+            mStats.registrations.incrementAndGet();
+            try {
+                operation.put("extensions", extensions);
+            } catch (JSONException e) {
+                return chain.proceed(request);
+            }
+            return chain.proceed(request.newBuilder()
+                    .post(RequestBody.create(MEDIA_TYPE_JSON, operation.toString()))
+                    .build());
+        }
+
+        if (ERROR_NOT_SUPPORTED.equals(error)) {
+            Timber.d("Persisted queries not supported, sending the full queries");
+            mEnabled = false;
+        } else if (mConsecutiveFallbacks.incrementAndGet() >= MAX_CONSECUTIVE_FALLBACKS) {
+            Timber.d("Persisted query of %s failed (%s), %d in a row, sending the full queries from now on", operationName, error, MAX_CONSECUTIVE_FALLBACKS);
+            mEnabled = false;
+        } else {
+            Timber.d("Persisted query of %s failed (%s), sending the full query", operationName, error);
+        }
+        return chain.proceed(request);
+    }
+
+    private String hash(String query) {
+        String hash = mHashes.get(query);
+        if (hash == null) {
+            hash = ByteString.encodeUtf8(query).sha256().hex();
+            mHashes.put(query, hash);
+        }
+        return hash;
+    }
+
+    private static JSONObject persistedQueryExtension(String hash) throws JSONException {
+        JSONObject persistedQuery = new JSONObject();
+        persistedQuery.put("version", PERSISTED_QUERY_VERSION);
+        persistedQuery.put("sha256Hash", hash);
+
+        JSONObject extensions = new JSONObject();
+        extensions.put("persistedQuery", persistedQuery);
+        return extensions;
+    }
+
+    /**
+     * @return {@link #ERROR_NOT_FOUND}, {@link #ERROR_NOT_SUPPORTED}, or why else the GET can't be used, i.e. its status code.
+     * Null if the response can be used.
+     */
+    @Nullable
+    private static String persistedQueryError(Response response) throws IOException {
+        int code = response.code();
+        if (code == 304) {
+            return null;
+        }
+        if (code == 405) {
+            // The server takes no GET
+            return ERROR_NOT_SUPPORTED;
+        }
+
+        ResponseBody peekedBody = response.peekBody(MAX_PEEK_BYTES);
+        boolean truncated = peekedBody.contentLength() >= MAX_PEEK_BYTES;
+        String body = peekedBody.string();
+        if (body.contains(ERROR_NOT_FOUND) || body.contains("PERSISTED_QUERY_NOT_FOUND")) {
+            return ERROR_NOT_FOUND;
+        } else if (body.contains(ERROR_NOT_SUPPORTED) || body.contains("PERSISTED_QUERY_NOT_SUPPORTED")) {
+            return ERROR_NOT_SUPPORTED;
+        } else if (code == 400 && isGetRefusal(body)) {
+            return ERROR_NOT_SUPPORTED;
+        } else if (code >= 400 && code < 500) {
+            return "HTTP " + code;
+        } else if (body.contains("\"errors\"") && !truncated && !hasData(body)) {
+            return "errors without data";
+        }
+        return null;
+    }
+
+    /**
+     * @return true if a 400 says the GET itself is refused, i.e. the server ignored the hash and wants the query text
+     */
+    private static boolean isGetRefusal(String body) {
+        return body.contains("GET") || body.contains("Must provide query string");
+    }
+
+    /**
+     * @param body The whole body, not a truncated one
+     */
+    private static boolean hasData(String body) {
+        try {
+            return !new JSONObject(body).isNull("data");
+        } catch (JSONException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Counters of the persisted queries since the app started
+     */
+    public static class Stats {
+        final AtomicInteger hits = new AtomicInteger();
+        final AtomicInteger registrations = new AtomicInteger();
+        final AtomicLong savedBytes = new AtomicLong();
+
+        public int getHits() {
+            return hits.get();
+        }
+
+        public int getRegistrations() {
+            return registrations.get();
+        }
+
+        /**
+         * @return The upload bytes saved by sending hashes instead of query texts
+         */
+        public long getSavedBytes() {
+            return savedBytes.get();
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hits.get() + ", registrations=" + registrations.get() + ", saved upload bytes=" + savedBytes.get();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.api;
+
+import android.content.Context;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.util.LruCache;
+
+import com.apollographql.apollo.ApolloCall;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import timber.log.Timber;
+
+/**
+ * Runs the {@link ApolloLoader}s keyed by query identity: every query gets its own loader id, so any number of
+ * them load concurrently and survive configuration changes without refetching.
+ * Every {@link LoaderManager} keeps up to {@link #MAX_LOADERS} loaders, least recently used first out,
+ * and completed results outlive their loaders in a bounded cache.
+ */
+class RequestManager {
+    private static final int MAX_LOADERS = 12;
+    private static final int MAX_CACHED_RESULTS = 32;
+    // Keep clear of the ids the screens use for their own loaders
+    private static final int LOADER_ID_BASE = 0x10000000;
+
+    private static final LruCache<String, ResultHolder<?>> sResults = new LruCache<>(MAX_CACHED_RESULTS);
+    private static final Map<LoaderManager, LinkedHashMap<Integer, String>> sLoaders = new WeakHashMap<>();
+    // Ids are handed out once per key and kept for the process, so a recreated screen finds its loaders again
+    private static final Map<String, Integer> sLoaderIds = new HashMap<>();
+    private static int sNextLoaderId = LOADER_ID_BASE;
+
+    /**
+     * Load a query on its own loader. Must be called on the main thread.
+     *
+     * @param key         Identifies the query, i.e. operation + variables + fetch policy
+     * @param fetchPolicy A {@link FetchPolicy#CACHE_FIRST} load is served by a previous result of the query if any,
+     *                    the rest always hit Apollo
+     * @param priority    The {@link RequestPriority} the call is scheduled with
+     * @param retryPolicy The {@link RetryPolicy} of the call
+     */
+    static <T> void load(Context context, LoaderManager manager, String key, ApolloCall<T> call, FetchPolicy fetchPolicy, RequestPriority priority, RetryPolicy retryPolicy, ApolloCall.Callback<T> callback) {
+        int loaderId = loaderIdFor(key);
+        track(manager, loaderId, key);
+
+        boolean cacheable = fetchPolicy == FetchPolicy.CACHE_FIRST;
+        if (cacheable) {
+            ApolloLoader.load(context, manager, loaderId, key, call, true, priority, retryPolicy, callback);
+        } else {
+            // Asking the network again, don't let an existing loader hand back its result
+            ApolloLoader.reload(context, manager, loaderId, key, call, false, priority, retryPolicy, callback);
+        }
+    }
+
+    static ResultHolder<?> getCachedResult(String key) {
+        return sResults.get(key);
+    }
+
+    static void putCachedResult(String key, ResultHolder<?> result) {
+        sResults.put(key, result);
+    }
+
+    /**
+     * @return The loader id of the query, distinct for every key. Must be called on the main thread.
+     */
+    static int loaderIdFor(String key) {
+        Integer loaderId = sLoaderIds.get(key);
+        if (loaderId == null) {
+            loaderId = sNextLoaderId++;
+            sLoaderIds.put(key, loaderId);
+        }
+        return loaderId;
+    }
+
+    /**
+     * Mark the loader as the most recently used of its manager, destroying the oldest ones beyond the limit
+     */
+    private static void track(LoaderManager manager, int loaderId, String key) {
+        LinkedHashMap<Integer, String> loaders = sLoaders.get(manager);
+        if (loaders == null) {
+            loaders = new LinkedHashMap<>(MAX_LOADERS, 0.75f, true);
+            sLoaders.put(manager, loaders);
+        }
+        loaders.put(loaderId, key);
+
+        Iterator<Map.Entry<Integer, String>> iterator = loaders.entrySet().iterator();
+        while (loaders.size() > MAX_LOADERS && iterator.hasNext()) {
+            Map.Entry<Integer, String> eldest = iterator.next();
+            iterator.remove();
+            Timber.d("Destroying loader of %s", eldest.getValue());
+            manager.destroyLoader(eldest.getKey());
+        }
+    }
+}
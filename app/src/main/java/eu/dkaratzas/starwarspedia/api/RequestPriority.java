@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.api;
+
+/**
+ * The lanes of the {@link RequestScheduler}, in the order they are served.
+ */
+enum RequestPriority {
+    /**
+     * The user waits on the result, i.e. a tapped item or the category being opened.
+     */
+    INTERACTIVE(4),
+    /**
+     * Content on screen that is not blocking, i.e. the rows around the viewport.
+     */
+    VISIBLE(3),
+    /**
+     * Prefetching and cache revalidation, deferred and even cancelled while interactive requests run.
+     */
+    BACKGROUND(2);
+
+    private final int maxConcurrentRequests;
+
+    RequestPriority(int maxConcurrentRequests) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.api;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.apollographql.apollo.ApolloCall;
+import com.apollographql.apollo.api.Response;
+import com.apollographql.apollo.exception.ApolloException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import timber.log.Timber;
+
+/**
+ * Coalesces concurrent identical queries, the same operation with the same variables and fetch policy,
+ * onto a single {@link ApolloCall} whose results are fanned out to every subscriber.
+ * The underlying call is cancelled only when its last subscriber cancels.
+ * Shared calls run through the {@link RequestScheduler}, in the lane of their most urgent subscriber,
+ * and recover from failures and slow responses as their {@link RetryPolicy} says.
+ */
+class RequestRegistry {
+    private static final Object sLock = new Object();
+    private static final Map<String, SharedCall> sInFlight = new HashMap<>();
+    // Runs the retries and hedges
+    private static final Handler sTimer = new Handler(Looper.getMainLooper());
+
+    /**
+     * Subscribe to the call in flight for the key, or schedule a clone of the given call if there is none.
+     *
+     * @param key      Identifies the query, i.e. operation + variables + fetch policy
+     * @param call     The call to schedule if no identical one is in flight
+     * @param priority The {@link RequestPriority} of the caller, a shared call is promoted to its most urgent subscriber
+     * @param callback Receives the results of the shared call
+     * @return The {@link Subscription}, cancel it to stop receiving results
+     */
+    static <T> Subscription subscribe(String key, ApolloCall<T> call, RequestPriority priority, ApolloCall.Callback<T> callback) {
+        return subscribe(key, call, priority, RetryPolicy.NONE, callback);
+    }
+
+    /**
+     * Subscribe to the call in flight for the key, or schedule a clone of the given call if there is none.
+     *
+     * @param key         Identifies the query, i.e. operation + variables + fetch policy
+     * @param call        The call to schedule if no identical one is in flight
+     * @param priority    The {@link RequestPriority} of the caller, a shared call is promoted to its most urgent subscriber
+     * @param retryPolicy How a new shared call is retried and hedged, a joined call keeps its own
+     * @param callback    Receives the results of the shared call
+     * @return The {@link Subscription}, cancel it to stop receiving results
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Subscription subscribe(String key, ApolloCall<T> call, RequestPriority priority, RetryPolicy retryPolicy, ApolloCall.Callback<T> callback) {
+        SharedCall<T> sharedCall;
+        Subscription<T> subscription;
+        boolean submit = false;
+
+        synchronized (sLock) {
+            sharedCall = sInFlight.get(key);
+            if (sharedCall == null) {
+                sharedCall = new SharedCall<>(key, call.clone(), priority, retryPolicy);
+                sInFlight.put(key, sharedCall);
+                submit = true;
+            } else {
+                Timber.d("Joining in-flight request %s", key);
+            }
+
+            subscription = new Subscription<>(sharedCall, callback);
+            sharedCall.subscriptions.add(subscription);
+        }
+
+        if (submit) {
+            RequestScheduler.submit(sharedCall);
+        } else {
+            RequestScheduler.promote(sharedCall, priority);
+        }
+
+        return subscription;
+    }
+
+    /**
+     * The interest of one caller on a shared call
+     */
+    static class Subscription<T> {
+        private final SharedCall<T> sharedCall;
+        private final ApolloCall.Callback<T> callback;
+
+        Subscription(SharedCall<T> sharedCall, ApolloCall.Callback<T> callback) {
+            this.sharedCall = sharedCall;
+            this.callback = callback;
+        }
+
+        /**
+         * Stop receiving results, the underlying call is cancelled if nobody else waits for it
+         */
+        void cancel() {
+            List<SharedCall<T>.Attempt> cancelledAttempts = null;
+
+            synchronized (sLock) {
+                if (sharedCall.subscriptions.remove(this) && sharedCall.subscriptions.isEmpty() && !sharedCall.completed) {
+                    sharedCall.completed = true;
+                    if (sInFlight.get(sharedCall.key) == sharedCall)
+                        sInFlight.remove(sharedCall.key);
+                    cancelledAttempts = sharedCall.detachAttempts();
+                }
+            }
+
+            if (cancelledAttempts != null) {
+                Timber.d("Cancelling request %s, no subscribers left", sharedCall.key);
+                sharedCall.cancel(cancelledAttempts);
+                RequestScheduler.cancel(sharedCall);
+            }
+        }
+    }
+
+    private static class SharedCall<T> extends RequestScheduler.Task {
+        final String key;
+        final ApolloCall<T> prototype;
+        final RetryPolicy retryPolicy;
+        final List<Subscription<T>> subscriptions = new ArrayList<>();
+        boolean completed;
+        // The attempts on the wire, two while hedging. An interrupted attempt is cancelled and its results ignored
+        private final List<Attempt> attempts = new ArrayList<>();
+        // The attempt whose results are delivered, the first one to respond
+        private Attempt winner;
+        private int retries;
+        // When the first attempt of the current round went to the network, the latency of the call counts from there
+        private long networkStartedAt;
+        // A pending retry or hedge
+        private Runnable timer;
+
+        SharedCall(String key, ApolloCall<T> prototype, RequestPriority priority, RetryPolicy retryPolicy) {
+            super(key, priority);
+            this.key = key;
+            this.prototype = prototype;
+            this.retryPolicy = retryPolicy;
+        }
+
+        @Override
+        void start() {
+            List<Attempt> previousAttempts;
+            Attempt attempt;
+            synchronized (sLock) {
+                if (completed) {
+                    return;
+                }
+                previousAttempts = detachAttempts();
+                attempt = newAttempt(false);
+            }
+
+            cancel(previousAttempts);
+            attempt.call.enqueue(attempt);
+        }
+
+        @Override
+        void interrupt() {
+            List<Attempt> interruptedAttempts;
+            synchronized (sLock) {
+                interruptedAttempts = detachAttempts();
+            }
+
+            if (!interruptedAttempts.isEmpty()) {
+                Timber.d("Interrupting request %s", key);
+                cancel(interruptedAttempts);
+            }
+        }
+
+        // Must be called holding sLock
+        private Attempt newAttempt(boolean hedge) {
+            Attempt attempt = new Attempt(prototype.clone(), hedge);
+            attempts.add(attempt);
+            return attempt;
+        }
+
+        // Must be called holding sLock
+        private List<Attempt> detachAttempts() {
+            cancelTimer();
+            List<Attempt> detachedAttempts = new ArrayList<>(attempts);
+            attempts.clear();
+            winner = null;
+            networkStartedAt = 0;
+            return detachedAttempts;
+        }
+
+        // Must be called holding sLock
+        private void schedule(Runnable runnable, long delay) {
+            cancelTimer();
+            timer = runnable;
+            sTimer.postDelayed(runnable, delay);
+        }
+
+        // Must be called holding sLock
+        private void cancelTimer() {
+            if (timer != null) {
+                sTimer.removeCallbacks(timer);
+                timer = null;
+            }
+        }
+
+        private void cancel(List<Attempt> cancelledAttempts) {
+            long now = SystemClock.elapsedRealtime();
+            for (Attempt attempt : cancelledAttempts) {
+                attempt.call.cancel();
+                attempt.recordCensoredLatency(now);
+            }
+        }
+
+        /**
+         * Must be called holding sLock
+         *
+         * @param complete Whether the call is done, a completed call takes no more subscribers
+         * @return The subscriptions to deliver to
+         */
+        private List<Subscription<T>> snapshot(boolean complete) {
+            if (complete && !completed) {
+                completed = true;
+                cancelTimer();
+                if (sInFlight.get(key) == this)
+                    sInFlight.remove(key);
+            }
+            return new ArrayList<>(subscriptions);
+        }
+
+        private class Attempt extends ApolloCall.Callback<T> {
+            final ApolloCall<T> call;
+            final boolean hedge;
+            long networkStartedAt;
+            boolean latencyRecorded;
+
+            Attempt(ApolloCall<T> call, boolean hedge) {
+                this.call = call;
+                this.hedge = hedge;
+            }
+
+            @Override
+            public void onResponse(@Nonnull Response<T> response) {
+                List<Attempt> losers = Collections.emptyList();
+                List<Subscription<T>> snapshot;
+                synchronized (sLock) {
+                    if (!attempts.contains(this) || (winner != null && winner != this)) {
+                        return;
+                    }
+                    if (winner == null) {
+                        // First to respond, the other copy is not needed anymore
+                        winner = this;
+                        cancelTimer();
+                        attempts.remove(this);
+                        losers = new ArrayList<>(attempts);
+                        attempts.clear();
+                        attempts.add(this);
+                        if (hedge)
+                            Timber.d("Hedged request %s won", key);
+                    }
+                    if (networkStartedAt != 0 && !latencyRecorded) {
+                        // A hedge answers faster than the call did, it started when the first attempt did
+                        latencyRecorded = true;
+                        long startedAt = SharedCall.this.networkStartedAt != 0 ? SharedCall.this.networkStartedAt : networkStartedAt;
+                        retryPolicy.recordLatency(SystemClock.elapsedRealtime() - startedAt);
+                    }
+                    snapshot = snapshot(false);
+                }
+
+                cancel(losers);
+                for (Subscription<T> subscription : snapshot) {
+                    subscription.callback.onResponse(response);
+                }
+            }
+
+            @Override
+            public void onFailure(@Nonnull ApolloException e) {
+                List<Subscription<T>> snapshot;
+                synchronized (sLock) {
+                    if (!attempts.remove(this) || (winner != null && winner != this)) {
+                        return;
+                    }
+                    if (winner == null && !attempts.isEmpty()) {
+                        // The other copy may still succeed
+                        return;
+                    }
+                    if (winner == null && retries < retryPolicy.getMaxRetries() && retryPolicy.isRetryable(e)) {
+                        long delay = retryPolicy.getBackoffDelay(retries++);
+                        Timber.d("Retrying request %s in %d ms, %s", key, delay, e.getMessage());
+                        schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                retry();
+                            }
+                        }, delay);
+                        return;
+                    }
+                    snapshot = snapshot(true);
+                }
+
+                RequestScheduler.finish(SharedCall.this);
+                for (Subscription<T> subscription : snapshot) {
+                    subscription.callback.onFailure(e);
+                }
+            }
+
+            @Override
+            public void onStatusEvent(@Nonnull ApolloCall.StatusEvent event) {
+                boolean finished = false;
+                List<Subscription<T>> snapshot;
+                synchronized (sLock) {
+                    if (!attempts.contains(this) || (winner != null && winner != this)) {
+                        return;
+                    }
+                    if (event == ApolloCall.StatusEvent.FETCH_NETWORK) {
+                        networkStartedAt = SystemClock.elapsedRealtime();
+                        if (SharedCall.this.networkStartedAt == 0)
+                            SharedCall.this.networkStartedAt = networkStartedAt;
+                        scheduleHedge();
+                    }
+                    if (event == ApolloCall.StatusEvent.COMPLETED) {
+                        finished = !completed;
+                        snapshot = snapshot(true);
+                    } else {
+                        snapshot = snapshot(false);
+                    }
+                }
+
+                if (finished)
+                    RequestScheduler.finish(SharedCall.this);
+                for (Subscription<T> subscription : snapshot) {
+                    subscription.callback.onStatusEvent(event);
+                }
+            }
+
+            /**
+             * Record how long a cancelled attempt waited on the network, its latency is only known to be longer
+             */
+            void recordCensoredLatency(long now) {
+                long elapsed;
+                synchronized (sLock) {
+                    if (networkStartedAt == 0 || latencyRecorded) {
+                        return;
+                    }
+                    latencyRecorded = true;
+                    elapsed = now - networkStartedAt;
+                }
+                retryPolicy.recordCensoredLatency(elapsed);
+            }
+
+            // Must be called holding sLock
+            private void scheduleHedge() {
+                final long delay = hedge || winner != null || attempts.size() != 1 || timer != null ? -1 : retryPolicy.getHedgeDelay();
+                if (delay < 0) {
+                    return;
+                }
+
+                schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        hedge(delay);
+                    }
+                }, delay);
+            }
+        }
+
+        private void retry() {
+            Attempt attempt;
+            synchronized (sLock) {
+                timer = null;
+                if (completed || !attempts.isEmpty()) {
+                    return;
+                }
+                // The failed attempt is not a latency sample, the retry counts on its own
+                networkStartedAt = 0;
+                attempt = newAttempt(false);
+            }
+            attempt.call.enqueue(attempt);
+        }
+
+        private void hedge(long delay) {
+            Attempt attempt;
+            synchronized (sLock) {
+                timer = null;
+                if (completed || winner != null || attempts.size() != 1) {
+                    return;
+                }
+                attempt = newAttempt(true);
+            }
+            Timber.d("Hedging request %s, no response after %d ms", key, delay);
+            attempt.call.enqueue(attempt);
+        }
+    }
+}
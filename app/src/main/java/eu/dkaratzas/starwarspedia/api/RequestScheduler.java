@@ -0,0 +1,227 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.api;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Gate in front of the network, every request waits in the lane of its {@link RequestPriority}
+ * until the lane has a free slot. Lanes are served from the most urgent one.
+ * <p>
+ * An interactive request preempts the background lane: the queued background requests wait until
+ * no interactive request is left, and the running ones are interrupted and queued again.
+ */
+class RequestScheduler {
+    private static final Object sLock = new Object();
+    private static final Map<RequestPriority, Deque<Task>> sQueued = new EnumMap<>(RequestPriority.class);
+    private static final Map<RequestPriority, List<Task>> sRunning = new EnumMap<>(RequestPriority.class);
+
+    static {
+        for (RequestPriority priority : RequestPriority.values()) {
+            sQueued.put(priority, new ArrayDeque<Task>());
+            sRunning.put(priority, new ArrayList<Task>());
+        }
+    }
+
+    /**
+     * Queue the task on its lane, it is started right away if the lane has a free slot.
+     */
+    static void submit(Task task) {
+        List<Task> interrupted;
+        synchronized (sLock) {
+            if (task.state != Task.State.NEW) {
+                return;
+            }
+            task.state = Task.State.QUEUED;
+            sQueued.get(task.priority).add(task);
+
+            interrupted = task.priority == RequestPriority.INTERACTIVE ? preemptBackground() : null;
+        }
+        interrupt(interrupted);
+        drain();
+    }
+
+    /**
+     * Move a task to a more urgent lane, i.e. when a visible request joins a prefetch.
+     */
+    static void promote(Task task, RequestPriority priority) {
+        List<Task> interrupted;
+        synchronized (sLock) {
+            if (priority.ordinal() >= task.priority.ordinal() || task.state == Task.State.DONE) {
+                return;
+            }
+
+            if (task.state == Task.State.QUEUED) {
+                sQueued.get(task.priority).remove(task);
+                sQueued.get(priority).add(task);
+            } else if (task.state == Task.State.RUNNING) {
+                sRunning.get(task.priority).remove(task);
+                sRunning.get(priority).add(task);
+            }
+            Timber.d("Promoting %s from %s to %s", task.name, task.priority, priority);
+            task.priority = priority;
+
+            interrupted = priority == RequestPriority.INTERACTIVE ? preemptBackground() : null;
+        }
+        interrupt(interrupted);
+        drain();
+    }
+
+    /**
+     * Called by the task once its request is done, its slot goes to the next queued task.
+     */
+    static void finish(Task task) {
+        synchronized (sLock) {
+            if (!release(task)) {
+                return;
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Drop a task nobody waits for anymore, the task cancels its own request if any.
+     */
+    static void cancel(Task task) {
+        finish(task);
+    }
+
+    /**
+     * @return The number of requests that can run at the same time over all lanes
+     */
+    static int getMaxConcurrentRequests() {
+        int max = 0;
+        for (RequestPriority priority : RequestPriority.values()) {
+            max += priority.getMaxConcurrentRequests();
+        }
+        return max;
+    }
+
+    // Must be called holding sLock
+    private static boolean release(Task task) {
+        if (task.state == Task.State.DONE || task.state == Task.State.NEW) {
+            task.state = Task.State.DONE;
+            return false;
+        }
+
+        if (task.state == Task.State.QUEUED)
+            sQueued.get(task.priority).remove(task);
+        else
+            sRunning.get(task.priority).remove(task);
+        task.state = Task.State.DONE;
+        return true;
+    }
+
+    /**
+     * Move the running background tasks to the front of their queue, must be called holding sLock
+     *
+     * @return The tasks to interrupt once the lock is released
+     */
+    private static List<Task> preemptBackground() {
+        List<Task> running = sRunning.get(RequestPriority.BACKGROUND);
+        if (running.isEmpty()) {
+            return null;
+        }
+
+        List<Task> interrupted = new ArrayList<>(running);
+        running.clear();
+
+        Deque<Task> queued = sQueued.get(RequestPriority.BACKGROUND);
+        for (int i = interrupted.size() - 1; i >= 0; i--) {
+            Task task = interrupted.get(i);
+            task.state = Task.State.QUEUED;
+            queued.addFirst(task);
+        }
+        Timber.d("Deferring %d background requests", interrupted.size());
+        return interrupted;
+    }
+
+    private static void interrupt(List<Task> tasks) {
+        if (tasks != null) {
+            for (Task task : tasks) {
+                task.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Start the queued tasks the lanes have room for. The tasks are started out of the lock,
+     * they call back into the scheduler.
+     */
+    private static void drain() {
+        List<Task> started = new ArrayList<>();
+
+        synchronized (sLock) {
+            boolean interactive = !sQueued.get(RequestPriority.INTERACTIVE).isEmpty() || !sRunning.get(RequestPriority.INTERACTIVE).isEmpty();
+
+            for (RequestPriority priority : RequestPriority.values()) {
+                if (priority == RequestPriority.BACKGROUND && interactive) {
+                    continue;
+                }
+
+                Deque<Task> queued = sQueued.get(priority);
+                List<Task> running = sRunning.get(priority);
+                while (running.size() < priority.getMaxConcurrentRequests() && !queued.isEmpty()) {
+                    Task task = queued.poll();
+                    task.state = Task.State.RUNNING;
+                    running.add(task);
+                    started.add(task);
+                }
+            }
+        }
+
+        for (Task task : started) {
+            task.start();
+        }
+    }
+
+    /**
+     * A request the scheduler decides when to run. A task reports its completion with {@link #finish(Task)},
+     * and must ignore the outcome of an interrupted attempt since it is started again later.
+     */
+    abstract static class Task {
+        private enum State {
+            NEW, QUEUED, RUNNING, DONE
+        }
+
+        final String name;
+        private RequestPriority priority;
+        private State state = State.NEW;
+
+        Task(String name, RequestPriority priority) {
+            this.name = name;
+            this.priority = priority;
+        }
+
+        /**
+         * Issue the request
+         */
+        abstract void start();
+
+        /**
+         * Cancel the request being issued, the task is queued again.
+         */
+        abstract void interrupt();
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.api;
+
+import com.apollographql.apollo.exception.ApolloException;
+import com.apollographql.apollo.exception.ApolloHttpException;
+import com.apollographql.apollo.exception.ApolloNetworkException;
+
+import java.util.Random;
+
+import eu.dkaratzas.starwarspedia.libs.metrics.LatencyHistogram;
+
+/**
+ * How the {@link RequestRegistry} recovers a slow or failed call.
+ * <ul>
+ * <li>Retry: network errors and 5xx / 429 responses are retried up to {@link #getMaxRetries()} times,
+ * waiting a random delay up to <code>baseDelay * 2^retry</code> (full jitter) capped to the max delay.</li>
+ * <li>Hedging: when the network hasn't answered by the p95 latency of the operation, a second copy
+ * of the call is issued, the first response wins and the other copy is cancelled.</li>
+ * </ul>
+ * The latencies are kept per operation, see {@link #forOperation(String)}.
+ */
+class RetryPolicy {
+    static final RetryPolicy NONE = new RetryPolicy(0, 0, 0, false);
+
+    // Hedging waits for enough samples, and never fires too early or too late
+    private static final int MIN_HEDGE_SAMPLES = 20;
+    private static final long MIN_HEDGE_DELAY = 150;
+    private static final long MAX_HEDGE_DELAY = 5000;
+
+    private static final Random sRandom = new Random();
+
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final boolean hedge;
+    private final LatencyHistogram histogram;
+
+    /**
+     * @param maxRetries      How many times a failed call is issued again
+     * @param baseDelayMillis The backoff of the first retry
+     * @param maxDelayMillis  The cap of the backoff
+     * @param hedge           Whether slow calls are hedged
+     */
+    RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis, boolean hedge) {
+        this.maxRetries = maxRetries;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.hedge = hedge;
+        this.histogram = null;
+    }
+
+    private RetryPolicy(RetryPolicy policy, LatencyHistogram histogram) {
+        this.maxRetries = policy.maxRetries;
+        this.baseDelayMillis = policy.baseDelayMillis;
+        this.maxDelayMillis = policy.maxDelayMillis;
+        this.hedge = policy.hedge;
+        this.histogram = histogram;
+    }
+
+    /**
+     * @param operation Name of the operation, i.e. the query
+     * @return The policy recording the network latencies of the operation, they drive the hedging
+     */
+    RetryPolicy forOperation(String operation) {
+        return new RetryPolicy(this, LatencyHistogram.forOperation(operation));
+    }
+
+    int getMaxRetries() {
+        return maxRetries;
+    }
+
+    boolean isHedging() {
+        return hedge;
+    }
+
+    /**
+     * @param retry The retry about to be issued, starting from 0
+     * @return The delay before issuing it
+     */
+    long getBackoffDelay(int retry) {
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(retry, 20));
+        synchronized (sRandom) {
+            return (long) (sRandom.nextDouble() * ceiling);
+        }
+    }
+
+    boolean isRetryable(ApolloException e) {
+        if (e instanceof ApolloNetworkException) {
+            return true;
+        }
+        if (e instanceof ApolloHttpException) {
+            return isRetryable(((ApolloHttpException) e).code());
+        }
+        return false;
+    }
+
+    /**
+     * @param code The HTTP code of a failed response
+     */
+    boolean isRetryable(int code) {
+        return code >= 500 || code == 429;
+    }
+
+    /**
+     * @param millis How long the network took to answer a call of the operation
+     */
+    void recordLatency(long millis) {
+        if (histogram != null)
+            histogram.record(millis);
+    }
+
+    /**
+     * @param millis How long a call of the operation waited on the network before it was cancelled
+     */
+    void recordCensoredLatency(long millis) {
+        if (histogram != null)
+            histogram.recordCensored(millis);
+    }
+
+    /**
+     * @return The delay after which a call still waiting on the network gets hedged, or -1 if it shouldn't be
+     */
+    long getHedgeDelay() {
+        if (!hedge || histogram == null || histogram.getSampleCount() < MIN_HEDGE_SAMPLES) {
+            return -1;
+        }
+        return Math.max(MIN_HEDGE_DELAY, Math.min(MAX_HEDGE_DELAY, histogram.getPercentile(0.95)));
+    }
+}
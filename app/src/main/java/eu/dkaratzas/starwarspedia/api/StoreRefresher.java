@@ -0,0 +1,344 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.api;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+
+import com.crashlytics.android.Crashlytics;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.dkaratzas.starwarspedia.Constants;
+import eu.dkaratzas.starwarspedia.libs.IsoDateTime;
+import eu.dkaratzas.starwarspedia.provider.SwapiStore;
+import okhttp3.CacheControl;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import timber.log.Timber;
+
+/**
+ * Brings the {@link SwapiStore} up to date in the background. The <code>id</code> and <code>updatedAt</code>
+ * of every entity are listed first and compared with the stored ones, then only the new and edited entities
+ * are fetched, in one document with an <code>id_in</code> filter per category. Entities gone from the API are deleted.
+ * A refresh runs at most once every {@link #REFRESH_INTERVAL} ms.
+ */
+class StoreRefresher {
+    private static final long REFRESH_INTERVAL = 12 * 60 * 60 * 1000;
+    private static final String PREFERENCES_NAME = "swapi_store";
+    private static final String PREFERENCE_REFRESHED_AT = "refreshed_at";
+    private static final MediaType MEDIA_TYPE_JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private final Context context;
+    private final OkHttpClient okHttpClient;
+    private Refresh refresh;
+
+    StoreRefresher(Context context, OkHttpClient okHttpClient) {
+        this.context = context.getApplicationContext();
+        this.okHttpClient = okHttpClient;
+    }
+
+    /**
+     * Start a refresh unless one is running or the last one completed recently
+     */
+    synchronized void refresh() {
+        if (refresh != null)
+            return;
+
+        long refreshedAt = getPreferences().getLong(PREFERENCE_REFRESHED_AT, 0);
+        if (System.currentTimeMillis() - refreshedAt < REFRESH_INTERVAL)
+            return;
+
+        refresh = new Refresh();
+        RequestScheduler.submit(refresh);
+    }
+
+    private synchronized void onRefreshDone(Refresh done, boolean success) {
+        if (refresh != done)
+            return;
+
+        refresh = null;
+        if (success)
+            getPreferences().edit().putLong(PREFERENCE_REFRESHED_AT, System.currentTimeMillis()).apply();
+        RequestScheduler.finish(done);
+    }
+
+    private SharedPreferences getPreferences() {
+        return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return <code>query storeStamps { FILM: allFilms { id updatedAt } .. }</code>
+     */
+    private static Request buildStampsRequest() throws JSONException {
+        StringBuilder query = new StringBuilder("query storeStamps {");
+        for (SwapiCategory category : SwapiCategory.values()) {
+            query.append(' ').append(category.name()).append(": ").append(SwapiSelections.listField(category)).append(" { id updatedAt }");
+        }
+        query.append(" }");
+
+        JSONObject body = new JSONObject();
+        body.put("query", query.toString());
+        body.put("operationName", "storeStamps");
+        return buildRequest(body);
+    }
+
+    /**
+     * @return <code>query storeDelta($FILM: [ID!]) { FILM: allFilms(filter: {id_in: $FILM}) { updatedAt id title .. } .. }</code>
+     */
+    private static Request buildDeltaRequest(Map<SwapiCategory, List<String>> changedIds) throws JSONException {
+        StringBuilder variableDefinitions = new StringBuilder();
+        StringBuilder selections = new StringBuilder();
+        JSONObject variables = new JSONObject();
+
+        for (Map.Entry<SwapiCategory, List<String>> entry : changedIds.entrySet()) {
+            String name = entry.getKey().name();
+            if (variableDefinitions.length() != 0)
+                variableDefinitions.append(", ");
+            variableDefinitions.append('$').append(name).append(": [ID!]");
+
+            selections.append(' ').append(name).append(": ").append(SwapiSelections.listField(entry.getKey()))
+                    .append("(filter: {id_in: $").append(name).append("}) { updatedAt ")
+                    .append(SwapiSelections.details(entry.getKey()).substring(1));
+
+            variables.put(name, new JSONArray(entry.getValue()));
+        }
+
+        JSONObject body = new JSONObject();
+        body.put("query", "query storeDelta(" + variableDefinitions + ") {" + selections + " }");
+        body.put("operationName", "storeDelta");
+        body.put("variables", variables);
+        return buildRequest(body);
+    }
+
+    private static Request buildRequest(JSONObject body) {
+        // Always compare against the server, not against a cached listing
+        return new Request.Builder()
+                .url(Constants.BASE_URL)
+                .cacheControl(CacheControl.FORCE_NETWORK)
+                .post(RequestBody.create(MEDIA_TYPE_JSON, body.toString()))
+                .build();
+    }
+
+    private static JSONObject readData(Response response) throws IOException, JSONException {
+        ResponseBody body = response.body();
+        if (!response.isSuccessful() || body == null)
+            throw new IOException("Unexpected response " + response.code());
+
+        JSONObject json = new JSONObject(body.string());
+        if (json.has("errors"))
+            throw new IOException("GraphQL errors " + json.optJSONArray("errors"));
+        return json.getJSONObject("data");
+    }
+
+    /**
+     * Invalidate the memory caches and the graph edges of the entities the refresh replaced
+     */
+    private static void invalidate(Map<SwapiCategory, List<String>> ids) {
+        for (Map.Entry<SwapiCategory, List<String>> entry : ids.entrySet()) {
+            CategoryItemsCache.remove(entry.getKey());
+            for (String id : entry.getValue()) {
+                SwapiItemCache.remove(entry.getKey(), id);
+                EntityGraph.invalidate(entry.getKey(), id);
+            }
+        }
+    }
+
+    private class Refresh extends RequestScheduler.Task {
+        // The call of the current attempt, every attempt starts over from the listing
+        private Call call;
+
+        Refresh() {
+            super("store refresh", RequestPriority.BACKGROUND);
+        }
+
+        @Override
+        void start() {
+            try {
+                enqueue(buildStampsRequest(), new Step() {
+                    @Override
+                    void onData(Call call, JSONObject data) {
+                        onStamps(call, data);
+                    }
+                });
+            } catch (JSONException e) {
+                Timber.e(e);
+                onRefreshDone(this, false);
+            }
+        }
+
+        @Override
+        void interrupt() {
+            Call interruptedCall;
+            synchronized (this) {
+                interruptedCall = call;
+                call = null;
+            }
+            if (interruptedCall != null)
+                interruptedCall.cancel();
+        }
+
+        private synchronized boolean isCurrent(Call attemptCall) {
+            return call == attemptCall;
+        }
+
+        private void enqueue(Request request, final Step step) {
+            final Call attemptCall = okHttpClient.newCall(request);
+            Call previousCall;
+            synchronized (this) {
+                previousCall = call;
+                call = attemptCall;
+            }
+            if (previousCall != null)
+                previousCall.cancel();
+
+            attemptCall.enqueue(new Callback() {
+                @Override
+                public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                    if (isCurrent(call)) {
+                        Timber.d("Store refresh failed: %s", e.getMessage());
+                        onRefreshDone(Refresh.this, false);
+                    }
+                }
+
+                @Override
+                public void onResponse(@NonNull Call call, @NonNull Response response) {
+                    JSONObject data = null;
+                    try {
+                        data = readData(response);
+                    } catch (IOException | JSONException e) {
+                        if (isCurrent(call)) {
+                            Timber.e(e);
+                            Crashlytics.logException(e);
+                        }
+                    } finally {
+                        response.close();
+                    }
+
+                    if (!isCurrent(call))
+                        return;
+
+                    if (data == null) {
+                        onRefreshDone(Refresh.this, false);
+                    } else {
+                        step.onData(call, data);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Diff the listing with the store, on the store thread so it runs after the snapshot is loaded
+         */
+        private void onStamps(final Call attemptCall, final JSONObject data) {
+            SwapiStore.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final Map<SwapiCategory, List<String>> changedIds = new EnumMap<>(SwapiCategory.class);
+                    final Map<SwapiCategory, List<String>> removedIds = new EnumMap<>(SwapiCategory.class);
+
+                    for (SwapiCategory category : SwapiCategory.values()) {
+                        JSONArray entities = data.optJSONArray(category.name());
+                        if (entities == null)
+                            continue;
+
+                        Map<String, Long> stored = SwapiStore.getUpdatedAt(category);
+                        List<String> changed = new ArrayList<>();
+                        for (int i = 0; i < entities.length(); i++) {
+                            JSONObject entity = entities.optJSONObject(i);
+                            if (entity == null)
+                                continue;
+
+                            String id = entity.optString("id");
+                            Long storedAt = stored.remove(id);
+                            if (storedAt == null || storedAt < parseUpdatedAt(entity))
+                                changed.add(id);
+                        }
+
+                        if (!changed.isEmpty())
+                            changedIds.put(category, changed);
+                        // Whatever is left was not listed anymore
+                        if (!stored.isEmpty())
+                            removedIds.put(category, new ArrayList<>(stored.keySet()));
+                    }
+
+                    if (!isCurrent(attemptCall))
+                        return;
+
+                    Timber.d("Store refresh: %s changed, %s removed", changedIds.keySet(), removedIds.keySet());
+                    if (changedIds.isEmpty()) {
+                        store(new JSONObject(), changedIds, removedIds);
+                        return;
+                    }
+
+                    try {
+                        enqueue(buildDeltaRequest(changedIds), new Step() {
+                            @Override
+                            void onData(Call call, JSONObject delta) {
+                                store(delta, changedIds, removedIds);
+                            }
+                        });
+                    } catch (JSONException e) {
+                        Timber.e(e);
+                        onRefreshDone(Refresh.this, false);
+                    }
+                }
+            });
+        }
+
+        private void store(final JSONObject delta, final Map<SwapiCategory, List<String>> changedIds, final Map<SwapiCategory, List<String>> removedIds) {
+            SwapiStore.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!changedIds.isEmpty() || !removedIds.isEmpty()) {
+                        SwapiStore.update(delta, removedIds);
+                        invalidate(changedIds);
+                        invalidate(removedIds);
+                    }
+                    onRefreshDone(Refresh.this, true);
+                }
+            });
+        }
+
+        private long parseUpdatedAt(JSONObject entity) {
+            try {
+                return IsoDateTime.parseMillis(entity.optString("updatedAt"));
+            } catch (IllegalArgumentException e) {
+                return Long.MAX_VALUE;
+            }
+        }
+    }
+
+    private abstract static class Step {
+        abstract void onData(Call call, JSONObject data);
+    }
+}
@@ -0,0 +1,431 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.api;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.crashlytics.android.Crashlytics;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.dkaratzas.starwarspedia.Constants;
+import eu.dkaratzas.starwarspedia.libs.metrics.LoadTrace;
+import eu.dkaratzas.starwarspedia.models.CategoryItems;
+import eu.dkaratzas.starwarspedia.models.SimpleQueryData;
+import eu.dkaratzas.starwarspedia.provider.SwapiStore;
+import okhttp3.CacheControl;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import timber.log.Timber;
+
+/**
+ * Fetches the category lists a page of {@link #PAGE_SIZE} items at a time, reading the response token by token
+ * straight into {@link SimpleQueryData}, without building the Apollo data tree first. The items are handed to
+ * the callbacks in chunks while the body is still being parsed, so the first rows render before the whole page arrives.
+ * A page requested while it is being streamed joins that stream, receiving the items parsed so far first.
+ * The first page of every category is kept in the {@link CategoryItemsCache}.
+ * Categories held by the {@link SwapiStore} are paged from there, unless refreshed.
+ */
+class StreamingCategoryFetcher {
+    static final int PAGE_SIZE = 50;
+    // Enough rows to fill the first screen, then larger chunks to keep the adapter updates few
+    private static final int FIRST_CHUNK_SIZE = 12;
+    private static final int CHUNK_SIZE = 48;
+    private static final MediaType MEDIA_TYPE_JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private final OkHttpClient okHttpClient;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Object lock = new Object();
+    private final Map<String, ListStream> inFlight = new HashMap<>();
+
+    StreamingCategoryFetcher(OkHttpClient okHttpClient) {
+        this.okHttpClient = okHttpClient;
+    }
+
+    /**
+     * @param category    The {@link SwapiCategory} to list
+     * @param skip        The number of items before the page, a multiple of {@link #PAGE_SIZE} for pages shared with other callers
+     * @param fetchPolicy {@link FetchPolicy#NETWORK_ONLY} skips the HTTP cache and any stream already in flight,
+     *                    the rest may be served by the HTTP cache
+     * @param priority    The {@link RequestPriority} of the caller
+     * @param loadTrace   The {@link LoadTrace} the request is tagged with, a stream joined by the caller keeps its own
+     * @param callback    Receives the items on the main thread
+     * @return The {@link CategoryStream}, cancel it to stop receiving items
+     */
+    CategoryStream fetch(SwapiCategory category, int skip, FetchPolicy fetchPolicy, RequestPriority priority, @Nullable LoadTrace loadTrace, CategoryStreamCallback callback) {
+        boolean refresh = fetchPolicy == FetchPolicy.NETWORK_ONLY;
+        String key = category + "/" + skip;
+
+        if (!refresh && SwapiStore.contains(category)) {
+            return fetchStored(category, skip, callback);
+        }
+        boolean submit = false;
+        ListStream stream;
+        CategoryStream subscription;
+
+        synchronized (lock) {
+            stream = inFlight.get(key);
+            if (stream == null || (refresh && !stream.refresh)) {
+                if (stream != null)
+                    inFlight.remove(key);
+
+                Request request;
+                try {
+                    request = buildRequest(category, skip, refresh, loadTrace);
+                } catch (JSONException e) {
+                    Timber.e(e);
+                    subscription = new CategoryStream(this, null, callback);
+                    post(Collections.singletonList(subscription), Collections.<SimpleQueryData>emptyList(), true, null);
+                    return subscription;
+                }
+
+                stream = new ListStream(key, category, skip, request, refresh, priority);
+                inFlight.put(key, stream);
+                submit = true;
+            } else {
+                Timber.d("Joining the stream of %s", key);
+            }
+
+            subscription = new CategoryStream(this, stream, callback);
+            stream.subscriptions.add(subscription);
+
+            // Catch up with the items parsed so far, in order with the chunks to come
+            if (!stream.items.isEmpty())
+                post(Collections.singletonList(subscription), new ArrayList<>(stream.items), false, null);
+        }
+
+        if (submit)
+            RequestScheduler.submit(stream);
+        else
+            RequestScheduler.promote(stream, priority);
+
+        return subscription;
+    }
+
+    private CategoryStream fetchStored(final SwapiCategory category, final int skip, CategoryStreamCallback callback) {
+        final CategoryStream subscription = new CategoryStream(this, null, callback);
+        SwapiStore.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<SimpleQueryData> items = SwapiStore.getItems(category, skip, PAGE_SIZE);
+                CategoryItems result = new CategoryItems(new ArrayList<>(items), items.size() < PAGE_SIZE);
+                if (skip == 0)
+                    CategoryItemsCache.put(category, result);
+
+                synchronized (lock) {
+                    post(Collections.singletonList(subscription), items, true, result);
+                }
+            }
+        });
+        return subscription;
+    }
+
+    void cancel(CategoryStream subscription) {
+        ListStream stream = subscription.stream;
+        if (stream == null) {
+            return;
+        }
+
+        Call cancelledCall = null;
+        boolean cancelTask = false;
+        synchronized (lock) {
+            if (stream.subscriptions.remove(subscription) && stream.subscriptions.isEmpty() && !stream.completed) {
+                stream.completed = true;
+                if (inFlight.get(stream.key) == stream)
+                    inFlight.remove(stream.key);
+                cancelledCall = stream.call;
+                stream.call = null;
+                cancelTask = true;
+            }
+        }
+
+        if (cancelTask) {
+            Timber.d("Cancelling the stream of %s, no subscribers left", stream.key);
+            if (cancelledCall != null)
+                cancelledCall.cancel();
+            RequestScheduler.cancel(stream);
+        }
+    }
+
+    private static Request buildRequest(SwapiCategory category, int skip, boolean refresh, @Nullable LoadTrace loadTrace) throws JSONException {
+        String listField = SwapiSelections.listField(category);
+        String operationName = listField + "Page";
+
+        JSONObject variables = new JSONObject();
+        variables.put("first", PAGE_SIZE);
+        variables.put("skip", skip);
+
+        JSONObject body = new JSONObject();
+        body.put("query", "query " + operationName + "($first: Int, $skip: Int) { "
+                + listField + "(first: $first, skip: $skip) { id " + SwapiSelections.titleField(category) + " } }");
+        body.put("operationName", operationName);
+        body.put("variables", variables);
+
+        Request.Builder builder = new Request.Builder()
+                .url(Constants.BASE_URL)
+                .post(RequestBody.create(MEDIA_TYPE_JSON, body.toString()))
+                // Marks the first byte of this load only, see LoadTracer#firstByteInterceptor
+                .tag(loadTrace);
+        if (refresh)
+            builder.cacheControl(CacheControl.FORCE_NETWORK);
+        return builder.build();
+    }
+
+    /**
+     * Post the items to the subscriptions, must be called holding lock so the chunks keep their order
+     *
+     * @param complete Whether this is the end of the list
+     * @param result   The complete list when complete, null if it failed
+     */
+    private void post(final List<CategoryStream> subscriptions, final List<SimpleQueryData> items, final boolean complete, @Nullable final CategoryItems result) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (CategoryStream subscription : subscriptions) {
+                    if (subscription.cancelled)
+                        continue;
+
+                    if (!items.isEmpty())
+                        subscription.callback.onItems(items);
+                    if (complete)
+                        subscription.callback.onComplete(result);
+                }
+            }
+        });
+    }
+
+    class ListStream extends RequestScheduler.Task {
+        final String key;
+        final SwapiCategory category;
+        final int skip;
+        final Request request;
+        final boolean refresh;
+        final List<CategoryStream> subscriptions = new ArrayList<>();
+        // The items handed to the subscriptions so far
+        final List<SimpleQueryData> items = new ArrayList<>();
+        boolean completed;
+        // The call of the current attempt
+        Call call;
+
+        ListStream(String key, SwapiCategory category, int skip, Request request, boolean refresh, RequestPriority priority) {
+            super("page " + key, priority);
+            this.key = key;
+            this.category = category;
+            this.skip = skip;
+            this.request = request;
+            this.refresh = refresh;
+        }
+
+        @Override
+        void start() {
+            final Call attemptCall;
+            Call previousCall;
+            synchronized (lock) {
+                if (completed) {
+                    return;
+                }
+                previousCall = call;
+                call = attemptCall = okHttpClient.newCall(request);
+            }
+
+            if (previousCall != null)
+                previousCall.cancel();
+
+            attemptCall.enqueue(new Callback() {
+                @Override
+                public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                    if (isCurrent(call)) {
+                        Timber.e(e);
+                        complete(call, false);
+                    }
+                }
+
+                @Override
+                public void onResponse(@NonNull Call call, @NonNull Response response) {
+                    boolean success = false;
+                    ResponseBody body = response.body();
+                    try {
+                        if (response.isSuccessful() && body != null) {
+                            success = parse(call, new JsonReader(body.charStream()));
+                        }
+                    } catch (IOException | IllegalStateException e) {
+                        if (isCurrent(call)) {
+                            Timber.e(e);
+                            Crashlytics.logException(e);
+                        }
+                    } finally {
+                        response.close();
+                    }
+                    complete(call, success);
+                }
+            });
+        }
+
+        @Override
+        void interrupt() {
+            Call interruptedCall;
+            synchronized (lock) {
+                interruptedCall = call;
+                call = null;
+            }
+
+            if (interruptedCall != null)
+                interruptedCall.cancel();
+        }
+
+        private boolean isCurrent(Call attemptCall) {
+            synchronized (lock) {
+                return call == attemptCall;
+            }
+        }
+
+        /**
+         * Read <code>{"data": {"allPersons": [{"id": .., "name": ..}, ..]}}</code>, anything else is skipped
+         *
+         * @return true if the list was read
+         */
+        private boolean parse(Call attemptCall, JsonReader reader) throws IOException {
+            String listField = SwapiSelections.listField(category);
+            boolean listRead = false;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("data".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (listField.equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                            if (!readItems(attemptCall, reader)) {
+                                return false;
+                            }
+                            listRead = true;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            return listRead;
+        }
+
+        /**
+         * @return false if the attempt was interrupted
+         */
+        private boolean readItems(Call attemptCall, JsonReader reader) throws IOException {
+            String titleField = SwapiSelections.titleField(category);
+            List<SimpleQueryData> chunk = new ArrayList<>(FIRST_CHUNK_SIZE);
+            int index = 0;
+
+            reader.beginArray();
+            while (reader.hasNext()) {
+                String id = null;
+                String title = null;
+
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.skipValue();
+                    } else if ("id".equals(name)) {
+                        id = reader.nextString();
+                    } else if (titleField.equals(name)) {
+                        title = reader.nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+
+                // An interrupted attempt restarts from the beginning, the items already handed over are skipped
+                if (index++ >= items.size()) {
+                    chunk.add(new SimpleQueryData(id, title, category));
+                }
+
+                if (chunk.size() >= (items.isEmpty() ? FIRST_CHUNK_SIZE : CHUNK_SIZE)) {
+                    if (!publish(attemptCall, chunk)) {
+                        return false;
+                    }
+                    chunk = new ArrayList<>(CHUNK_SIZE);
+                }
+            }
+            reader.endArray();
+
+            return publish(attemptCall, chunk);
+        }
+
+        /**
+         * @return false if the attempt was interrupted
+         */
+        private boolean publish(Call attemptCall, List<SimpleQueryData> chunk) {
+            synchronized (lock) {
+                if (call != attemptCall) {
+                    return false;
+                }
+                if (!chunk.isEmpty()) {
+                    items.addAll(chunk);
+                    post(new ArrayList<>(subscriptions), chunk, false, null);
+                }
+                return true;
+            }
+        }
+
+        private void complete(Call attemptCall, boolean success) {
+            CategoryItems result = null;
+            synchronized (lock) {
+                if (call != attemptCall || completed) {
+                    return;
+                }
+                completed = true;
+                call = null;
+                if (inFlight.get(key) == this)
+                    inFlight.remove(key);
+
+                if (success) {
+                    result = new CategoryItems(new ArrayList<>(items), items.size() < PAGE_SIZE);
+                    if (skip == 0)
+                        CategoryItemsCache.put(category, result);
+                }
+                post(new ArrayList<>(subscriptions), Collections.<SimpleQueryData>emptyList(), true, result);
+            }
+
+            RequestScheduler.finish(this);
+        }
+    }
+}
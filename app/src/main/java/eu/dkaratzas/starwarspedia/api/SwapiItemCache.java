@@ -0,0 +1,61 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.api;
+
+import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
+
+import eu.dkaratzas.starwarspedia.models.AllQueryData;
+
+/**
+ * Process wide memory cache of the mapped item details, keyed by category and SWAPI id.
+ * Only complete items are kept, a header missing some of its relations is never served as the whole item.
+ */
+public class SwapiItemCache {
+    private static final int MAX_ENTRIES = 150;
+
+    private static final LruCache<String, AllQueryData> sCache = new LruCache<>(MAX_ENTRIES);
+
+    @Nullable
+    public static AllQueryData get(SwapiCategory category, String id) {
+        return sCache.get(key(category, id));
+    }
+
+    public static boolean contains(SwapiCategory category, String id) {
+        return sCache.get(key(category, id)) != null;
+    }
+
+    /**
+     * Cache the item, unless it lacks its details or any of its relations
+     */
+    static void put(AllQueryData queryData) {
+        if (queryData != null && queryData.getCategory() != null && queryData.getId() != null && isComplete(queryData))
+            sCache.put(key(queryData.getCategory(), queryData.getId()), queryData);
+    }
+
+    private static boolean isComplete(AllQueryData queryData) {
+        return queryData.hasDetails() && queryData.getRelatedItems().size() == SwapiRelation.of(queryData.getCategory()).length;
+    }
+
+    static void remove(SwapiCategory category, String id) {
+        sCache.remove(key(category, id));
+    }
+
+    static String key(SwapiCategory category, String id) {
+        return category.name() + ":" + id;
+    }
+}
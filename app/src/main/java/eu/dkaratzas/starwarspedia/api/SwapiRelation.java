@@ -0,0 +1,135 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.api;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+
+import eu.dkaratzas.starwarspedia.R;
+
+/**
+ * The typed relations between SWAPI entities, every one is a field of its owner category pointing to items of
+ * the target category, i.e. <code>Film.characters</code> points to {@link SwapiCategory#PEOPLE}.
+ * Every relation has an inverse on the target, <code>Person.films</code> for <code>Film.characters</code>.
+ */
+public enum SwapiRelation {
+    CHARACTERS("characters", SwapiCategory.PEOPLE, R.string.people, true),
+    PEOPLE("people", SwapiCategory.PEOPLE, R.string.people, true),
+    RESIDENTS("residents", SwapiCategory.PEOPLE, R.string.residents, false),
+    PILOTS("pilots", SwapiCategory.PEOPLE, R.string.pilots, true),
+    HOMEWORLD("homeworld", SwapiCategory.PLANET, R.string.homeworld, false),
+    FILMS("films", SwapiCategory.FILM, R.string.films, true),
+    PLANETS("planets", SwapiCategory.PLANET, R.string.planets, true),
+    SPECIES("species", SwapiCategory.SPECIES, R.string.species, true),
+    STARSHIPS("starships", SwapiCategory.STARSHIP, R.string.starships, true),
+    VEHICLES("vehicles", SwapiCategory.VEHICLE, R.string.vehicles, true);
+
+    private static final SwapiRelation[] FILM_RELATIONS = {CHARACTERS, PLANETS, SPECIES, STARSHIPS, VEHICLES};
+    private static final SwapiRelation[] PEOPLE_RELATIONS = {HOMEWORLD, FILMS, SPECIES, STARSHIPS, VEHICLES};
+    private static final SwapiRelation[] PLANET_RELATIONS = {RESIDENTS, FILMS};
+    private static final SwapiRelation[] SPECIES_RELATIONS = {PEOPLE, FILMS};
+    private static final SwapiRelation[] STARSHIP_RELATIONS = {PILOTS, FILMS};
+    private static final SwapiRelation[] VEHICLE_RELATIONS = {PILOTS, FILMS};
+
+    private final String field;
+    private final SwapiCategory target;
+    private final int labelId;
+    private final boolean relatedLabel;
+
+    SwapiRelation(String field, SwapiCategory target, int labelId, boolean relatedLabel) {
+        this.field = field;
+        this.target = target;
+        this.labelId = labelId;
+        this.relatedLabel = relatedLabel;
+    }
+
+    /**
+     * @return The relations of the category in the order their sections are displayed
+     */
+    public static SwapiRelation[] of(SwapiCategory category) {
+        switch (category) {
+            case FILM:
+                return FILM_RELATIONS.clone();
+            case PEOPLE:
+                return PEOPLE_RELATIONS.clone();
+            case PLANET:
+                return PLANET_RELATIONS.clone();
+            case SPECIES:
+                return SPECIES_RELATIONS.clone();
+            case STARSHIP:
+                return STARSHIP_RELATIONS.clone();
+            case VEHICLE:
+                return VEHICLE_RELATIONS.clone();
+        }
+
+        throw new IllegalArgumentException("Unknown category " + category);
+    }
+
+    /**
+     * @return The GraphQL field of the relation
+     */
+    public String getField() {
+        return field;
+    }
+
+    /**
+     * @return The category of the related items
+     */
+    public SwapiCategory getTarget() {
+        return target;
+    }
+
+    /**
+     * @return true if the field holds a single item, the rest are lists
+     */
+    public boolean isSingle() {
+        return this == HOMEWORLD;
+    }
+
+    /**
+     * @return The title of the section displaying the related items
+     */
+    public String getLabel(Context context) {
+        return relatedLabel ? String.format(context.getString(R.string.related), context.getString(labelId)) : context.getString(labelId);
+    }
+
+    /**
+     * Every category points at most once to another, so the inverse is the relation of the target pointing back to the owner.
+     *
+     * @param owner The category owning this relation
+     * @return The relation of the target category pointing back to the owner, i.e. {@link #FILMS} for {@link #CHARACTERS}
+     */
+    public SwapiRelation inverse(SwapiCategory owner) {
+        SwapiRelation inverse = between(target, owner);
+        if (inverse == null)
+            throw new IllegalArgumentException(name() + " of " + owner + " has no inverse");
+
+        return inverse;
+    }
+
+    /**
+     * @return The relation of the owner category pointing to the target category, or null if they aren't related
+     */
+    @Nullable
+    public static SwapiRelation between(SwapiCategory owner, SwapiCategory target) {
+        for (SwapiRelation relation : of(owner)) {
+            if (relation.target == target)
+                return relation;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.api;
+
+/**
+ * GraphQL root fields and selection sets of the SWAPI queries, for documents built at runtime.
+ * Keep them in sync with the queries of <code>swapi.graphql</code>.
+ */
+class SwapiSelections {
+
+    static String rootField(SwapiCategory category) {
+        switch (category) {
+            case FILM:
+                return "Film";
+            case PEOPLE:
+                return "Person";
+            case PLANET:
+                return "Planet";
+            case SPECIES:
+                return "Species";
+            case STARSHIP:
+                return "Starship";
+            case VEHICLE:
+                return "Vehicle";
+        }
+
+        throw new IllegalArgumentException("Unknown category " + category);
+    }
+
+    /**
+     * @return The root field listing every item of the category, i.e. <code>allPersons</code>
+     */
+    static String listField(SwapiCategory category) {
+        switch (category) {
+            case FILM:
+                return "allFilms";
+            case PEOPLE:
+                return "allPersons";
+            case PLANET:
+                return "allPlanets";
+            case SPECIES:
+                return "allSpecies";
+            case STARSHIP:
+                return "allStarships";
+            case VEHICLE:
+                return "allVehicles";
+        }
+
+        throw new IllegalArgumentException("Unknown category " + category);
+    }
+
+    /**
+     * @return The field holding the display title of an item, films have a title while the rest have a name
+     */
+    static String titleField(SwapiCategory category) {
+        return category == SwapiCategory.FILM ? "title" : "name";
+    }
+
+    /**
+     * @return The selection of every field displayed on the details of an item, scalars and related items
+     */
+    static String details(SwapiCategory category) {
+        StringBuilder selection = new StringBuilder("{ ").append(scalarFields(category));
+        for (SwapiRelation relation : SwapiRelation.of(category)) {
+            selection.append(' ').append(relatedField(relation));
+        }
+        return selection.append(" }").toString();
+    }
+
+    /**
+     * @return The selection of a single relation of an item, for a section loaded on its own
+     */
+    static String related(SwapiCategory category, SwapiRelation relation) {
+        return "{ id " + titleField(category) + " " + relatedField(relation) + " }";
+    }
+
+    /**
+     * @return The selection of the details without the related items, for items whose relations are known, see {@link EntityGraph}
+     */
+    static String scalars(SwapiCategory category) {
+        return "{ " + scalarFields(category) + " }";
+    }
+
+    private static String relatedField(SwapiRelation relation) {
+        return relation.getField() + " { id " + titleField(relation.getTarget()) + " }";
+    }
+
+    private static String scalarFields(SwapiCategory category) {
+        switch (category) {
+            case FILM:
+                return "id title director openingCrawl producers releaseDate";
+            case PEOPLE:
+                return "id name birthYear gender hairColor height mass skinColor";
+            case PLANET:
+                return "id name climate diameter gravity orbitalPeriod population rotationPeriod surfaceWater terrain";
+            case SPECIES:
+                return "id name averageHeight averageLifespan classification designation eyeColor hairColor language skinColor";
+            case STARSHIP:
+                return "id name cargoCapacity class consumables costInCredits crew hyperdriveRating length manufacturer " +
+                        "maxAtmospheringSpeed mglt passengers";
+            case VEHICLE:
+                return "id name cargoCapacity class consumables costInCredits crew length manufacturer " +
+                        "maxAtmospheringSpeed model passengers";
+        }
+
+        throw new IllegalArgumentException("Unknown category " + category);
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.api;
+
+import eu.dkaratzas.starwarspedia.libs.metrics.LatencyHistogram;
+import eu.dkaratzas.starwarspedia.libs.metrics.LoadTrace;
+import eu.dkaratzas.starwarspedia.libs.metrics.MetricsSink;
+import timber.log.Timber;
+
+/**
+ * Logs every finished trace along with the network stats, handy while debugging.
+ * Lives with the api it reports on, libs.metrics doesn't know about the network layer.
+ */
+public class TimberMetricsSink implements MetricsSink {
+    private final GraphQLHttpCache.Stats mHttpCacheStats;
+    private final PersistedQueryInterceptor.Stats mPersistedQueryStats;
+
+    /**
+     * @param httpCacheStats      Logged along every trace
+     * @param persistedQueryStats Logged along every trace
+     */
+    public TimberMetricsSink(GraphQLHttpCache.Stats httpCacheStats, PersistedQueryInterceptor.Stats persistedQueryStats) {
+        mHttpCacheStats = httpCacheStats;
+        mPersistedQueryStats = persistedQueryStats;
+    }
+
+    @Override
+    public void onTraceFinished(LoadTrace trace) {
+        Timber.d("%s", trace);
+        Timber.d("HTTP cache: %s", mHttpCacheStats);
+        Timber.d("Persisted queries: %s", mPersistedQueryStats);
+        for (LatencyHistogram histogram : LatencyHistogram.getAll()) {
+            Timber.d("Latency of %s", histogram);
+        }
+    }
+}
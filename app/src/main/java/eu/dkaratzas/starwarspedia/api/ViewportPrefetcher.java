@@ -0,0 +1,228 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.api;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.StaggeredGridLayoutManager;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.dkaratzas.starwarspedia.models.AllQueryData;
+import eu.dkaratzas.starwarspedia.models.SimpleQueryData;
+import timber.log.Timber;
+
+/**
+ * Speculatively fetches the details of the items a user is likely to tap, the visible ones of a
+ * {@link StaggeredGridLayoutManager} plus a few rows ahead on the scroll direction, so that opening them is instant.
+ * Nothing is fetched while flinging, the items that leave the viewport before their batch completes are cancelled
+ * and the total work is capped by an entry and a byte budget.
+ */
+public class ViewportPrefetcher extends RecyclerView.OnScrollListener {
+    private static final int MAX_IN_FLIGHT = 12;
+    private static final int MAX_ENTRIES = 60;
+    private static final long MAX_BYTES = 256 * 1024;
+    private static final float FLING_VELOCITY = 2.5f; // px per ms
+    private static final int LOOKAHEAD_ROWS = 2;
+
+    private final List<SimpleQueryData> mItems;
+    private final Map<String, PrefetchRequest> mInFlight = new LinkedHashMap<>();
+    private RecyclerView mRecyclerView;
+    private int mRequestedEntries;
+    private long mFetchedBytes;
+    private long mLastScrollTime;
+    private float mVelocity;
+    private boolean mScrollingDown = true;
+
+    public ViewportPrefetcher(List<SimpleQueryData> items) {
+        mItems = items;
+    }
+
+    public void attach(RecyclerView recyclerView) {
+        mRecyclerView = recyclerView;
+        mRecyclerView.addOnScrollListener(this);
+
+        // Prefetch the first screen once it is laid out
+        mRecyclerView.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mRecyclerView != null)
+                    prefetchViewport();
+            }
+        });
+    }
+
+    public void detach() {
+        if (mRecyclerView != null) {
+            mRecyclerView.removeOnScrollListener(this);
+            mRecyclerView = null;
+        }
+        cancelAll();
+    }
+
+    @Override
+    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        if (dy == 0)
+            return;
+
+        long now = SystemClock.uptimeMillis();
+        long elapsed = Math.max(1, now - mLastScrollTime);
+        mVelocity = mLastScrollTime == 0 ? 0 : Math.abs(dy) / (float) elapsed;
+        mLastScrollTime = now;
+        mScrollingDown = dy > 0;
+
+        if (mVelocity < FLING_VELOCITY)
+            prefetchViewport();
+    }
+
+    @Override
+    public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+        if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+            mLastScrollTime = 0;
+            mVelocity = 0;
+            prefetchViewport();
+        }
+    }
+
+    private void prefetchViewport() {
+        if (mRecyclerView == null || !(mRecyclerView.getLayoutManager() instanceof StaggeredGridLayoutManager) || mItems.isEmpty())
+            return;
+
+        StaggeredGridLayoutManager layoutManager = (StaggeredGridLayoutManager) mRecyclerView.getLayoutManager();
+        int first = min(layoutManager.findFirstVisibleItemPositions(null));
+        int last = max(layoutManager.findLastVisibleItemPositions(null));
+        if (first == RecyclerView.NO_POSITION || last == RecyclerView.NO_POSITION)
+            return;
+
+        // Visible items first, then the rows the user is scrolling to
+        List<SimpleQueryData> wanted = new ArrayList<>();
+        for (int i = first; i <= last && i < mItems.size(); i++) {
+            wanted.add(mItems.get(i));
+        }
+        int lookahead = layoutManager.getSpanCount() * LOOKAHEAD_ROWS;
+        if (mScrollingDown) {
+            for (int i = last + 1; i <= last + lookahead && i < mItems.size(); i++) {
+                wanted.add(mItems.get(i));
+            }
+        } else {
+            for (int i = first - 1; i >= first - lookahead && i >= 0; i--) {
+                wanted.add(mItems.get(i));
+            }
+        }
+
+        cancelOffScreen(wanted);
+
+        for (SimpleQueryData item : wanted) {
+            if (mInFlight.size() >= MAX_IN_FLIGHT || mRequestedEntries >= MAX_ENTRIES || mFetchedBytes >= MAX_BYTES)
+                break;
+
+            String key = SwapiItemCache.key(item.getCategory(), item.getId());
+            if (mInFlight.containsKey(key) || SwapiItemCache.contains(item.getCategory(), item.getId()))
+                continue;
+
+            PrefetchRequest request = new PrefetchRequest(key, item);
+            mInFlight.put(key, request);
+            mRequestedEntries++;
+            ApolloManager.instance().fetchSwapiItemBatched(item.getId(), item.getCategory(), request);
+        }
+    }
+
+    private void cancelOffScreen(List<SimpleQueryData> wanted) {
+        List<String> wantedKeys = new ArrayList<>(wanted.size());
+        for (SimpleQueryData item : wanted) {
+            wantedKeys.add(SwapiItemCache.key(item.getCategory(), item.getId()));
+        }
+
+        Iterator<Map.Entry<String, PrefetchRequest>> iterator = mInFlight.entrySet().iterator();
+        while (iterator.hasNext()) {
+            PrefetchRequest request = iterator.next().getValue();
+            if (!wantedKeys.contains(request.key)) {
+                iterator.remove();
+                mRequestedEntries--; // it never reached us, give it back to the budget
+                ApolloManager.instance().cancelSwapiItemBatched(request.item.getId(), request.item.getCategory(), request);
+            }
+        }
+    }
+
+    private void cancelAll() {
+        for (PrefetchRequest request : mInFlight.values()) {
+            ApolloManager.instance().cancelSwapiItemBatched(request.item.getId(), request.item.getCategory(), request);
+        }
+        mInFlight.clear();
+    }
+
+    /**
+     * Rough size in memory of the item, the sum of its strings
+     */
+    private static long estimateSize(AllQueryData queryData) {
+        long size = 0;
+        for (Map.Entry<String, String> entry : queryData.getDetailsMap().entrySet()) {
+            size += entry.getKey().length() + (entry.getValue() == null ? 0 : entry.getValue().length());
+        }
+        for (List<SimpleQueryData> relatedItems : queryData.getRelatedItems().values()) {
+            for (SimpleQueryData related : relatedItems) {
+                size += related.getId().length() + related.getTitle().length();
+            }
+        }
+        return size * 2; // UTF-16
+    }
+
+    private static int min(int[] positions) {
+        int min = RecyclerView.NO_POSITION;
+        for (int position : positions) {
+            if (position != RecyclerView.NO_POSITION && (min == RecyclerView.NO_POSITION || position < min))
+                min = position;
+        }
+        return min;
+    }
+
+    private static int max(int[] positions) {
+        int max = RecyclerView.NO_POSITION;
+        for (int position : positions) {
+            if (position > max)
+                max = position;
+        }
+        return max;
+    }
+
+    private class PrefetchRequest implements StarWarsApiCallback<AllQueryData> {
+        final String key;
+        final SimpleQueryData item;
+
+        PrefetchRequest(String key, SimpleQueryData item) {
+            this.key = key;
+            this.item = item;
+        }
+
+        @Override
+        public void onResponse(AllQueryData result) {
+            mInFlight.remove(key);
+            if (result != null) {
+                mFetchedBytes += estimateSize(result);
+                Timber.d("Prefetched %s, %d bytes of budget used", key, mFetchedBytes);
+            }
+
+            if (mRecyclerView != null && mRecyclerView.getScrollState() == RecyclerView.SCROLL_STATE_IDLE)
+                prefetchViewport();
+        }
+    }
+}
@@ -16,13 +16,11 @@
 
 package eu.dkaratzas.starwarspedia.controllers.activities;
 
-import android.content.ContentValues;
 import android.content.Intent;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
-import android.net.Uri;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.design.widget.FloatingActionButton;
@@ -50,6 +48,9 @@ import com.bumptech.glide.request.RequestListener;
 import com.bumptech.glide.request.RequestOptions;
 import com.bumptech.glide.request.target.Target;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -61,27 +62,34 @@ import eu.dkaratzas.starwarspedia.R;
 import eu.dkaratzas.starwarspedia.adapters.RelatedToAdapter;
 import eu.dkaratzas.starwarspedia.api.ApolloManager;
 import eu.dkaratzas.starwarspedia.api.StarWarsApiCallback;
+import eu.dkaratzas.starwarspedia.api.SwapiRelation;
 import eu.dkaratzas.starwarspedia.libs.GlideApp;
-import eu.dkaratzas.starwarspedia.libs.Misc;
 import eu.dkaratzas.starwarspedia.libs.SpacingItemDecoration;
 import eu.dkaratzas.starwarspedia.libs.StatusMessage;
 import eu.dkaratzas.starwarspedia.models.AllQueryData;
 import eu.dkaratzas.starwarspedia.models.SimpleQueryData;
-import eu.dkaratzas.starwarspedia.provider.FavouriteItemsContract;
-import eu.dkaratzas.starwarspedia.widget.FavouritesWidgetProvider;
+import eu.dkaratzas.starwarspedia.provider.FavouriteIds;
+import eu.dkaratzas.starwarspedia.provider.FavouriteWriter;
 import timber.log.Timber;
 
-public class DetailActivity extends BaseActivity {
+public class DetailActivity extends BaseActivity implements FavouriteWriter.Callback, FavouriteIds.Listener {
 
     public static final String EXTRA_DATA_TO_DISPLAY = "extra_data";
     public static final String EXTRA_CURRENT_CATEGORY_TITLE = "extra_title";
-    public static final int LOADER_ID = 91;
 
     private AllQueryData mData;
     private String mCurrentCategoryTitle;
     private boolean mIsFavourite = false;
+    // Once toggled here the optimistic state is kept, the writer callback rolls it back on failure
+    private boolean mFavouriteToggled = false;
     private Menu mMenu;
-    private Thread mThread;
+    // The sections missing from the header, loaded once scrolled into view
+    private final Map<SwapiRelation, RelatedSection> mLazySections = new EnumMap<>(SwapiRelation.class);
+    private final Map<SwapiRelation, StarWarsApiCallback<AllQueryData>> mSectionCallbacks = new EnumMap<>(SwapiRelation.class);
+    private final Map<RecyclerView, List<SimpleQueryData>> mRelatedRecyclers = new LinkedHashMap<>();
+    // The related item being fetched to open it, withdrawn along with the activity
+    private SimpleQueryData mOpeningItem;
+    private StarWarsApiCallback<AllQueryData> mOpeningCallback;
 
     @BindView(R.id.toolbar)
     Toolbar mToolbar;
@@ -115,6 +123,7 @@ public class DetailActivity extends BaseActivity {
             getSupportActionBar().setDisplayHomeAsUpEnabled(true);
 
             mIsFavourite = isFavouriteItem();
+            FavouriteIds.addListener(this);
             mFabPremium.setVisibility(InAppBillingManager.isDisplayAds() ? View.VISIBLE : View.GONE);
             mFabPremium.setOnClickListener(new View.OnClickListener() {
                 @Override
@@ -132,20 +141,22 @@ public class DetailActivity extends BaseActivity {
         }
     }
 
-    @Override
-    FrameLayout getAdsContainer() {
-        return findViewById(R.id.ads_container);
-    }
-
     @Override
     protected void onDestroy() {
         super.onDestroy();
 
-        if (mThread != null) {
-            mThread.interrupt();
-            mThread = null;
+        FavouriteIds.removeListener(this);
+        if (mOpeningCallback != null)
+            ApolloManager.instance().cancelSwapiItemHeader(mOpeningItem.getId(), mOpeningItem.getCategory(), mOpeningCallback);
+        for (Map.Entry<SwapiRelation, StarWarsApiCallback<AllQueryData>> entry : mSectionCallbacks.entrySet()) {
+            ApolloManager.instance().cancelRelatedItemsBatched(mData.getId(), mData.getCategory(), entry.getKey(), entry.getValue());
         }
     }
+
+    @Override
+    FrameLayout getAdsContainer() {
+        return findViewById(R.id.ads_container);
+    }
     // endregion
 
     @Override
@@ -161,7 +172,6 @@ public class DetailActivity extends BaseActivity {
 
         switch (item.getItemId()) {
             case android.R.id.home:
-                getSupportLoaderManager().destroyLoader(LOADER_ID);
                 finish();
                 return true;
             case R.id.share_action:
@@ -176,12 +186,6 @@ public class DetailActivity extends BaseActivity {
 
     }
 
-    @Override
-    public void onBackPressed() {
-        getSupportLoaderManager().destroyLoader(LOADER_ID);
-        super.onBackPressed();
-    }
-
     @Override
     public void onSetUpAds() {
         super.onSetUpAds();
@@ -220,7 +224,17 @@ public class DetailActivity extends BaseActivity {
                 })
                 .into(mIvThumb);
 
-        // Get item details to display
+        // Opened from the entity graph, the related items are shown while the details load
+        if (mData.hasDetails())
+            publishDetails();
+        else
+            loadDetails();
+
+        loadAndPublishRelatedToRecyclers();
+
+    }
+
+    private void publishDetails() {
         LinkedHashMap<String, String> detailsMap = mData.getDetailsMap();
         StringBuilder details = new StringBuilder();
 
@@ -232,72 +246,227 @@ public class DetailActivity extends BaseActivity {
                 textView.setTextSize(TypedValue.COMPLEX_UNIT_PX, getApplicationContext().getResources().getDimension(R.dimen.text_x_large));
                 textView.setTextColor(ContextCompat.getColor(getApplicationContext(), android.R.color.white));
 
-                addCategoryToLinearContainer(entry.getKey(), textView);
+                // Right below the details, before the related items
+                addCategoryToLinearContainer(entry.getKey(), textView, 1);
             } else
                 details.append(String.format("<b>%s:</b> %s<br>", entry.getKey(), entry.getValue()));
         }
         mTvDetails.setText(Html.fromHtml(details.toString()));
+    }
 
-        loadAndPublishRelatedToRecyclers();
-
+    private void loadDetails() {
+        // On the activity's loaders, retried and hedged, and dropped along with the activity
+        ApolloManager.instance().fetchSwapiItem(this, mData.getId(), mData.getCategory(), getSupportLoaderManager(), new StarWarsApiCallback<AllQueryData>() {
+            @Override
+            public void onResponse(AllQueryData result) {
+                if (isFinishing() || isDestroyed())
+                    return;
+
+                if (result == null) {
+                    StatusMessage.show(DetailActivity.this, getString(R.string.error_getting_data));
+                } else {
+                    // Keep the related items loaded meanwhile
+                    mData = result.withRelatedItems(mData.getRelatedItems());
+                    publishDetails();
+                }
+            }
+        });
     }
 
     private void loadAndPublishRelatedToRecyclers() {
+        for (SwapiRelation relation : SwapiRelation.of(mData.getCategory())) {
+            List<SimpleQueryData> items = mData.getRelatedItems().get(relation);
+            if (items != null && items.isEmpty())
+                continue;
 
-        for (Map.Entry<String, List<SimpleQueryData>> entry : mData.getRelatedItems().entrySet()) {
-            Timber.d("Publishing recycler for %s entry", entry.getKey());
+            RecyclerView recyclerView = createRelatedRecycler();
+            TextView tvTitle = addCategoryToLinearContainer(relation.getLabel(this), recyclerView);
 
-            RecyclerView recyclerView = new RecyclerView(DetailActivity.this);
+            if (items == null) {
+                // Not part of the header, the section stays empty till it gets loaded
+                mLazySections.put(relation, new RelatedSection(tvTitle, recyclerView));
+            } else {
+                Timber.d("Publishing recycler for %s entry", relation);
+                publishRelatedItems(recyclerView, items);
+            }
+        }
 
-            RelatedToAdapter relatedToAdapter = new RelatedToAdapter(getApplicationContext(), entry.getValue(), new RelatedToAdapter.OnItemClickListener() {
-                // Fetch the item by ID and start DetailsActivity to show its details
-                @Override
-                public void onItemClick(SimpleQueryData queryData) {
-
-                    ApolloManager.instance().fetchSwapiItem(getApplicationContext(), queryData.getId(), queryData.getCategory(), getSupportLoaderManager(), LOADER_ID, new StarWarsApiCallback<AllQueryData>() {
-                        @Override
-                        public void onResponse(AllQueryData result) {
-                            getSupportLoaderManager().destroyLoader(LOADER_ID);
-
-                            if (result == null) {
-                                StatusMessage.show(DetailActivity.this, getString(R.string.error_getting_data));
-                            } else {
-                                Bundle bundle = new Bundle();
-                                bundle.putParcelable(DetailActivity.EXTRA_DATA_TO_DISPLAY, result);
-                                bundle.putString(DetailActivity.EXTRA_CURRENT_CATEGORY_TITLE, mCurrentCategoryTitle);
-                                Intent intent = new Intent(DetailActivity.this, DetailActivity.class);
-                                intent.putExtras(bundle);
-                                startActivity(intent);
-                                finish();
-                            }
+        mScrollView.setOnScrollChangeListener(new NestedScrollView.OnScrollChangeListener() {
+            @Override
+            public void onScrollChange(NestedScrollView v, int scrollX, int scrollY, int oldScrollX, int oldScrollY) {
+                loadVisibleSections();
+            }
+        });
 
-                        }
-                    });
+        // Once laid out, load the sections on screen and prefetch the visible related items in a single batched request
+        mScrollView.post(new Runnable() {
+            @Override
+            public void run() {
+                loadVisibleSections();
+                prefetchVisibleRelatedItems(mRelatedRecyclers);
+            }
+        });
 
+        mScrollView.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                mScrollView.scrollTo(0, 0);
+            }
+        }, 500);
+
+    }
+
+    private RecyclerView createRelatedRecycler() {
+        RecyclerView recyclerView = new RecyclerView(DetailActivity.this);
+
+        LinearLayoutManager layoutManager = new LinearLayoutManager(getApplicationContext(), LinearLayoutManager.HORIZONTAL, false);
+        SpacingItemDecoration itemDecoration = new SpacingItemDecoration(getApplicationContext().getResources().getDimensionPixelSize(R.dimen.margin_large));
+        recyclerView.setHasFixedSize(true);
+        recyclerView.setLayoutManager(layoutManager);
+        recyclerView.addItemDecoration(itemDecoration);
+        return recyclerView;
+    }
+
+    private void publishRelatedItems(RecyclerView recyclerView, List<SimpleQueryData> items) {
+        RelatedToAdapter relatedToAdapter = new RelatedToAdapter(getApplicationContext(), items, new RelatedToAdapter.OnItemClickListener() {
+            // Fetch the item by ID and start DetailsActivity to show its details
+            @Override
+            public void onItemClick(SimpleQueryData queryData) {
+
+                // Known already, at least its related items from the entity graph
+                AllQueryData knownData = ApolloManager.instance().peekSwapiItem(queryData.getId(), queryData.getCategory());
+                if (knownData != null) {
+                    launchDetails(knownData);
+                    return;
                 }
-            });
 
-            LinearLayoutManager layoutManager = new LinearLayoutManager(getApplicationContext(), LinearLayoutManager.HORIZONTAL, false);
-            SpacingItemDecoration itemDecoration = new SpacingItemDecoration(getApplicationContext().getResources().getDimensionPixelSize(R.dimen.margin_large));
-            recyclerView.setHasFixedSize(true);
-            recyclerView.setLayoutManager(layoutManager);
-            recyclerView.addItemDecoration(itemDecoration);
-            recyclerView.setAdapter(relatedToAdapter);
+                if (mOpeningCallback != null)
+                    ApolloManager.instance().cancelSwapiItemHeader(mOpeningItem.getId(), mOpeningItem.getCategory(), mOpeningCallback);
+                mOpeningItem = queryData;
+                mOpeningCallback = new StarWarsApiCallback<AllQueryData>() {
+                    @Override
+                    public void onResponse(AllQueryData result) {
+                        // Superseded by another tap
+                        if (mOpeningCallback != this)
+                            return;
+                        mOpeningItem = null;
+                        mOpeningCallback = null;
+                        if (isFinishing() || isDestroyed())
+                            return;
+
+                        if (result == null) {
+                            StatusMessage.show(DetailActivity.this, getString(R.string.error_getting_data));
+                        } else {
+                            launchDetails(result);
+                        }
+
+                    }
+                };
+                ApolloManager.instance().fetchSwapiItemHeader(queryData.getId(), queryData.getCategory(), mOpeningCallback);
+
+            }
+        });
 
-            addCategoryToLinearContainer(entry.getKey(), recyclerView);
+        recyclerView.setAdapter(relatedToAdapter);
+        mRelatedRecyclers.put(recyclerView, items);
+    }
 
+    /**
+     * Load the lazy sections whose title is on screen
+     */
+    private void loadVisibleSections() {
+        Rect visibleRect = new Rect();
+        List<SwapiRelation> visibleRelations = new ArrayList<>();
+        for (Map.Entry<SwapiRelation, RelatedSection> entry : mLazySections.entrySet()) {
+            if (!mSectionCallbacks.containsKey(entry.getKey()) && entry.getValue().tvTitle.getLocalVisibleRect(visibleRect))
+                visibleRelations.add(entry.getKey());
         }
 
-        mScrollView.postDelayed(new Runnable() {
+        // Cached sections are published right away, out of the iteration
+        for (SwapiRelation relation : visibleRelations) {
+            loadSection(relation);
+        }
+    }
+
+    private void loadSection(final SwapiRelation relation) {
+        final boolean[] delivered = {false};
+        StarWarsApiCallback<AllQueryData> sectionCallback = new StarWarsApiCallback<AllQueryData>() {
             @Override
-            public void run() {
-                mScrollView.scrollTo(0, 0);
+            public void onResponse(AllQueryData result) {
+                // A cached section is delivered before the fetch returns, flag it so it isn't registered
+                delivered[0] = true;
+                mSectionCallbacks.remove(relation);
+                if (isFinishing() || isDestroyed())
+                    return;
+
+                List<SimpleQueryData> items = result == null ? null : result.getRelatedItems().get(relation);
+                if (items == null) {
+                    // Retried once scrolled again
+                    StatusMessage.show(DetailActivity.this, getString(R.string.error_getting_data));
+                    return;
+                }
+
+                mData = mData.withRelatedItems(Collections.singletonMap(relation, items));
+                final RelatedSection section = mLazySections.remove(relation);
+                if (items.isEmpty()) {
+                    mLinearContainer.removeView(section.tvTitle);
+                    mLinearContainer.removeView(section.recyclerView);
+                    return;
+                }
+
+                Timber.d("Publishing recycler for %s entry", relation);
+                publishRelatedItems(section.recyclerView, items);
+                section.recyclerView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        prefetchVisibleRelatedItems(Collections.singletonMap(section.recyclerView, mRelatedRecyclers.get(section.recyclerView)));
+                    }
+                });
             }
-        }, 500);
+        };
 
+        ApolloManager.instance().fetchRelatedItemsBatched(mData.getId(), mData.getCategory(), relation, sectionCallback);
+        // Only a fetch still in flight is tracked, to skip the section meanwhile and withdraw it in onDestroy
+        if (!delivered[0])
+            mSectionCallbacks.put(relation, sectionCallback);
     }
 
-    private void addCategoryToLinearContainer(String title, View view) {
+    private void launchDetails(AllQueryData queryData) {
+        Bundle bundle = new Bundle();
+        bundle.putParcelable(DetailActivity.EXTRA_DATA_TO_DISPLAY, queryData);
+        bundle.putString(DetailActivity.EXTRA_CURRENT_CATEGORY_TITLE, mCurrentCategoryTitle);
+        Intent intent = new Intent(DetailActivity.this, DetailActivity.class);
+        intent.putExtras(bundle);
+        startActivity(intent);
+        finish();
+    }
+
+    private void prefetchVisibleRelatedItems(Map<RecyclerView, List<SimpleQueryData>> relatedRecyclers) {
+        List<SimpleQueryData> visibleItems = new ArrayList<>();
+
+        for (Map.Entry<RecyclerView, List<SimpleQueryData>> entry : relatedRecyclers.entrySet()) {
+            LinearLayoutManager layoutManager = (LinearLayoutManager) entry.getKey().getLayoutManager();
+            int first = layoutManager.findFirstVisibleItemPosition();
+            int last = layoutManager.findLastVisibleItemPosition();
+            if (first == RecyclerView.NO_POSITION || last == RecyclerView.NO_POSITION)
+                continue;
+
+            visibleItems.addAll(entry.getValue().subList(first, Math.min(last + 1, entry.getValue().size())));
+        }
+
+        Timber.d("Prefetching %d visible related items", visibleItems.size());
+        ApolloManager.instance().prefetchSwapiItems(visibleItems);
+    }
+
+    private TextView addCategoryToLinearContainer(String title, View view) {
+        return addCategoryToLinearContainer(title, view, mLinearContainer.getChildCount());
+    }
+
+    /**
+     * @param index The position of the title in the container, the view goes right after it
+     * @return The title
+     */
+    private TextView addCategoryToLinearContainer(String title, View view, int index) {
         TextView tvTitle = new TextView(DetailActivity.this);
         tvTitle.setText(title);
         tvTitle.setTextSize(TypedValue.COMPLEX_UNIT_PX, getResources().getDimension(R.dimen.text_xx_large));
@@ -308,19 +477,13 @@ public class DetailActivity extends BaseActivity {
 
         tvTitle.setLayoutParams(lp);
 
-        mLinearContainer.addView(tvTitle);
-        mLinearContainer.addView(view);
+        mLinearContainer.addView(tvTitle, index);
+        mLinearContainer.addView(view, index + 1);
+        return tvTitle;
     }
 
     private boolean isFavouriteItem() {
-
-        final Cursor cursor;
-        cursor = getApplicationContext().getContentResolver().query(FavouriteItemsContract.FavouriteItemEntry.CONTENT_URI, null, "swapi_id=?", new String[]{String.valueOf(mData.getId())}, null);
-
-        boolean result = cursor.getCount() > 0;
-        cursor.close();
-
-        return result;
+        return FavouriteIds.contains(mData.getCategory(), mData.getId());
     }
 
     private Bitmap getBitmapFromImageView(ImageView imageView) {
@@ -335,7 +498,10 @@ public class DetailActivity extends BaseActivity {
                 bitmap = bitmapDrawable.getBitmap();
             }
 
-            return bitmap;
+            // The writer compresses it later on, by then Glide may have recycled the one on screen
+            if (bitmap == null)
+                return null;
+            return bitmap.copy(bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888, false);
         } catch (Exception ex) {
             Timber.e(ex);
 
@@ -344,81 +510,39 @@ public class DetailActivity extends BaseActivity {
     }
 
     /**
-     * Add or delete the item from favourites
+     * Flip the favourite state right away, the {@link FavouriteWriter} stores only the final state of rapid toggles
      */
     private void switchFavouriteStatus() {
+        mFavouriteToggled = true;
+        mIsFavourite = !mIsFavourite;
+        switchFavouriteDrawable();
+        StatusMessage.show(DetailActivity.this, mData.getTitle() + " " + getString(mIsFavourite ? R.string.added_to_favourite : R.string.removed_from_favourite));
 
-        if (mThread != null && mThread.isAlive()) {
-            return;
-        }
-        mMenu.getItem(0).setEnabled(false);
-
-        if (mIsFavourite) {
-
-            mThread = new Thread(new Runnable() {
-
-                @Override
-                public void run() {
-                    Uri uri = FavouriteItemsContract.FavouriteItemEntry.CONTENT_URI;
-                    uri = uri.buildUpon().appendPath(String.valueOf(mData.getId())).build();
-                    int returnUri = getApplicationContext().getContentResolver().delete(uri, null, null);
-                    Timber.d("ReturnUri: %s", returnUri);
-
-                    getApplicationContext().getContentResolver().notifyChange(uri, null);
-
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            mIsFavourite = !mIsFavourite;
-
-                            switchFavouriteDrawable();
-                            StatusMessage.show(DetailActivity.this, mData.getTitle() + " " + getString(R.string.removed_from_favourite));
-                            FavouritesWidgetProvider.sendRefreshBroadcast(getApplicationContext());
-                        }
-                    });
-
-                }
-            });
-
-            mThread.start();
-
-        } else {
+        FavouriteWriter.setFavourite(getApplicationContext(), mData.getId(), mData.getTitle(), mData.getCategory(), mIsFavourite,
+                mIsFavourite ? getBitmapFromImageView(mIvThumb) : null, this);
+    }
 
-            mThread = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    final ContentValues contentValues = new ContentValues();
-                    contentValues.put(FavouriteItemsContract.FavouriteItemEntry.COLUMN_ID, mData.getId());
-                    contentValues.put(FavouriteItemsContract.FavouriteItemEntry.COLUMN_TITLE, mData.getTitle());
-                    contentValues.put(FavouriteItemsContract.FavouriteItemEntry.COLUMN_CATEGORY, mData.getCategory().ordinal());
-
-                    String imageBase64 = Misc.bitmapToBase64(getBitmapFromImageView(mIvThumb));
-                    contentValues.put(FavouriteItemsContract.FavouriteItemEntry.COLUMN_IMAGE, imageBase64);
-
-                    final Uri uri = getApplicationContext().getContentResolver().insert(FavouriteItemsContract.FavouriteItemEntry.CONTENT_URI, contentValues);
-
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            if (uri != null) {
-                                mIsFavourite = !mIsFavourite;
-
-                                switchFavouriteDrawable();
-                                StatusMessage.show(DetailActivity.this, mData.getTitle() + " " + getString(R.string.added_to_favourite));
-                                FavouritesWidgetProvider.sendRefreshBroadcast(getApplicationContext());
-
-                            } else {
-                                Timber.d("Uri null");
-                            }
-                        }
-                    });
+    @Override
+    public void onFavouriteWritten(boolean favourite, boolean success) {
+        if (success || isFinishing() || isDestroyed())
+            return;
 
-                }
-            });
+        // Roll back the optimistic state
+        Timber.d("Failed to store favourite %s", mData.getId());
+        mIsFavourite = !favourite;
+        switchFavouriteDrawable();
+        StatusMessage.show(DetailActivity.this, getString(R.string.error_saving_favourite));
+    }
 
-            mThread.start();
+    @Override
+    public void onFavouriteIdsChanged() {
+        if (mFavouriteToggled)
+            return;
 
-        }
+        mIsFavourite = isFavouriteItem();
+        // Drawn in onCreateOptionsMenu otherwise
+        if (mMenu != null)
+            switchFavouriteDrawable();
     }
 
     private void switchFavouriteDrawable() {
@@ -440,4 +564,14 @@ public class DetailActivity extends BaseActivity {
         startActivity(Intent.createChooser(sharingIntent, getString(R.string.share)));
     }
 
+    private static class RelatedSection {
+        final TextView tvTitle;
+        final RecyclerView recyclerView;
+
+        RelatedSection(TextView tvTitle, RecyclerView recyclerView) {
+            this.tvTitle = tvTitle;
+            this.recyclerView = recyclerView;
+        }
+    }
+
 }
@@ -17,6 +17,7 @@
 package eu.dkaratzas.starwarspedia.controllers.activities;
 
 import android.app.Dialog;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
@@ -40,18 +41,20 @@ import eu.dkaratzas.starwarspedia.R;
 import eu.dkaratzas.starwarspedia.api.ApolloManager;
 import eu.dkaratzas.starwarspedia.api.StarWarsApiCallback;
 import eu.dkaratzas.starwarspedia.api.SwapiCategory;
+import eu.dkaratzas.starwarspedia.api.SwapiItemCache;
 import eu.dkaratzas.starwarspedia.controllers.fragments.CategoryFragment;
 import eu.dkaratzas.starwarspedia.controllers.fragments.FavouritesFragment;
+import eu.dkaratzas.starwarspedia.controllers.fragments.SearchFragment;
 import eu.dkaratzas.starwarspedia.libs.CustomDrawerButton;
 import eu.dkaratzas.starwarspedia.libs.Misc;
 import eu.dkaratzas.starwarspedia.libs.StatusMessage;
 import eu.dkaratzas.starwarspedia.models.AllQueryData;
 import eu.dkaratzas.starwarspedia.models.SimpleQueryData;
+import eu.dkaratzas.starwarspedia.provider.SwapiStore;
 
-public class MainActivity extends BaseActivity implements NavigationView.OnNavigationItemSelectedListener, CategoryFragment.CategoryFragmentCallbacks, FavouritesFragment.FavouritesFragmentCallbacks {
+public class MainActivity extends BaseActivity implements NavigationView.OnNavigationItemSelectedListener, CategoryFragment.CategoryFragmentCallbacks, FavouritesFragment.FavouritesFragmentCallbacks, SearchFragment.SearchFragmentCallbacks {
 
     public static final String EXTRA_FAVOURITE_DATA = "eu.dkaratzas.starwarspedia.extra.FAVOURITE_DATA";
-    private static final int LOADER_ID = 90;
 
     @BindView(R.id.starView)
     StarView mStarView;
@@ -70,6 +73,9 @@ public class MainActivity extends BaseActivity implements NavigationView.OnNavig
     private int mSelectedItemId;
     private boolean mOnFavouriteCategory;
     private Dialog loadingDialog;
+    // The item being fetched to open it, withdrawn if the user backs out or the activity goes
+    private SimpleQueryData mOpeningItem;
+    private StarWarsApiCallback<AllQueryData> mOpeningCallback;
 
     // region Activity Lifecycle
     @Override
@@ -130,6 +136,7 @@ public class MainActivity extends BaseActivity implements NavigationView.OnNavig
         RefWatcher refWatcher = GlobalApplication.getRefWatcher(this);
         refWatcher.watch(this);
 
+        cancelOpeningItem();
         hideLoadingDialog();
 
         super.onDestroy();
@@ -176,6 +183,9 @@ public class MainActivity extends BaseActivity implements NavigationView.OnNavig
                 case R.id.nav_planets:
                     switchToCategory(SwapiCategory.PLANET);
                     break;
+                case R.id.nav_search:
+                    switchToSearch();
+                    break;
                 case R.id.nav_favourites:
                     switchToFavouritesCategory();
                     break;
@@ -229,6 +239,11 @@ public class MainActivity extends BaseActivity implements NavigationView.OnNavig
         onLoadingData(loading);
     }
 
+    @Override
+    public void onSearchItemClicked(SimpleQueryData queryData) {
+        loadItemDetailsAndLaunchActivity(queryData, queryData.getCategory().getString(getApplicationContext()));
+    }
+
     // endregion
 
     // region Methods
@@ -248,6 +263,22 @@ public class MainActivity extends BaseActivity implements NavigationView.OnNavig
                 .commit();
     }
 
+    private void switchToSearch() {
+        mOnFavouriteCategory = false;
+
+        // if we are on small screen devices and AppBarLayout exists expand it
+        if (mAppBar != null)
+            mAppBar.setExpanded(true, true);
+
+        // Destroy any remaining loader
+        destroyLoaders();
+
+        getSupportFragmentManager().beginTransaction()
+                .setCustomAnimations(R.anim.slide_upward_in, R.anim.slide_down_out, R.anim.slide_upward_in, R.anim.slide_down_out)
+                .replace(R.id.container, SearchFragment.newInstance())
+                .commit();
+    }
+
     private void switchToFavouritesCategory() {
         mOnFavouriteCategory = true;
 
@@ -265,7 +296,8 @@ public class MainActivity extends BaseActivity implements NavigationView.OnNavig
     }
 
     private void destroyLoaders() {
-        getSupportLoaderManager().destroyLoader(CategoryFragment.LOADER_ID);
+        // Only the favourites use a loader. A CategoryFragment cancels its stream when its view goes away, and a
+        // category shown again starts from the CategoryItemsCache
         getSupportLoaderManager().destroyLoader(FavouritesFragment.LOADER_ID);
     }
 
@@ -283,16 +315,29 @@ public class MainActivity extends BaseActivity implements NavigationView.OnNavig
     }
 
     private void loadItemDetailsAndLaunchActivity(final SimpleQueryData queryData, final String categoryTitle) {
-        getSupportLoaderManager().destroyLoader(LOADER_ID);
-        if (Misc.isNetworkAvailable(getApplicationContext())) {
+        boolean cached = queryData != null && (SwapiItemCache.contains(queryData.getCategory(), queryData.getId())
+                || SwapiStore.contains(queryData.getCategory(), queryData.getId()));
+        if (cached || Misc.isNetworkAvailable(getApplicationContext())) {
             if (queryData != null) {
+                cancelOpeningItem();
 
-                showLoadingDialog();
+                // Prefetched items are served right away, no need to block the UI
+                if (!cached)
+                    showLoadingDialog();
 
-                ApolloManager.instance().fetchSwapiItem(this, queryData.getId(), queryData.getCategory(), getSupportLoaderManager(), LOADER_ID, new StarWarsApiCallback<AllQueryData>() {
+                // Just the header, the related sections load as they scroll into view
+                mOpeningItem = queryData;
+                mOpeningCallback = new StarWarsApiCallback<AllQueryData>() {
                     @Override
                     public void onResponse(AllQueryData result) {
-                        getSupportLoaderManager().destroyLoader(LOADER_ID);
+                        // Withdrawn meanwhile, i.e. served from the store after the user backed out
+                        if (mOpeningCallback != this)
+                            return;
+                        mOpeningItem = null;
+                        mOpeningCallback = null;
+                        if (isFinishing() || isDestroyed())
+                            return;
+
                         hideLoadingDialog();
 
                         if (result == null) {
@@ -306,7 +351,8 @@ public class MainActivity extends BaseActivity implements NavigationView.OnNavig
                             startActivity(intent);
                         }
                     }
-                });
+                };
+                ApolloManager.instance().fetchSwapiItemHeader(queryData.getId(), queryData.getCategory(), mOpeningCallback);
 
             }
         } else {
@@ -319,10 +365,26 @@ public class MainActivity extends BaseActivity implements NavigationView.OnNavig
 
         loadingDialog = new Dialog(this, android.R.style.Theme_Translucent_NoTitleBar);
         loadingDialog.setContentView(R.layout.loading_layout);
-        loadingDialog.setCancelable(false);
+        // Backing out withdraws the fetch instead of waiting on the network
+        loadingDialog.setCancelable(true);
+        loadingDialog.setOnCancelListener(new DialogInterface.OnCancelListener() {
+            @Override
+            public void onCancel(DialogInterface dialog) {
+                loadingDialog = null;
+                cancelOpeningItem();
+            }
+        });
         loadingDialog.show();
     }
 
+    private void cancelOpeningItem() {
+        if (mOpeningCallback != null) {
+            ApolloManager.instance().cancelSwapiItemHeader(mOpeningItem.getId(), mOpeningItem.getCategory(), mOpeningCallback);
+            mOpeningItem = null;
+            mOpeningCallback = null;
+        }
+    }
+
     private void hideLoadingDialog() {
         if (loadingDialog != null) {
             loadingDialog.dismiss();
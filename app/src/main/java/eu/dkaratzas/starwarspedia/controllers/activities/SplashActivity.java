@@ -20,12 +20,17 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
 
+import eu.dkaratzas.starwarspedia.api.CategoryPrefetcher;
+
 public class SplashActivity extends AppCompatActivity {
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        // Warm up all the categories while the main screen shows up
+        CategoryPrefetcher.start();
+
         startActivity(new Intent(SplashActivity.this, MainActivity.class));
         finish();
     }
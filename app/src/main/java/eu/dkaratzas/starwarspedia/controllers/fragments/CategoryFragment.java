@@ -18,22 +18,32 @@ package eu.dkaratzas.starwarspedia.controllers.fragments;
 
 import android.animation.Animator;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.v4.app.Fragment;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.PopupMenu;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.StaggeredGridLayoutManager;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.squareup.leakcanary.RefWatcher;
 import com.wang.avi.AVLoadingIndicatorView;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import butterknife.BindView;
 import butterknife.ButterKnife;
 import butterknife.Unbinder;
@@ -41,8 +51,14 @@ import eu.dkaratzas.starwarspedia.GlobalApplication;
 import eu.dkaratzas.starwarspedia.R;
 import eu.dkaratzas.starwarspedia.adapters.CategoryAdapter;
 import eu.dkaratzas.starwarspedia.api.ApolloManager;
-import eu.dkaratzas.starwarspedia.api.StarWarsApiCallback;
+import eu.dkaratzas.starwarspedia.api.CategoryItemsCache;
+import eu.dkaratzas.starwarspedia.api.CategoryPager;
+import eu.dkaratzas.starwarspedia.api.CategoryStream;
+import eu.dkaratzas.starwarspedia.api.CategoryStreamCallback;
+import eu.dkaratzas.starwarspedia.api.FetchPolicy;
 import eu.dkaratzas.starwarspedia.api.SwapiCategory;
+import eu.dkaratzas.starwarspedia.api.SwapiRelation;
+import eu.dkaratzas.starwarspedia.api.ViewportPrefetcher;
 import eu.dkaratzas.starwarspedia.libs.Misc;
 import eu.dkaratzas.starwarspedia.libs.SpacingItemDecoration;
 import eu.dkaratzas.starwarspedia.libs.StatusMessage;
@@ -50,8 +66,13 @@ import eu.dkaratzas.starwarspedia.libs.animations.YoYo;
 import eu.dkaratzas.starwarspedia.libs.animations.techniques.FadeInAnimator;
 import eu.dkaratzas.starwarspedia.libs.animations.techniques.PulseAnimator;
 import eu.dkaratzas.starwarspedia.libs.animations.techniques.SlideInUpAnimator;
+import eu.dkaratzas.starwarspedia.libs.metrics.LoadTrace;
+import eu.dkaratzas.starwarspedia.libs.metrics.LoadTracer;
 import eu.dkaratzas.starwarspedia.models.CategoryItems;
 import eu.dkaratzas.starwarspedia.models.SimpleQueryData;
+import eu.dkaratzas.starwarspedia.provider.SwapiQuery;
+import eu.dkaratzas.starwarspedia.provider.SwapiQueryEngine;
+import eu.dkaratzas.starwarspedia.provider.SwapiStore;
 import timber.log.Timber;
 
 /**
@@ -71,16 +92,37 @@ public class CategoryFragment extends Fragment {
     ImageView mIvRefresh;
     @BindView(R.id.tvTitle)
     TextView mTvTitle;
+    @BindView(R.id.ivFilter)
+    ImageView mIvFilter;
 
-    public static final int LOADER_ID = 89;
     public static final String BUNDLE_DATA_KEY = "categories_data";
     public static final String BUNDLE_RECYCLER_POSITION = "recycler_position";
+    public static final String BUNDLE_QUERY = "category_query";
     private static final String ARG_CATEGORY = "param_category";
+    private static final long MIN_LOADING_DISPLAY_TIME = 600;
+    private static final int MENU_SORT_ID = 1;
+    private static final int MENU_SORT_TITLE = 2;
+    private static final int MENU_SORT_FILM_COUNT = 3;
+    private static final int MENU_SHARES_FILM = 4;
+    private static final int MENU_CLEAR_FILTER = 5;
+    // Plus the ordinal of the SwapiRelation to filter by
+    private static final int MENU_FILTER_BY = 100;
 
     private SwapiCategory mCategory;
     private CategoryFragmentCallbacks mListener;
     private Unbinder mUnbinder;
     private CategoryItems mCategoryItems;
+    private final Handler mHandler = new Handler();
+    private LoadTrace mLoadTrace;
+    private ViewportPrefetcher mViewportPrefetcher;
+    private CategoryAdapter mCategoryAdapter;
+    private CategoryStream mCategoryStream;
+    private CategoryPager mCategoryPager;
+    private List<SimpleQueryData> mPendingItems;
+    // Whether the first page came back short while its rows were still waiting
+    private boolean mPendingEndReached;
+    // The filter and order picked, null while the list is the one of the API
+    private SwapiQuery mQuery;
 
     public CategoryFragment() {
         // Required empty public constructor
@@ -122,23 +164,42 @@ public class CategoryFragment extends Fragment {
 
         if (savedInstanceState != null && savedInstanceState.containsKey(BUNDLE_DATA_KEY)) {
             mCategoryItems = savedInstanceState.getParcelable(BUNDLE_DATA_KEY);
+            mQuery = savedInstanceState.getParcelable(BUNDLE_QUERY);
 
             int position = 0;
             if (savedInstanceState.containsKey(BUNDLE_RECYCLER_POSITION)) {
                 position = savedInstanceState.getInt(BUNDLE_RECYCLER_POSITION);
             }
 
-            mTvTitle.setText(mCategory.getString(getContext()));
+            showTitle();
             setUpRecycler(position);
+        } else if (CategoryItemsCache.contains(mCategory)) {
+            // Already warmed up by the CategoryPrefetcher, render without waiting.
+            // The pages loaded from here on are appended to a copy, the cache keeps the first page only
+            CategoryItems cached = CategoryItemsCache.get(mCategory);
+            mCategoryItems = new CategoryItems(new ArrayList<>(cached.getQueryDataList()), cached.isEndReached());
+
+            showTitle();
+            setUpRecycler(0);
         } else {
             setLoadingStatus(false);
-            loadData();
+            loadData(FetchPolicy.CACHE_FIRST);
         }
 
         mIvRefresh.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                loadData();
+                // the user asked for fresh data, skip the cache
+                loadData(FetchPolicy.NETWORK_ONLY);
+            }
+        });
+
+        // The filters are evaluated over the stored entities
+        mIvFilter.setVisibility(SwapiStore.contains(mCategory) ? View.VISIBLE : View.GONE);
+        mIvFilter.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                showQueryMenu();
             }
         });
 
@@ -151,6 +212,8 @@ public class CategoryFragment extends Fragment {
 
         if (mCategoryItems != null) {
             outState.putParcelable(BUNDLE_DATA_KEY, mCategoryItems);
+            if (mQuery != null)
+                outState.putParcelable(BUNDLE_QUERY, mQuery);
 
             if (mRecyclerView.getLayoutManager() != null && mRecyclerView.getLayoutManager() instanceof StaggeredGridLayoutManager) {
                 int[] positions = ((StaggeredGridLayoutManager) mRecyclerView.getLayoutManager()).findFirstCompletelyVisibleItemPositions(null);
@@ -179,6 +242,24 @@ public class CategoryFragment extends Fragment {
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        mHandler.removeCallbacksAndMessages(null);
+        if (mCategoryStream != null) {
+            mCategoryStream.cancel();
+            mCategoryStream = null;
+        }
+        mPendingItems = null;
+        if (mCategoryPager != null) {
+            mCategoryPager.detach();
+            mCategoryPager = null;
+        }
+        if (mViewportPrefetcher != null) {
+            mViewportPrefetcher.detach();
+            mViewportPrefetcher = null;
+        }
+        if (mLoadTrace != null) {
+            mLoadTrace.cancel();
+            mLoadTrace = null;
+        }
         mUnbinder.unbind();
     }
 
@@ -195,33 +276,101 @@ public class CategoryFragment extends Fragment {
 
     /**
      * Load selected category items if there is an internet connection available
+     *
+     * @param fetchPolicy The {@link FetchPolicy} to resolve the category with
      */
-    private void loadData() {
-        if (Misc.isNetworkAvailable(getActivity().getApplicationContext())) {
+    private void loadData(final FetchPolicy fetchPolicy) {
+        // The stored categories are served offline, unless a refresh was asked
+        boolean stored = fetchPolicy != FetchPolicy.NETWORK_ONLY && SwapiStore.contains(mCategory);
+        if (stored || Misc.isNetworkAvailable(getActivity().getApplicationContext())) {
             setLoadingStatus(true);
 
-            // delay 1.5 second to give some time see the animations because tha API with the power of GraphQL is so fast!!!
-            new Handler().postDelayed(new Runnable() {
+            // The list of the API, unfiltered
+            mQuery = null;
+
+            // Start the request right away, in parallel with the loading animation
+            final long loadingStartedAt = SystemClock.elapsedRealtime();
+            if (mLoadTrace != null) {
+                mLoadTrace.cancel();
+            }
+            mLoadTrace = LoadTracer.begin(mCategory.name());
+
+            if (mCategoryStream != null) {
+                mCategoryStream.cancel();
+            }
+            if (mCategoryPager != null) {
+                mCategoryPager.detach();
+                mCategoryPager = null;
+            }
+            mHandler.removeCallbacksAndMessages(null);
+            // Items that arrive while the loading animation is still on screen wait here
+            mPendingItems = new ArrayList<>();
+            mPendingEndReached = false;
+
+            mCategoryStream = ApolloManager.instance().streamSwapiCategory(mCategory, 0, fetchPolicy, mLoadTrace, new CategoryStreamCallback() {
                 @Override
-                public void run() {
-                    ApolloManager.instance().fetchSwapiCategory(getActivity(), mCategory, getActivity().getSupportLoaderManager(), LOADER_ID, new StarWarsApiCallback<CategoryItems>() {
+                public void onItems(List<SimpleQueryData> items) {
+                    if (!isAdded()) {
+                        return;
+                    }
+
+                    if (mPendingItems == null) {
+                        mCategoryAdapter.addItems(new ArrayList<>(items));
+                        return;
+                    }
+
+                    boolean firstChunk = mPendingItems.isEmpty();
+                    mPendingItems.addAll(items);
+                    if (!firstChunk) {
+                        return;
+                    }
+
+                    if (mLoadTrace != null) {
+                        mLoadTrace.mark(LoadTrace.Stage.PARSE_DONE);
+                    }
+
+                    // Keep the loading animation on screen for a minimum time only when the first rows arrived faster than that
+                    long remainingLoadingTime = MIN_LOADING_DISPLAY_TIME - (SystemClock.elapsedRealtime() - loadingStartedAt);
+                    mHandler.postDelayed(new Runnable() {
                         @Override
-                        public void onResponse(CategoryItems result) {
-                            if (result == null) {
-                                StatusMessage.show(getActivity(), getString(R.string.error_getting_data));
-                            } else {
-                                mTvTitle.setText(mCategory.getString(getContext()));
-                            }
-
-                            mCategoryItems = result;
-                            getActivity().getSupportLoaderManager().destroyLoader(LOADER_ID);
-                            setUpRecycler(0);
-                            setLoadingStatus(false);
+                        public void run() {
+                            onCategoryLoaded(new CategoryItems(mPendingItems, mPendingEndReached));
+                            mPendingItems = null;
                         }
+                    }, Math.max(0, remainingLoadingTime));
+                }
 
-                    });
+                @Override
+                public void onComplete(CategoryItems result) {
+                    mCategoryStream = null;
+
+                    if (!isAdded()) {
+                        return;
+                    }
+
+                    if (result == null && (mPendingItems == null || !mPendingItems.isEmpty())) {
+                        // Failed after some rows, those stay on screen and the pager continues from the last one
+                        StatusMessage.show(getActivity(), getString(R.string.error_getting_data));
+                    }
+
+                    boolean endReached = result != null && result.isEndReached();
+                    if (mPendingItems == null) {
+                        // The first page is on screen, the rest is loaded while scrolling
+                        mCategoryItems.setEndReached(endReached);
+                        setUpPager();
+                        return;
+                    }
+
+                    if (!mPendingItems.isEmpty()) {
+                        mPendingEndReached = endReached;
+                        return;
+                    }
+
+                    // No rows arrived, the list is empty or the request failed
+                    mPendingItems = null;
+                    onCategoryLoaded(result);
                 }
-            }, 1500);
+            });
 
         } else {
             StatusMessage.show(getActivity(), getResources().getString(R.string.no_internet));
@@ -229,6 +378,23 @@ public class CategoryFragment extends Fragment {
 
     }
 
+    private void onCategoryLoaded(CategoryItems result) {
+        if (result == null) {
+            StatusMessage.show(getActivity(), getString(R.string.error_getting_data));
+
+            if (mLoadTrace != null) {
+                mLoadTrace.cancel();
+                mLoadTrace = null;
+            }
+        } else {
+            showTitle();
+        }
+
+        mCategoryItems = result;
+        setUpRecycler(0);
+        setLoadingStatus(false);
+    }
+
     private void setLoadingStatus(boolean loadingStatus) {
         // notify activity about the loadingStatus
         mListener.onCategoryDataLoading(loadingStatus);
@@ -263,7 +429,7 @@ public class CategoryFragment extends Fragment {
 
         if (mCategoryItems != null) {
 
-            CategoryAdapter categoryAdapter = new CategoryAdapter(getContext(), mCategoryItems, new CategoryAdapter.OnItemClickListener() {
+            mCategoryAdapter = new CategoryAdapter(getContext(), mCategoryItems, new CategoryAdapter.OnItemClickListener() {
                 @Override
                 public void onItemClick(SimpleQueryData queryData) {
                     mListener.onCategoryItemClicked(queryData);
@@ -279,17 +445,201 @@ public class CategoryFragment extends Fragment {
             mRecyclerView.setHasFixedSize(true);
             mRecyclerView.setLayoutManager(layoutManager);
             mRecyclerView.addItemDecoration(itemDecoration);
-            mRecyclerView.setAdapter(categoryAdapter);
+            mRecyclerView.setAdapter(mCategoryAdapter);
 
             if (scrollToPosition != 0)
                 layoutManager.scrollToPosition(scrollToPosition);
 
+            setUpViewportPrefetcher();
+
+            // Page in the rest once the first page is complete, the results of a query are complete already
+            if (mCategoryStream == null && mQuery == null)
+                setUpPager();
+
+            if (mLoadTrace != null) {
+                finishTraceOnFirstFrame(mRecyclerView, mLoadTrace);
+                mLoadTrace = null;
+            }
+
             YoYo.with(new SlideInUpAnimator())
                     .duration(400)
                     .playOn(mRecyclerView);
         }
     }
 
+    private void setUpViewportPrefetcher() {
+        // Warm up the details of the items the user is about to tap
+        if (mViewportPrefetcher != null)
+            mViewportPrefetcher.detach();
+        mViewportPrefetcher = new ViewportPrefetcher(mCategoryItems.getQueryDataList());
+        mViewportPrefetcher.attach(mRecyclerView);
+    }
+
+    private void setUpPager() {
+        if (mCategoryPager != null)
+            mCategoryPager.detach();
+        mCategoryPager = new CategoryPager(mCategory, mCategoryItems, new CategoryPager.Listener() {
+            @Override
+            public void onItems(List<SimpleQueryData> items) {
+                mCategoryAdapter.addItems(items);
+            }
+
+            @Override
+            public void onPageLoading(boolean loading) {
+                mListener.onCategoryDataLoading(loading);
+            }
+
+            @Override
+            public void onPageFailed() {
+                if (isAdded())
+                    StatusMessage.show(getActivity(), getString(R.string.error_getting_data));
+            }
+        });
+        mCategoryPager.attach(mRecyclerView);
+    }
+
+    private void showTitle() {
+        String description = mQuery == null ? null : mQuery.getDescription(getContext());
+        mTvTitle.setText(description == null ? mCategory.getString(getContext()) : mCategory.getString(getContext()) + "\n" + description);
+    }
+
+    private void showQueryMenu() {
+        // Nothing to filter before the list is on screen
+        if (mCategoryAdapter == null || mPendingItems != null)
+            return;
+
+        PopupMenu popupMenu = new PopupMenu(getContext(), mIvFilter);
+        Menu menu = popupMenu.getMenu();
+        menu.add(Menu.NONE, MENU_SORT_ID, Menu.NONE, R.string.sort_default);
+        menu.add(Menu.NONE, MENU_SORT_TITLE, Menu.NONE, R.string.sort_title);
+        if (mCategory != SwapiCategory.FILM)
+            menu.add(Menu.NONE, MENU_SORT_FILM_COUNT, Menu.NONE, R.string.sort_film_count);
+
+        for (SwapiRelation relation : SwapiRelation.of(mCategory)) {
+            if (SwapiStore.contains(relation.getTarget()))
+                menu.add(Menu.NONE, MENU_FILTER_BY + relation.ordinal(), Menu.NONE, String.format(getString(R.string.filter_by), relation.getLabel(getContext())));
+        }
+        if (mCategory != SwapiCategory.FILM && SwapiStore.contains(SwapiCategory.FILM) && SwapiStore.contains(SwapiCategory.PEOPLE))
+            menu.add(Menu.NONE, MENU_SHARES_FILM, Menu.NONE, R.string.filter_shares_film);
+        if (mQuery != null && mQuery.isFiltered())
+            menu.add(Menu.NONE, MENU_CLEAR_FILTER, Menu.NONE, R.string.filter_clear);
+
+        popupMenu.setOnMenuItemClickListener(new PopupMenu.OnMenuItemClickListener() {
+            @Override
+            public boolean onMenuItemClick(MenuItem item) {
+                onQueryMenuItemClicked(item.getItemId());
+                return true;
+            }
+        });
+        popupMenu.show();
+    }
+
+    private void onQueryMenuItemClicked(int itemId) {
+        SwapiQuery query = mQuery != null ? mQuery : new SwapiQuery(mCategory, null, null, SwapiQuery.Sort.ID);
+
+        switch (itemId) {
+            case MENU_SORT_ID:
+                runQuery(query.sortedBy(SwapiQuery.Sort.ID));
+                break;
+            case MENU_SORT_TITLE:
+                runQuery(query.sortedBy(SwapiQuery.Sort.TITLE));
+                break;
+            case MENU_SORT_FILM_COUNT:
+                runQuery(query.sortedBy(SwapiQuery.Sort.FILM_COUNT));
+                break;
+            case MENU_SHARES_FILM:
+                // Joined through the films of the character
+                pickRelatedItem(SwapiRelation.FILMS, SwapiCategory.PEOPLE, getString(R.string.filter_shares_film), query.getSort());
+                break;
+            case MENU_CLEAR_FILTER:
+                runQuery(new SwapiQuery(mCategory, null, null, query.getSort()));
+                break;
+            default:
+                SwapiRelation relation = SwapiRelation.values()[itemId - MENU_FILTER_BY];
+                pickRelatedItem(relation, relation.getTarget(), relation.getLabel(getContext()), query.getSort());
+                break;
+        }
+    }
+
+    /**
+     * Let the user pick the item to filter by, out of the stored items of its category
+     */
+    private void pickRelatedItem(final SwapiRelation relation, SwapiCategory category, final String title, final SwapiQuery.Sort sort) {
+        SwapiQueryEngine.run(new SwapiQuery(category, null, null, SwapiQuery.Sort.TITLE), new SwapiQueryEngine.Callback() {
+            @Override
+            public void onResults(SwapiQuery query, final List<SimpleQueryData> items) {
+                if (!isAdded() || getView() == null || items.isEmpty())
+                    return;
+
+                String[] titles = new String[items.size()];
+                for (int i = 0; i < items.size(); i++) {
+                    titles[i] = items.get(i).getTitle();
+                }
+
+                new AlertDialog.Builder(getContext())
+                        .setTitle(title)
+                        .setItems(titles, new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                runQuery(new SwapiQuery(mCategory, relation, items.get(which), sort));
+                            }
+                        })
+                        .show();
+            }
+        });
+    }
+
+    private void runQuery(SwapiQuery query) {
+        mQuery = query;
+
+        SwapiQueryEngine.run(query, new SwapiQueryEngine.Callback() {
+            @Override
+            public void onResults(SwapiQuery query, List<SimpleQueryData> results) {
+                // Superseded by a newer query or the view is gone
+                if (!isAdded() || getView() == null || !query.equals(mQuery))
+                    return;
+
+                onQueryResults(results);
+            }
+        });
+    }
+
+    private void onQueryResults(List<SimpleQueryData> results) {
+        // The results are complete, stop streaming and paging the list of the API
+        if (mCategoryStream != null) {
+            mCategoryStream.cancel();
+            mCategoryStream = null;
+        }
+        if (mCategoryPager != null) {
+            mCategoryPager.detach();
+            mCategoryPager = null;
+        }
+
+        mCategoryAdapter.setItems(results);
+        mRecyclerView.scrollToPosition(0);
+        setUpViewportPrefetcher();
+        showTitle();
+
+        if (results.isEmpty())
+            StatusMessage.show(getActivity(), getString(R.string.no_query_results));
+        else
+            StatusMessage.hide();
+    }
+
+    /**
+     * Report the trace once the recycler is about to draw its first frame with the loaded items
+     */
+    private void finishTraceOnFirstFrame(final RecyclerView recyclerView, final LoadTrace trace) {
+        recyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                recyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                trace.finish();
+                return true;
+            }
+        });
+    }
+
     /**
      * This interface must be implemented by activities that contain this
      * fragment to allow an interaction in this fragment to be communicated
@@ -48,6 +48,7 @@ import butterknife.Unbinder;
 import eu.dkaratzas.starwarspedia.GlobalApplication;
 import eu.dkaratzas.starwarspedia.R;
 import eu.dkaratzas.starwarspedia.adapters.CategoryAdapter;
+import eu.dkaratzas.starwarspedia.adapters.FavouritesAdapter;
 import eu.dkaratzas.starwarspedia.api.SwapiCategory;
 import eu.dkaratzas.starwarspedia.libs.Misc;
 import eu.dkaratzas.starwarspedia.libs.SpacingItemDecoration;
@@ -80,10 +81,21 @@ public class FavouritesFragment extends Fragment implements LoaderManager.Loader
     public static final int LOADER_ID = 89;
     public static final String BUNDLE_DATA_KEY = "favourites_data";
     public static final String BUNDLE_RECYCLER_POSITION = "recycler_position";
+    public static final String BUNDLE_HAS_MORE_PAGES = "has_more_pages";
+    private static final String ARG_OFFSET = "offset";
+    private static final int PAGE_SIZE = 30;
+    private static final String[] PROJECTION = {
+            FavouriteItemsContract.FavouriteItemEntry.COLUMN_ID,
+            FavouriteItemsContract.FavouriteItemEntry.COLUMN_TITLE,
+            FavouriteItemsContract.FavouriteItemEntry.COLUMN_CATEGORY
+    };
 
     private FavouritesFragmentCallbacks mListener;
     private Unbinder mUnbinder;
     private CategoryItems mFavouriteItems;
+    private FavouritesAdapter mFavouritesAdapter;
+    private boolean mHasMorePages = true;
+    private boolean mLoadingPage;
 
     public FavouritesFragment() {
         // Required empty public constructor
@@ -120,20 +132,23 @@ public class FavouritesFragment extends Fragment implements LoaderManager.Loader
             if (savedInstanceState.containsKey(BUNDLE_RECYCLER_POSITION)) {
                 position = savedInstanceState.getInt(BUNDLE_RECYCLER_POSITION);
             }
+            mHasMorePages = savedInstanceState.getBoolean(BUNDLE_HAS_MORE_PAGES, true);
 
             mTvTitle.setText(getString(R.string.favourites));
             setUpRecycler(position);
         } else {
             setLoadingStatus(false);
 
-            getActivity().getSupportLoaderManager().initLoader(LOADER_ID, null, this);
+            loadPage(0);
         }
 
         mIvRefresh.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
                 setLoadingStatus(false);
-                getActivity().getSupportLoaderManager().restartLoader(LOADER_ID, null, FavouritesFragment.this);
+                mFavouriteItems = null;
+                mHasMorePages = true;
+                loadPage(0);
             }
         });
 
@@ -147,6 +162,7 @@ public class FavouritesFragment extends Fragment implements LoaderManager.Loader
 
         if (mFavouriteItems != null) {
             outState.putParcelable(BUNDLE_DATA_KEY, mFavouriteItems);
+            outState.putBoolean(BUNDLE_HAS_MORE_PAGES, mHasMorePages);
 
             if (mRecyclerView.getLayoutManager() != null && mRecyclerView.getLayoutManager() instanceof StaggeredGridLayoutManager) {
                 int[] positions = ((StaggeredGridLayoutManager) mRecyclerView.getLayoutManager()).findFirstCompletelyVisibleItemPositions(null);
@@ -202,11 +218,24 @@ public class FavouritesFragment extends Fragment implements LoaderManager.Loader
         }
     }
 
+    /**
+     * Load a page of favourites, the first one resets the list
+     *
+     * @param offset The number of favourites already loaded
+     */
+    private void loadPage(int offset) {
+        mLoadingPage = true;
+
+        Bundle args = new Bundle();
+        args.putInt(ARG_OFFSET, offset);
+        getActivity().getSupportLoaderManager().restartLoader(LOADER_ID, args, this);
+    }
+
     private void setUpRecycler(int scrollToPosition) {
 
         if (mFavouriteItems != null) {
 
-            CategoryAdapter categoryAdapter = new CategoryAdapter(getContext(), mFavouriteItems, new CategoryAdapter.OnItemClickListener() {
+            mFavouritesAdapter = new FavouritesAdapter(getContext(), mFavouriteItems, new CategoryAdapter.OnItemClickListener() {
                 @Override
                 public void onItemClick(SimpleQueryData queryData) {
                     mListener.onFavouriteItemClicked(queryData);
@@ -222,7 +251,14 @@ public class FavouritesFragment extends Fragment implements LoaderManager.Loader
             mRecyclerView.setHasFixedSize(true);
             mRecyclerView.setLayoutManager(layoutManager);
             mRecyclerView.addItemDecoration(itemDecoration);
-            mRecyclerView.setAdapter(categoryAdapter);
+            mRecyclerView.setAdapter(mFavouritesAdapter);
+            mRecyclerView.clearOnScrollListeners();
+            mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+                @Override
+                public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                    loadNextPageIfNeeded((StaggeredGridLayoutManager) recyclerView.getLayoutManager());
+                }
+            });
 
             if (scrollToPosition != 0)
                 layoutManager.scrollToPosition(scrollToPosition);
@@ -233,10 +269,26 @@ public class FavouritesFragment extends Fragment implements LoaderManager.Loader
         }
     }
 
+    private void loadNextPageIfNeeded(StaggeredGridLayoutManager layoutManager) {
+        if (mLoadingPage || !mHasMorePages || mFavouriteItems == null)
+            return;
+
+        int lastVisible = 0;
+        for (int position : layoutManager.findLastVisibleItemPositions(null)) {
+            lastVisible = Math.max(lastVisible, position);
+        }
+
+        // Ask for the next page half a page before reaching the end
+        if (lastVisible >= mFavouriteItems.getQueryDataList().size() - PAGE_SIZE / 2)
+            loadPage(mFavouriteItems.getQueryDataList().size());
+    }
+
     @SuppressLint("StaticFieldLeak")
     @NonNull
     @Override
     public Loader<Cursor> onCreateLoader(int id, @Nullable Bundle args) {
+        final int offset = args == null ? 0 : args.getInt(ARG_OFFSET);
+
         return new AsyncTaskLoader<Cursor>(getActivity()) {
 
             // Initialize a Cursor, this will hold all the task data
@@ -263,8 +315,8 @@ public class FavouritesFragment extends Fragment implements LoaderManager.Loader
                 // [Hint] use a try/catch block to catch any errors in loading data
 
                 try {
-                    return getActivity().getContentResolver().query(FavouriteItemsContract.FavouriteItemEntry.CONTENT_URI,
-                            null,
+                    return getActivity().getContentResolver().query(FavouriteItemsContract.FavouriteItemEntry.buildPageUri(offset, PAGE_SIZE),
+                            PROJECTION,
                             null,
                             null,
                             FavouriteItemsContract.FavouriteItemEntry._ID);
@@ -287,9 +339,18 @@ public class FavouritesFragment extends Fragment implements LoaderManager.Loader
 
     @Override
     public void onLoadFinished(@NonNull Loader<Cursor> loader, Cursor data) {
-        if (data != null && data.getCount() > 0) {
+        boolean firstPage = mFavouriteItems == null;
+        List<SimpleQueryData> page = data == null ? new ArrayList<SimpleQueryData>() : mapPage(data);
+        mHasMorePages = page.size() == PAGE_SIZE;
+        mLoadingPage = false;
+
+        if (!firstPage) {
+            mFavouritesAdapter.addItems(page);
+        } else if (!page.isEmpty()) {
+            // Render as soon as the first page is here, the rest are loaded while scrolling
             mTvTitle.setText(getString(R.string.favourites));
-            mapDataAndSetRecycler(data);
+            mFavouriteItems = new CategoryItems(page);
+            setUpRecycler(0);
         } else {
             StatusMessage.show(getActivity(), getString(R.string.no_favourites_message), false);
         }
@@ -302,27 +363,24 @@ public class FavouritesFragment extends Fragment implements LoaderManager.Loader
 
     }
 
-    private void mapDataAndSetRecycler(Cursor cursor) {
-        List<SimpleQueryData> queryDataList = new ArrayList<>();
+    private List<SimpleQueryData> mapPage(Cursor cursor) {
+        List<SimpleQueryData> queryDataList = new ArrayList<>(cursor.getCount());
 
-        for (int i = 0; i < cursor.getCount(); i++) {
-            int swapiIdIndex = cursor.getColumnIndex(FavouriteItemsContract.FavouriteItemEntry.COLUMN_ID);
-            int titleIndex = cursor.getColumnIndex(FavouriteItemsContract.FavouriteItemEntry.COLUMN_TITLE);
-            int swapiCategoryIndex = cursor.getColumnIndex(FavouriteItemsContract.FavouriteItemEntry.COLUMN_CATEGORY);
-            int base64ImageIndex = cursor.getColumnIndex(FavouriteItemsContract.FavouriteItemEntry.COLUMN_IMAGE);
+        int swapiIdIndex = cursor.getColumnIndex(FavouriteItemsContract.FavouriteItemEntry.COLUMN_ID);
+        int titleIndex = cursor.getColumnIndex(FavouriteItemsContract.FavouriteItemEntry.COLUMN_TITLE);
+        int swapiCategoryIndex = cursor.getColumnIndex(FavouriteItemsContract.FavouriteItemEntry.COLUMN_CATEGORY);
 
-            cursor.moveToPosition(i);
+        while (cursor.moveToNext()) {
             queryDataList.add(
                     new SimpleQueryData(
                             cursor.getString(swapiIdIndex),
                             cursor.getString(titleIndex),
-                            SwapiCategory.values()[cursor.getInt(swapiCategoryIndex)],
-                            Misc.base64ToBitmap(cursor.getString(base64ImageIndex))
+                            SwapiCategory.values()[cursor.getInt(swapiCategoryIndex)]
                     ));
         }
-        mFavouriteItems = new CategoryItems(queryDataList);
+        cursor.close();
 
-        setUpRecycler(0);
+        return queryDataList;
     }
 
     /**
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.controllers.fragments;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.v4.app.Fragment;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.StaggeredGridLayoutManager;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.EditText;
+import android.widget.TextView;
+
+import com.squareup.leakcanary.RefWatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import butterknife.BindView;
+import butterknife.ButterKnife;
+import butterknife.Unbinder;
+import eu.dkaratzas.starwarspedia.GlobalApplication;
+import eu.dkaratzas.starwarspedia.R;
+import eu.dkaratzas.starwarspedia.adapters.CategoryAdapter;
+import eu.dkaratzas.starwarspedia.libs.Misc;
+import eu.dkaratzas.starwarspedia.libs.SpacingItemDecoration;
+import eu.dkaratzas.starwarspedia.models.CategoryItems;
+import eu.dkaratzas.starwarspedia.models.SimpleQueryData;
+import eu.dkaratzas.starwarspedia.provider.SwapiSearch;
+import timber.log.Timber;
+
+/**
+ * Searches every stored SWAPI entity while typing, the results of all categories in one list.
+ * Activities that contain this fragment must implement the
+ * {@link SearchFragmentCallbacks} interface
+ * to handle interaction events.
+ * Use the {@link SearchFragment#newInstance} factory method to
+ * create an instance of this fragment.
+ */
+public class SearchFragment extends Fragment {
+    @BindView(R.id.etSearch)
+    EditText mEtSearch;
+    @BindView(R.id.rvSearch)
+    RecyclerView mRecyclerView;
+    @BindView(R.id.tvNoResults)
+    TextView mTvNoResults;
+
+    public static final String BUNDLE_RESULTS_KEY = "search_results";
+
+    private SearchFragmentCallbacks mListener;
+    private Unbinder mUnbinder;
+    private CategoryItems mResults;
+    private CategoryAdapter mResultsAdapter;
+    private final SwapiSearch mSearch = new SwapiSearch();
+
+    public SearchFragment() {
+        // Required empty public constructor
+    }
+
+    /**
+     * Use this factory method to create a new instance of
+     * this fragment using the provided parameters.
+     *
+     * @return A new instance of fragment SearchFragment.
+     */
+    public static SearchFragment newInstance() {
+        return new SearchFragment();
+    }
+
+    // region Fragment Lifecycle
+    @Override
+    public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container,
+                             Bundle savedInstanceState) {
+        // Inflate the layout for this fragment
+        View view = inflater.inflate(R.layout.fragment_search, container, false);
+        mUnbinder = ButterKnife.bind(this, view);
+
+        if (savedInstanceState != null && savedInstanceState.containsKey(BUNDLE_RESULTS_KEY)) {
+            mResults = savedInstanceState.getParcelable(BUNDLE_RESULTS_KEY);
+        } else {
+            mResults = new CategoryItems(new ArrayList<SimpleQueryData>());
+        }
+        setUpRecycler();
+
+        mEtSearch.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                search(s.toString());
+            }
+        });
+
+        return view;
+    }
+
+    @Override
+    public void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+
+        if (mResults != null)
+            outState.putParcelable(BUNDLE_RESULTS_KEY, mResults);
+    }
+
+    @Override
+    public void onAttach(Context context) {
+        super.onAttach(context);
+
+        if (context instanceof SearchFragmentCallbacks) {
+            mListener = (SearchFragmentCallbacks) context;
+        } else {
+            throw new RuntimeException(context.toString() + " must implement SearchFragmentCallbacks");
+        }
+    }
+
+    @Override
+    public void onDetach() {
+        super.onDetach();
+        mListener = null;
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        mSearch.cancel();
+        mUnbinder.unbind();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+
+        Timber.d("onDestroy");
+        RefWatcher refWatcher = GlobalApplication.getRefWatcher(getActivity());
+        refWatcher.watch(this);
+    }
+
+    // endregion
+
+    private void search(String query) {
+        if (query.trim().isEmpty()) {
+            mSearch.cancel();
+            showResults(new ArrayList<SimpleQueryData>(), false);
+            return;
+        }
+
+        mSearch.search(query, new SwapiSearch.Callback() {
+            @Override
+            public void onResults(String query, List<SimpleQueryData> results) {
+                if (isAdded())
+                    showResults(results, results.isEmpty());
+            }
+        });
+    }
+
+    private void showResults(List<SimpleQueryData> results, boolean showNoResults) {
+        mResultsAdapter.setItems(results);
+        mRecyclerView.scrollToPosition(0);
+        mTvNoResults.setVisibility(showNoResults ? View.VISIBLE : View.GONE);
+    }
+
+    private void setUpRecycler() {
+        mResultsAdapter = new CategoryAdapter(getContext(), mResults, new CategoryAdapter.OnItemClickListener() {
+            @Override
+            public void onItemClick(SimpleQueryData queryData) {
+                mListener.onSearchItemClicked(queryData);
+            }
+        });
+
+        StaggeredGridLayoutManager layoutManager = new StaggeredGridLayoutManager(
+                Misc.getHandySpanCount(getContext(), getContext().getResources().getDimensionPixelSize(R.dimen.category_item_preferred_width), getContext().getResources().getDimensionPixelSize(R.dimen.category_recycler_item_offset)),
+                LinearLayoutManager.VERTICAL);
+
+        SpacingItemDecoration itemDecoration = new SpacingItemDecoration(getContext().getResources().getDimensionPixelSize(R.dimen.category_recycler_item_offset));
+
+        mRecyclerView.setHasFixedSize(true);
+        mRecyclerView.setLayoutManager(layoutManager);
+        mRecyclerView.addItemDecoration(itemDecoration);
+        mRecyclerView.setAdapter(mResultsAdapter);
+    }
+
+    /**
+     * This interface must be implemented by activities that contain this
+     * fragment to allow an interaction in this fragment to be communicated
+     * to the activity and potentially other fragments contained in that
+     * activity.
+     * <p>
+     * See the Android Training lesson <a href=
+     * "http://developer.android.com/training/basics/fragments/communicating.html"
+     * >Communicating with Other Fragments</a> for more information.
+     */
+    public interface SearchFragmentCallbacks {
+        void onSearchItemClicked(SimpleQueryData queryData);
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.libs;
+
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Parser and formatters of the ISO-8601 <code>DateTime</code> scalar of the API, i.e. <code>1977-05-25T00:00:00.000Z</code>.
+ * Parsing walks the characters without creating any format object, and the display formatters are
+ * cached per thread and locale, so both are safe to call from any thread.
+ */
+public class IsoDateTime {
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+    private static final long MILLIS_PER_DAY = 24 * 60 * MILLIS_PER_MINUTE;
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private static final ThreadLocal<CachedFormat> sLongDateFormat = new ThreadLocal<>();
+
+    /**
+     * @return The epoch millis of an ISO-8601 date time, a missing offset means UTC
+     * @throws IllegalArgumentException if the value is not an ISO-8601 date time
+     */
+    public static long parseMillis(CharSequence value) {
+        int length = value.length();
+        if (length < 10 || value.charAt(4) != '-' || value.charAt(7) != '-')
+            throw invalid(value);
+
+        int year = digits(value, 0, 4);
+        int month = digits(value, 5, 2);
+        int day = digits(value, 8, 2);
+        int hour = 0, minute = 0, second = 0, millis = 0;
+        long offsetMillis = 0;
+
+        int position = 10;
+        if (position < length && (value.charAt(position) == 'T' || value.charAt(position) == ' ')) {
+            if (length < position + 9 || value.charAt(position + 3) != ':' || value.charAt(position + 6) != ':')
+                throw invalid(value);
+
+            hour = digits(value, position + 1, 2);
+            minute = digits(value, position + 4, 2);
+            second = digits(value, position + 7, 2);
+            position += 9;
+
+            if (position < length && value.charAt(position) == '.') {
+                // Keep the first 3 digits of the fraction, ignore the rest
+                int start = ++position;
+                while (position < length && isDigit(value.charAt(position))) {
+                    if (position - start < 3)
+                        millis = millis * 10 + (value.charAt(position) - '0');
+                    position++;
+                }
+                if (position == start)
+                    throw invalid(value);
+                for (int i = position - start; i < 3; i++) {
+                    millis *= 10;
+                }
+            }
+
+            if (position < length) {
+                char zone = value.charAt(position);
+                if (zone == 'Z' && position + 1 == length) {
+                    position++;
+                } else if ((zone == '+' || zone == '-') && position + 6 == length && value.charAt(position + 3) == ':') {
+                    long offset = digits(value, position + 1, 2) * 60L + digits(value, position + 4, 2);
+                    offsetMillis = (zone == '+' ? offset : -offset) * MILLIS_PER_MINUTE;
+                    position += 6;
+                }
+            }
+        }
+
+        if (position != length || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) || hour > 23 || minute > 59 || second > 59)
+            throw invalid(value);
+
+        return daysFromCivil(year, month, day) * MILLIS_PER_DAY
+                + ((hour * 60L + minute) * 60L + second) * 1000L + millis
+                - offsetMillis;
+    }
+
+    public static Date parse(CharSequence value) {
+        return new Date(parseMillis(value));
+    }
+
+    /**
+     * @return The date time as the API expects it, <code>yyyy-MM-ddTHH:mm:ss.SSSZ</code> in UTC
+     */
+    public static String format(long epochMillis) {
+        long days = floorDiv(epochMillis, MILLIS_PER_DAY);
+        long millisOfDay = epochMillis - days * MILLIS_PER_DAY;
+
+        // Inverse of daysFromCivil
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long monthPart = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * monthPart + 2) / 5 + 1);
+        int month = (int) (monthPart < 10 ? monthPart + 3 : monthPart - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+
+        StringBuilder builder = new StringBuilder(24);
+        pad(builder, year, 4).append('-');
+        pad(builder, month, 2).append('-');
+        pad(builder, day, 2).append('T');
+        pad(builder, (int) (millisOfDay / 3600000), 2).append(':');
+        pad(builder, (int) (millisOfDay / 60000 % 60), 2).append(':');
+        pad(builder, (int) (millisOfDay / 1000 % 60), 2).append('.');
+        pad(builder, (int) (millisOfDay % 1000), 3).append('Z');
+        return builder.toString();
+    }
+
+    /**
+     * Format the date part with the {@link DateFormat#LONG} style of the default locale.
+     * The date is taken in UTC, the API dates are calendar dates at midnight UTC.
+     */
+    public static String formatLongDate(Date date) {
+        Locale locale = Locale.getDefault();
+        CachedFormat cachedFormat = sLongDateFormat.get();
+        if (cachedFormat == null || !cachedFormat.locale.equals(locale)) {
+            DateFormat dateFormat = DateFormat.getDateInstance(DateFormat.LONG, locale);
+            dateFormat.setTimeZone(UTC);
+            cachedFormat = new CachedFormat(locale, dateFormat);
+            sLongDateFormat.set(cachedFormat);
+        }
+        return cachedFormat.format.format(date);
+    }
+
+    /**
+     * Days since 1970-01-01 of a proleptic Gregorian date, see http://howardhinnant.github.io/date_algorithms.html
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static int digits(CharSequence value, int start, int count) {
+        int result = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = value.charAt(i);
+            if (!isDigit(c))
+                throw invalid(value);
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static long floorDiv(long x, long y) {
+        long result = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0))
+            result--;
+        return result;
+    }
+
+    private static StringBuilder pad(StringBuilder builder, int value, int width) {
+        for (int limit = 1, i = 1; i < width; i++) {
+            limit *= 10;
+            if (value < limit)
+                builder.append('0');
+        }
+        return builder.append(value);
+    }
+
+    private static IllegalArgumentException invalid(CharSequence value) {
+        return new IllegalArgumentException("Not an ISO-8601 date time: " + value);
+    }
+
+    private static class CachedFormat {
+        final Locale locale;
+        final DateFormat format;
+
+        CachedFormat(Locale locale, DateFormat format) {
+            this.locale = locale;
+            this.format = format;
+        }
+    }
+}
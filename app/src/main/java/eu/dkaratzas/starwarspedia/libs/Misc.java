@@ -19,20 +19,15 @@ package eu.dkaratzas.starwarspedia.libs;
 import android.app.Activity;
 import android.content.Context;
 import android.content.res.Resources;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.net.ConnectivityManager;
 import android.os.Build;
 import android.support.annotation.Nullable;
 import android.support.v4.widget.DrawerLayout;
-import android.util.Base64;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.WindowManager;
 
-import java.io.ByteArrayOutputStream;
-
 public class Misc {
 
     public static void setTransparentForDrawerLayout(Activity activity, DrawerLayout drawerLayout, @Nullable View viewToAddTopMargin) {
@@ -93,21 +88,6 @@ public class Misc {
         return (int) (px / Resources.getSystem().getDisplayMetrics().density);
     }
 
-    public static String bitmapToBase64(Bitmap bitmap) {
-        if (bitmap != null) {
-            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-            bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteArrayOutputStream);
-            byte[] byteArray = byteArrayOutputStream.toByteArray();
-            return Base64.encodeToString(byteArray, Base64.DEFAULT);
-        } else
-            return "";
-    }
-
-    public static Bitmap base64ToBitmap(String b64) {
-        byte[] imageAsBytes = Base64.decode(b64.getBytes(), Base64.DEFAULT);
-        return BitmapFactory.decodeByteArray(imageAsBytes, 0, imageAsBytes.length);
-    }
-
     /**
      * Returns a handy span count starting from 2 based on a preferred item width
      *
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.libs.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Latency distribution of one operation over exponentially sized buckets, from {@link #MIN_BUCKET_MILLIS} ms
+ * growing by {@link #BUCKET_GROWTH} each. Counts are halved once {@link #MAX_SAMPLES} are recorded,
+ * so the percentiles follow the current network conditions.
+ * <p>
+ * A request given up before it answered is a censored sample, its latency is only known to exceed the time it ran.
+ * Percentiles are read from the Kaplan-Meier estimate, so slow requests that got cancelled still push them up.
+ */
+public class LatencyHistogram {
+    private static final long MIN_BUCKET_MILLIS = 10;
+    private static final double BUCKET_GROWTH = 1.4;
+    private static final int BUCKETS = 25;
+    private static final int MAX_SAMPLES = 500;
+
+    private static final long[] sBucketBounds = new long[BUCKETS];
+    private static final Map<String, LatencyHistogram> sHistograms = new LinkedHashMap<>();
+
+    static {
+        double bound = MIN_BUCKET_MILLIS;
+        for (int i = 0; i < BUCKETS; i++) {
+            sBucketBounds[i] = Math.round(bound);
+            bound *= BUCKET_GROWTH;
+        }
+    }
+
+    private final String mOperation;
+    private final int[] mCounts = new int[BUCKETS + 1];
+    private final int[] mCensored = new int[BUCKETS + 1];
+    private int mSamples;
+
+    private LatencyHistogram(String operation) {
+        mOperation = operation;
+    }
+
+    /**
+     * @return The histogram of the operation, created on first use
+     */
+    public static LatencyHistogram forOperation(String operation) {
+        synchronized (sHistograms) {
+            LatencyHistogram histogram = sHistograms.get(operation);
+            if (histogram == null) {
+                histogram = new LatencyHistogram(operation);
+                sHistograms.put(operation, histogram);
+            }
+            return histogram;
+        }
+    }
+
+    /**
+     * @return A snapshot of every operation's histogram
+     */
+    public static LatencyHistogram[] getAll() {
+        synchronized (sHistograms) {
+            return sHistograms.values().toArray(new LatencyHistogram[sHistograms.size()]);
+        }
+    }
+
+    public String getOperation() {
+        return mOperation;
+    }
+
+    public synchronized void record(long millis) {
+        mCounts[bucketOf(millis)]++;
+        onSampleAdded();
+    }
+
+    /**
+     * @param millis How long a request ran before it was cancelled without an answer
+     */
+    public synchronized void recordCensored(long millis) {
+        mCensored[bucketOf(millis)]++;
+        onSampleAdded();
+    }
+
+    private static int bucketOf(long millis) {
+        int bucket = 0;
+        while (bucket < BUCKETS && millis > sBucketBounds[bucket]) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    // Must be called holding the monitor
+    private void onSampleAdded() {
+        if (++mSamples >= MAX_SAMPLES) {
+            mSamples = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                mCounts[i] /= 2;
+                mCensored[i] /= 2;
+                mSamples += mCounts[i] + mCensored[i];
+            }
+        }
+    }
+
+    public synchronized int getSampleCount() {
+        return mSamples;
+    }
+
+    /**
+     * @param percentile In (0, 1], i.e. 0.95
+     * @return The upper bound of the bucket holding the percentile, -1 if nothing was recorded or
+     * {@link Long#MAX_VALUE} if it lies past the last bucket
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (mSamples == 0) {
+            return -1;
+        }
+
+        // The censored samples of a bucket outlived it, they leave the risk set after it
+        int atRisk = mSamples;
+        double survival = 1;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (atRisk > 0)
+                survival *= 1 - (double) mCounts[i] / atRisk;
+            if (1 - survival >= percentile) {
+                return sBucketBounds[i];
+            }
+            atRisk -= mCounts[i] + mCensored[i];
+        }
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s: samples=%d, p50=%dms, p95=%dms",
+                mOperation, getSampleCount(), getPercentile(0.5), getPercentile(0.95));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.libs.metrics;
+
+import android.os.SystemClock;
+
+import java.util.Arrays;
+
+/**
+ * Timings of a single load, from the request start up to the first frame that displays its data.
+ * Every stage is stored as milliseconds elapsed since the request started, -1 if it never happened.
+ */
+public class LoadTrace {
+
+    public enum Stage {
+        REQUEST_START,
+        FIRST_BYTE,
+        PARSE_DONE,
+        FIRST_FRAME
+    }
+
+    private final String name;
+    private final long startedAt;
+    private final long[] stages = new long[Stage.values().length];
+    private boolean finished;
+
+    LoadTrace(String name) {
+        this.name = name;
+        this.startedAt = SystemClock.elapsedRealtime();
+        Arrays.fill(stages, -1);
+        stages[Stage.REQUEST_START.ordinal()] = 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param stage The {@link Stage} to look up
+     * @return milliseconds from the request start to the stage, -1 if not reached
+     */
+    public long getElapsed(Stage stage) {
+        return stages[stage.ordinal()];
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Record the stage, only the first mark of every stage counts.
+     *
+     * @param stage The {@link Stage} reached
+     */
+    public synchronized void mark(Stage stage) {
+        if (!finished && stages[stage.ordinal()] == -1) {
+            stages[stage.ordinal()] = SystemClock.elapsedRealtime() - startedAt;
+        }
+    }
+
+    /**
+     * Mark the first frame and hand the trace over to the {@link MetricsSink}.
+     */
+    public void finish() {
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            mark(Stage.FIRST_FRAME);
+            finished = true;
+        }
+        LoadTracer.onFinished(this);
+    }
+
+    /**
+     * Drop the trace without reporting it, i.e. the load failed or was abandoned.
+     */
+    public void cancel() {
+        synchronized (this) {
+            finished = true;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LoadTrace{" + name +
+                ", firstByte=" + getElapsed(Stage.FIRST_BYTE) +
+                "ms, parseDone=" + getElapsed(Stage.PARSE_DONE) +
+                "ms, firstFrame=" + getElapsed(Stage.FIRST_FRAME) +
+                "ms}";
+    }
+}
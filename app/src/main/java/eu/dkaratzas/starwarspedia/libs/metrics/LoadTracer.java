@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.libs.metrics;
+
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * Entry point for the load timing instrumentation.
+ * Tracing is disabled, and costs nothing, until a {@link MetricsSink} is set.
+ */
+public class LoadTracer {
+    private static volatile MetricsSink sMetricsSink;
+
+    public static void setMetricsSink(@Nullable MetricsSink metricsSink) {
+        sMetricsSink = metricsSink;
+    }
+
+    /**
+     * Start a trace, its REQUEST_START stage is marked now.
+     *
+     * @param name The name the trace will be reported with
+     * @return A new {@link LoadTrace}, or null if there is no sink to report to
+     */
+    @Nullable
+    public static LoadTrace begin(String name) {
+        if (sMetricsSink == null) {
+            return null;
+        }
+
+        return new LoadTrace(name);
+    }
+
+    /**
+     * @return An OkHttp network interceptor that marks the FIRST_BYTE stage of the trace a request is tagged with,
+     * see {@link okhttp3.Request.Builder#tag(Object)}, once its response headers arrive. Untagged requests,
+     * i.e. prefetches and revalidations, mark nothing.
+     */
+    public static Interceptor firstByteInterceptor() {
+        return new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                Response response = chain.proceed(chain.request());
+                Object tag = chain.request().tag();
+                if (tag instanceof LoadTrace) {
+                    ((LoadTrace) tag).mark(LoadTrace.Stage.FIRST_BYTE);
+                }
+                return response;
+            }
+        };
+    }
+
+    static void onFinished(LoadTrace trace) {
+        MetricsSink metricsSink = sMetricsSink;
+        if (metricsSink != null) {
+            metricsSink.onTraceFinished(trace);
+        }
+    }
+}
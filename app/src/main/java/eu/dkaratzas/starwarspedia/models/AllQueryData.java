@@ -17,6 +17,7 @@
 package eu.dkaratzas.starwarspedia.models;
 
 import android.content.Context;
+import android.os.BadParcelableException;
 import android.os.Parcel;
 import android.os.Parcelable;
 
@@ -24,7 +25,7 @@ import com.apollographql.apollo.api.Response;
 import com.google.firebase.storage.FirebaseStorage;
 import com.google.firebase.storage.StorageReference;
 
-import java.text.DateFormat;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -38,6 +39,8 @@ import api.StarshipQuery;
 import api.VehicleQuery;
 import eu.dkaratzas.starwarspedia.R;
 import eu.dkaratzas.starwarspedia.api.SwapiCategory;
+import eu.dkaratzas.starwarspedia.api.SwapiRelation;
+import eu.dkaratzas.starwarspedia.libs.IsoDateTime;
 import timber.log.Timber;
 
 /**
@@ -48,7 +51,15 @@ public class AllQueryData implements Parcelable {
     private String title;
     private SwapiCategory category;
     private LinkedHashMap<String, String> detailsMap;
-    private LinkedHashMap<String, List<SimpleQueryData>> relatedItems;
+    private LinkedHashMap<SwapiRelation, List<SimpleQueryData>> relatedItems;
+
+    public AllQueryData(String id, String title, SwapiCategory category, LinkedHashMap<String, String> detailsMap, LinkedHashMap<SwapiRelation, List<SimpleQueryData>> relatedItems) {
+        this.id = id;
+        this.title = title;
+        this.category = category;
+        this.detailsMap = detailsMap;
+        this.relatedItems = relatedItems;
+    }
 
     public AllQueryData(Response response, Context context) {
 
@@ -86,54 +97,54 @@ public class AllQueryData implements Parcelable {
             this.relatedItems = new LinkedHashMap<>();
 
 
-            detailsMap.put(context.getString(R.string.release_date), getSafeString(DateFormat.getDateInstance(DateFormat.LONG).format(film.releaseDate())));
+            detailsMap.put(context.getString(R.string.release_date), getSafeString(IsoDateTime.formatLongDate(film.releaseDate())));
             detailsMap.put(context.getString(R.string.director), getSafeString(film.director()));
             detailsMap.put(context.getString(R.string.producer), getSafeString(film.producers()));
             detailsMap.put(context.getString(R.string.opening_crawl), getSafeString(film.openingCrawl()));
 
-            if (film.characters() != null && film.characters().size() > 0) {
+            if (film.characters() != null) {
                 List<SimpleQueryData> items = new ArrayList<>();
                 for (FilmQuery.Character character : film.characters()) {
                     items.add(new SimpleQueryData(character.id(), character.name(), SwapiCategory.PEOPLE));
                 }
 
-                relatedItems.put(String.format(context.getString(R.string.related), context.getString(R.string.people)), items);
+                relatedItems.put(SwapiRelation.CHARACTERS, items);
             }
 
-            if (film.planets() != null && film.planets().size() > 0) {
+            if (film.planets() != null) {
                 List<SimpleQueryData> items = new ArrayList<>();
                 for (FilmQuery.Planet planet : film.planets()) {
                     items.add(new SimpleQueryData(planet.id(), planet.name(), SwapiCategory.PLANET));
                 }
 
-                relatedItems.put(String.format(context.getString(R.string.related), context.getString(R.string.planets)), items);
+                relatedItems.put(SwapiRelation.PLANETS, items);
             }
 
-            if (film.species() != null && film.species().size() > 0) {
+            if (film.species() != null) {
                 List<SimpleQueryData> items = new ArrayList<>();
                 for (FilmQuery.Species species : film.species()) {
                     items.add(new SimpleQueryData(species.id(), species.name(), SwapiCategory.SPECIES));
                 }
 
-                relatedItems.put(String.format(context.getString(R.string.related), context.getString(R.string.species)), items);
+                relatedItems.put(SwapiRelation.SPECIES, items);
             }
 
-            if (film.starships() != null && film.starships().size() > 0) {
+            if (film.starships() != null) {
                 List<SimpleQueryData> items = new ArrayList<>();
                 for (FilmQuery.Starship starship : film.starships()) {
                     items.add(new SimpleQueryData(starship.id(), starship.name(), SwapiCategory.STARSHIP));
                 }
 
-                relatedItems.put(String.format(context.getString(R.string.related), context.getString(R.string.starships)), items);
+                relatedItems.put(SwapiRelation.STARSHIPS, items);
             }
 
-            if (film.vehicles() != null && film.vehicles().size() > 0) {
+            if (film.vehicles() != null) {
                 List<SimpleQueryData> items = new ArrayList<>();
                 for (FilmQuery.Vehicle vehicle : film.vehicles()) {
                     items.add(new SimpleQueryData(vehicle.id(), vehicle.name(), SwapiCategory.VEHICLE));
                 }
 
-                relatedItems.put(String.format(context.getString(R.string.related), context.getString(R.string.vehicles)), items);
+                relatedItems.put(SwapiRelation.VEHICLES, items);
             }
         }
     }
@@ -161,48 +172,45 @@ public class AllQueryData implements Parcelable {
             if (skinColor != null && !"".equals(skinColor))
                 detailsMap.put(context.getString(R.string.skin_color), skinColor);
 
-            if (person.homeworld() != null) {
-                List<SimpleQueryData> items = new ArrayList<>();
-
-                items.add(new SimpleQueryData(person.homeworld().id(), person.homeworld().name(), SwapiCategory.PLANET));
+            List<SimpleQueryData> homeworld = new ArrayList<>();
+            if (person.homeworld() != null)
+                homeworld.add(new SimpleQueryData(person.homeworld().id(), person.homeworld().name(), SwapiCategory.PLANET));
+            relatedItems.put(SwapiRelation.HOMEWORLD, homeworld);
 
-                relatedItems.put(context.getString(R.string.homeworld), items);
-            }
-
-            if (person.films() != null && person.films().size() > 0) {
+            if (person.films() != null) {
                 List<SimpleQueryData> items = new ArrayList<>();
                 for (PersonQuery.Film film : person.films()) {
                     items.add(new SimpleQueryData(film.id(), film.title(), SwapiCategory.FILM));
                 }
 
-                relatedItems.put(String.format(context.getString(R.string.related), context.getString(R.string.films)), items);
+                relatedItems.put(SwapiRelation.FILMS, items);
             }
 
-            if (person.species() != null && person.species().size() > 0) {
+            if (person.species() != null) {
                 List<SimpleQueryData> items = new ArrayList<>();
                 for (PersonQuery.Species species : person.species()) {
                     items.add(new SimpleQueryData(species.id(), species.name(), SwapiCategory.SPECIES));
                 }
 
-                relatedItems.put(String.format(context.getString(R.string.related), context.getString(R.string.species)), items);
+                relatedItems.put(SwapiRelation.SPECIES, items);
             }
 
-            if (person.starships() != null && person.starships().size() > 0) {
+            if (person.starships() != null) {
                 List<SimpleQueryData> items = new ArrayList<>();
                 for (PersonQuery.Starship starship : person.starships()) {
                     items.add(new SimpleQueryData(starship.id(), starship.name(), SwapiCategory.STARSHIP));
                 }
 
-                relatedItems.put(String.format(context.getString(R.string.related), context.getString(R.string.starships)), items);
+                relatedItems.put(SwapiRelation.STARSHIPS, items);
             }
 
-            if (person.vehicles() != null && person.vehicles().size() > 0) {
+            if (person.vehicles() != null) {
                 List<SimpleQueryData> items = new ArrayList<>();
                 for (PersonQuery.Vehicle vehicle : person.vehicles()) {
                     items.add(new SimpleQueryData(vehicle.id(), vehicle.name(), SwapiCategory.VEHICLE));
                 }
 
-                relatedItems.put(String.format(context.getString(R.string.related), context.getString(R.string.vehicles)), items);
+                relatedItems.put(SwapiRelation.VEHICLES, items);
             }
         }
     }
@@ -227,22 +235,22 @@ public class AllQueryData implements Parcelable {
             detailsMap.put(context.getString(R.string.climate), getSafeString(planet.climate()));
 
 
-            if (planet.residents() != null && planet.residents().size() > 0) {
+            if (planet.residents() != null) {
                 List<SimpleQueryData> items = new ArrayList<>();
                 for (PlanetQuery.Resident resident : planet.residents()) {
                     items.add(new SimpleQueryData(resident.id(), resident.name(), SwapiCategory.PEOPLE));
                 }
 
-                relatedItems.put(context.getString(R.string.residents), items);
+                relatedItems.put(SwapiRelation.RESIDENTS, items);
             }
 
-            if (planet.films() != null && planet.films().size() > 0) {
+            if (planet.films() != null) {
                 List<SimpleQueryData> items = new ArrayList<>();
                 for (PlanetQuery.Film film : planet.films()) {
                     items.add(new SimpleQueryData(film.id(), film.title(), SwapiCategory.FILM));
                 }
 
-                relatedItems.put(String.format(context.getString(R.string.related), context.getString(R.string.films)), items);
+                relatedItems.put(SwapiRelation.FILMS, items);
             }
 
 
@@ -277,22 +285,22 @@ public class AllQueryData implements Parcelable {
             if (eyeColor != null && !"".equals(eyeColor))
                 detailsMap.put(context.getString(R.string.eye_color), eyeColor);
 
-            if (species.people() != null && species.people().size() > 0) {
+            if (species.people() != null) {
                 List<SimpleQueryData> items = new ArrayList<>();
                 for (SpeciesQuery.person people : species.people()) {
                     items.add(new SimpleQueryData(people.id(), people.name(), SwapiCategory.PEOPLE));
                 }
 
-                relatedItems.put(String.format(context.getString(R.string.related), context.getString(R.string.people)), items);
+                relatedItems.put(SwapiRelation.PEOPLE, items);
             }
 
-            if (species.films() != null && species.films().size() > 0) {
+            if (species.films() != null) {
                 List<SimpleQueryData> items = new ArrayList<>();
                 for (SpeciesQuery.Film film : species.films()) {
                     items.add(new SimpleQueryData(film.id(), film.title(), SwapiCategory.FILM));
                 }
 
-                relatedItems.put(String.format(context.getString(R.string.related), context.getString(R.string.films)), items);
+                relatedItems.put(SwapiRelation.FILMS, items);
             }
         }
     }
@@ -319,22 +327,22 @@ public class AllQueryData implements Parcelable {
             detailsMap.put(context.getString(R.string.passengers), getSafeString(starship.passengers()));
             detailsMap.put(context.getString(R.string.consumables), getSafeString(starship.consumables()));
 
-            if (starship.pilots() != null && starship.pilots().size() > 0) {
+            if (starship.pilots() != null) {
                 List<SimpleQueryData> items = new ArrayList<>();
                 for (StarshipQuery.Pilot pilot : starship.pilots()) {
                     items.add(new SimpleQueryData(pilot.id(), pilot.name(), SwapiCategory.PEOPLE));
                 }
 
-                relatedItems.put(String.format(context.getString(R.string.related), context.getString(R.string.pilots)), items);
+                relatedItems.put(SwapiRelation.PILOTS, items);
             }
 
-            if (starship.films() != null && starship.films().size() > 0) {
+            if (starship.films() != null) {
                 List<SimpleQueryData> items = new ArrayList<>();
                 for (StarshipQuery.Film film : starship.films()) {
                     items.add(new SimpleQueryData(film.id(), film.title(), SwapiCategory.FILM));
                 }
 
-                relatedItems.put(String.format(context.getString(R.string.related), context.getString(R.string.films)), items);
+                relatedItems.put(SwapiRelation.FILMS, items);
             }
         }
     }
@@ -360,22 +368,22 @@ public class AllQueryData implements Parcelable {
             detailsMap.put(context.getString(R.string.passengers), getSafeString(vehicle.passengers()));
             detailsMap.put(context.getString(R.string.consumables), getSafeString(vehicle.consumables()));
 
-            if (vehicle.pilots() != null && vehicle.pilots().size() > 0) {
+            if (vehicle.pilots() != null) {
                 List<SimpleQueryData> items = new ArrayList<>();
                 for (VehicleQuery.Pilot pilot : vehicle.pilots()) {
                     items.add(new SimpleQueryData(pilot.id(), pilot.name(), SwapiCategory.PEOPLE));
                 }
 
-                relatedItems.put(String.format(context.getString(R.string.related), context.getString(R.string.pilots)), items);
+                relatedItems.put(SwapiRelation.PILOTS, items);
             }
 
-            if (vehicle.films() != null && vehicle.films().size() > 0) {
+            if (vehicle.films() != null) {
                 List<SimpleQueryData> items = new ArrayList<>();
                 for (VehicleQuery.Film film : vehicle.films()) {
                     items.add(new SimpleQueryData(film.id(), film.title(), SwapiCategory.FILM));
                 }
 
-                relatedItems.put(String.format(context.getString(R.string.related), context.getString(R.string.films)), items);
+                relatedItems.put(SwapiRelation.FILMS, items);
             }
         }
     }
@@ -439,7 +447,7 @@ public class AllQueryData implements Parcelable {
      * @param data capitalize this
      * @return String
      */
-    private String firstLetterCaps(String data) {
+    static String firstLetterCaps(String data) {
         String firstLetter = data.substring(0, 1).toUpperCase();
         String restLetters = data.substring(1).toLowerCase();
         return firstLetter + restLetters;
@@ -457,10 +465,36 @@ public class AllQueryData implements Parcelable {
         return detailsMap;
     }
 
-    public LinkedHashMap<String, List<SimpleQueryData>> getRelatedItems() {
+    /**
+     * @return false for an item known only from the {@link eu.dkaratzas.starwarspedia.api.EntityGraph}, its details are still to be fetched
+     */
+    public boolean hasDetails() {
+        return detailsMap != null && !detailsMap.isEmpty();
+    }
+
+    /**
+     * @return The related items of every loaded relation, lists are empty when nothing is related.
+     * A header, see {@link eu.dkaratzas.starwarspedia.api.ApolloManager#fetchSwapiItemHeader}, lacks the relations that are still to be fetched.
+     */
+    public LinkedHashMap<SwapiRelation, List<SimpleQueryData>> getRelatedItems() {
         return relatedItems;
     }
 
+    /**
+     * @param relatedItems The related items to add, they replace the ones of the same relation
+     * @return A copy of the item holding the related items of both, in the order of {@link SwapiRelation#of}
+     */
+    public AllQueryData withRelatedItems(Map<SwapiRelation, List<SimpleQueryData>> relatedItems) {
+        LinkedHashMap<SwapiRelation, List<SimpleQueryData>> combinedItems = new LinkedHashMap<>();
+        for (SwapiRelation relation : SwapiRelation.of(category)) {
+            if (relatedItems.containsKey(relation))
+                combinedItems.put(relation, relatedItems.get(relation));
+            else if (this.relatedItems.containsKey(relation))
+                combinedItems.put(relation, this.relatedItems.get(relation));
+        }
+        return new AllQueryData(id, title, category, detailsMap, combinedItems);
+    }
+
     public SwapiCategory getCategory() {
         return category;
     }
@@ -494,42 +528,26 @@ public class AllQueryData implements Parcelable {
         return 0;
     }
 
+    /**
+     * A single {@link QueryDataCodec} blob, the related items share their repeated titles and categories
+     */
     @Override
     public void writeToParcel(Parcel dest, int flags) {
-        dest.writeString(this.id);
-        dest.writeString(this.title);
-        dest.writeInt(this.detailsMap.size());
-        for (Map.Entry<String, String> entry : this.detailsMap.entrySet()) {
-            dest.writeString(entry.getKey());
-            dest.writeString(entry.getValue());
-        }
-        dest.writeInt(this.category == null ? -1 : this.category.ordinal());
-        dest.writeInt(this.relatedItems.size());
-        for (Map.Entry<String, List<SimpleQueryData>> entry : this.relatedItems.entrySet()) {
-            dest.writeString(entry.getKey());
-            dest.writeTypedList(entry.getValue());
-        }
+        dest.writeByteArray(QueryDataCodec.encode(this));
     }
 
     protected AllQueryData(Parcel in) {
-        this.id = in.readString();
-        this.title = in.readString();
-        int detailsMapSize = in.readInt();
-        this.detailsMap = new LinkedHashMap<>(detailsMapSize);
-        for (int i = 0; i < detailsMapSize; i++) {
-            String key = in.readString();
-            String value = in.readString();
-            this.detailsMap.put(key, value);
-        }
-        int tmpCategory = in.readInt();
-        this.category = tmpCategory == -1 ? null : SwapiCategory.values()[tmpCategory];
-        int relatedItemsSize = in.readInt();
-        this.relatedItems = new LinkedHashMap<>(relatedItemsSize);
-        for (int i = 0; i < relatedItemsSize; i++) {
-            String key = in.readString();
-            List<SimpleQueryData> value = in.createTypedArrayList(SimpleQueryData.CREATOR);
-            this.relatedItems.put(key, value);
+        AllQueryData decoded;
+        try {
+            decoded = QueryDataCodec.decodeAllQueryData(in.createByteArray());
+        } catch (IOException e) {
+            throw new BadParcelableException(e);
         }
+        this.id = decoded.id;
+        this.title = decoded.title;
+        this.category = decoded.category;
+        this.detailsMap = decoded.detailsMap;
+        this.relatedItems = decoded.relatedItems;
     }
 
     public static final Creator<AllQueryData> CREATOR = new Creator<AllQueryData>() {
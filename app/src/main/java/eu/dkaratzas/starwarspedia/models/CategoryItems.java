@@ -16,90 +16,66 @@
 
 package eu.dkaratzas.starwarspedia.models;
 
+import android.os.BadParcelableException;
 import android.os.Parcel;
 import android.os.Parcelable;
 
-import com.apollographql.apollo.api.Response;
-
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.List;
 
-import api.AllFilmsQuery;
-import api.AllPersonsQuery;
-import api.AllPlanetsQuery;
-import api.AllSpeciesQuery;
-import api.AllStarshipsQuery;
-import api.AllVehiclesQuery;
-import eu.dkaratzas.starwarspedia.api.SwapiCategory;
-import timber.log.Timber;
-
 /**
- * Mapping apollo result for the AllData GraphQL Responses
+ * A category list, see {@link eu.dkaratzas.starwarspedia.api.ApolloManager#streamSwapiCategory}
  */
 public class CategoryItems implements Parcelable {
     private List<SimpleQueryData> queryDataList;
+    private boolean endReached;
 
-    public CategoryItems(Response response) {
-        queryDataList = new ArrayList<>();
-
-        if (response.data() != null) {
-
-            if (response.data() instanceof AllFilmsQuery.Data) {
-                for (AllFilmsQuery.AllFilm film : ((AllFilmsQuery.Data) response.data()).allFilms()) {
-                    queryDataList.add(new SimpleQueryData(film.id(), film.title(), SwapiCategory.FILM));
-                }
-            } else if (response.data() instanceof AllPersonsQuery.Data) {
-                for (AllPersonsQuery.AllPerson person : ((AllPersonsQuery.Data) response.data()).allPersons()) {
-                    queryDataList.add(new SimpleQueryData(person.id(), person.name(), SwapiCategory.PEOPLE));
-                }
-            } else if (response.data() instanceof AllPlanetsQuery.Data) {
-                for (AllPlanetsQuery.AllPlanet planet : ((AllPlanetsQuery.Data) response.data()).allPlanets()) {
-                    queryDataList.add(new SimpleQueryData(planet.id(), planet.name(), SwapiCategory.PLANET));
-                }
-            } else if (response.data() instanceof AllSpeciesQuery.Data) {
-                for (AllSpeciesQuery.AllSpecy species : ((AllSpeciesQuery.Data) response.data()).allSpecies()) {
-                    queryDataList.add(new SimpleQueryData(species.id(), species.name(), SwapiCategory.SPECIES));
-                }
-            } else if (response.data() instanceof AllStarshipsQuery.Data) {
-                for (AllStarshipsQuery.AllStarship starship : ((AllStarshipsQuery.Data) response.data()).allStarships()) {
-                    queryDataList.add(new SimpleQueryData(starship.id(), starship.name(), SwapiCategory.STARSHIP));
-                }
-            } else if (response.data() instanceof AllVehiclesQuery.Data) {
-                for (AllVehiclesQuery.AllVehicle vehicle : ((AllVehiclesQuery.Data) response.data()).allVehicles()) {
-                    queryDataList.add(new SimpleQueryData(vehicle.id(), vehicle.name(), SwapiCategory.VEHICLE));
-                }
-            } else {
-                Timber.d("Unknown response.data instance.");
-            }
-        } else {
-            Timber.d("response data is null");
-        }
-
-
+    public CategoryItems(List<SimpleQueryData> queryDataList) {
+        this(queryDataList, false);
     }
 
-    public CategoryItems(List<SimpleQueryData> queryDataList) {
+    /**
+     * @param endReached Whether the last page loaded came back short, so no more items follow
+     */
+    public CategoryItems(List<SimpleQueryData> queryDataList, boolean endReached) {
         this.queryDataList = queryDataList;
+        this.endReached = endReached;
     }
 
     public List<SimpleQueryData> getQueryDataList() {
         return queryDataList;
     }
 
+    public boolean isEndReached() {
+        return endReached;
+    }
+
+    public void setEndReached(boolean endReached) {
+        this.endReached = endReached;
+    }
+
     // region Parcelable
     @Override
     public int describeContents() {
         return 0;
     }
 
+    /**
+     * A single {@link QueryDataCodec} blob, instead of a class lookup and the repeated strings of every item
+     */
     @Override
     public void writeToParcel(Parcel dest, int flags) {
-        dest.writeList(this.queryDataList);
+        dest.writeByteArray(QueryDataCodec.encode(this));
     }
 
     protected CategoryItems(Parcel in) {
-        this.queryDataList = new ArrayList<>();
-        in.readList(this.queryDataList, SimpleQueryData.class.getClassLoader());
+        try {
+            CategoryItems decoded = QueryDataCodec.decodeCategoryItems(in.createByteArray());
+            this.queryDataList = decoded.queryDataList;
+            this.endReached = decoded.endReached;
+        } catch (IOException e) {
+            throw new BadParcelableException(e);
+        }
     }
 
     public static final Parcelable.Creator<CategoryItems> CREATOR = new Parcelable.Creator<CategoryItems>() {
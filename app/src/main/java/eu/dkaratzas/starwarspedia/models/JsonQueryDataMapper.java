@@ -0,0 +1,228 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.models;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import eu.dkaratzas.starwarspedia.R;
+import eu.dkaratzas.starwarspedia.api.SwapiCategory;
+import eu.dkaratzas.starwarspedia.api.SwapiRelation;
+import eu.dkaratzas.starwarspedia.libs.IsoDateTime;
+import timber.log.Timber;
+
+/**
+ * Maps raw GraphQL JSON objects of the SWAPI types to {@link AllQueryData},
+ * for responses that don't go through the generated Apollo queries (e.g. batched documents).
+ * Produces the same details and related items as the Apollo mapping of {@link AllQueryData},
+ * fields missing from the JSON object are skipped.
+ */
+public class JsonQueryDataMapper {
+
+    /**
+     * @param context  The context to resolve the labels
+     * @param category The {@link SwapiCategory} of the object
+     * @param json     The GraphQL object, i.e. the value of <code>Film(id: ..)</code>
+     * @return The mapped {@link AllQueryData}, or null if the object was null
+     */
+    @Nullable
+    public static AllQueryData map(Context context, SwapiCategory category, @Nullable JSONObject json) {
+        if (json == null) {
+            return null;
+        }
+
+        String title = category == SwapiCategory.FILM ? json.optString("title") : json.optString("name");
+        LinkedHashMap<String, String> detailsMap = new LinkedHashMap<>();
+        LinkedHashMap<SwapiRelation, List<SimpleQueryData>> relatedItems = new LinkedHashMap<>();
+
+        switch (category) {
+            case FILM:
+                if (json.has("releaseDate"))
+                    detailsMap.put(context.getString(R.string.release_date), formatDate(json.optString("releaseDate", null)));
+                putString(detailsMap, context.getString(R.string.director), json, "director");
+                putString(detailsMap, context.getString(R.string.producer), json, "producers");
+                putString(detailsMap, context.getString(R.string.opening_crawl), json, "openingCrawl");
+                break;
+            case PEOPLE:
+                putString(detailsMap, context.getString(R.string.birth_year), json, "birthYear");
+                putString(detailsMap, context.getString(R.string.height), json, "height");
+                putFloat(detailsMap, context.getString(R.string.mass), json, "mass");
+                putEnum(detailsMap, context.getString(R.string.gender), json, "gender");
+                putEnumList(detailsMap, context.getString(R.string.hair_color), json, "hairColor");
+                putEnumList(detailsMap, context.getString(R.string.skin_color), json, "skinColor");
+                break;
+            case PLANET:
+                putFloat(detailsMap, context.getString(R.string.population), json, "population");
+                putString(detailsMap, context.getString(R.string.rotation_period), json, "rotationPeriod");
+                putString(detailsMap, context.getString(R.string.orbital_period), json, "orbitalPeriod");
+                putString(detailsMap, context.getString(R.string.diameter), json, "diameter");
+                putString(detailsMap, context.getString(R.string.gravity), json, "gravity");
+                putString(detailsMap, context.getString(R.string.terrain), json, "terrain");
+                putFloat(detailsMap, context.getString(R.string.surface_water), json, "surfaceWater");
+                putString(detailsMap, context.getString(R.string.climate), json, "climate");
+                break;
+            case SPECIES:
+                putString(detailsMap, context.getString(R.string.classification), json, "classification");
+                putString(detailsMap, context.getString(R.string.designation), json, "designation");
+                putString(detailsMap, context.getString(R.string.language), json, "language");
+                putString(detailsMap, context.getString(R.string.avg_lifespan), json, "averageLifespan");
+                putString(detailsMap, context.getString(R.string.avg_height), json, "averageHeight");
+                putEnumList(detailsMap, context.getString(R.string.hair_color), json, "hairColor");
+                putEnumList(detailsMap, context.getString(R.string.skin_color), json, "skinColor");
+                putEnumList(detailsMap, context.getString(R.string.eye_color), json, "eyeColor");
+                break;
+            case STARSHIP:
+                putString(detailsMap, context.getString(R.string.manufacturer), json, "manufacturer");
+                putString(detailsMap, context.getString(R.string.starship_class), json, "class");
+                putFloat(detailsMap, context.getString(R.string.cost), json, "costInCredits");
+                putString(detailsMap, context.getString(R.string.speed), json, "maxAtmospheringSpeed");
+                putFloat(detailsMap, context.getString(R.string.hyperdrive_rating), json, "hyperdriveRating");
+                putString(detailsMap, context.getString(R.string.mglt), json, "mglt");
+                putFloat(detailsMap, context.getString(R.string.length), json, "length");
+                putFloat(detailsMap, context.getString(R.string.cargo_capacity), json, "cargoCapacity");
+                putString(detailsMap, context.getString(R.string.crew), json, "crew");
+                putString(detailsMap, context.getString(R.string.passengers), json, "passengers");
+                putString(detailsMap, context.getString(R.string.consumables), json, "consumables");
+                break;
+            case VEHICLE:
+                putString(detailsMap, context.getString(R.string.manufacturer), json, "manufacturer");
+                putString(detailsMap, context.getString(R.string.model), json, "model");
+                putString(detailsMap, context.getString(R.string.starship_class), json, "class");
+                putString(detailsMap, context.getString(R.string.cost), json, "costInCredits");
+                putString(detailsMap, context.getString(R.string.speed), json, "maxAtmospheringSpeed");
+                putFloat(detailsMap, context.getString(R.string.length), json, "length");
+                putString(detailsMap, context.getString(R.string.cargo_capacity), json, "cargoCapacity");
+                putString(detailsMap, context.getString(R.string.crew), json, "crew");
+                putString(detailsMap, context.getString(R.string.passengers), json, "passengers");
+                putString(detailsMap, context.getString(R.string.consumables), json, "consumables");
+                break;
+        }
+
+        for (SwapiRelation relation : SwapiRelation.of(category)) {
+            putRelated(relatedItems, json, relation);
+        }
+
+        return new AllQueryData(json.optString("id"), title, category, detailsMap, relatedItems);
+    }
+
+    /**
+     * Strings, Ints and lists of strings, formatted like the Apollo mapping does.
+     */
+    private static void putString(LinkedHashMap<String, String> detailsMap, String label, JSONObject json, String field) {
+        if (!json.has(field)) {
+            return;
+        }
+
+        StringBuilder result = new StringBuilder();
+        Object value = json.opt(field);
+        if (value instanceof JSONArray) {
+            JSONArray values = (JSONArray) value;
+            for (int i = 0; i < values.length(); i++) {
+                if (i != 0)
+                    result.append(", ");
+
+                result.append(AllQueryData.firstLetterCaps(values.optString(i)));
+            }
+        } else if (value != null && value != JSONObject.NULL) {
+            result.append(String.valueOf(value));
+        }
+        detailsMap.put(label, result.toString());
+    }
+
+    /**
+     * Floats are decoded as Double by Apollo, keep the same representation, i.e. <code>77.0</code>
+     */
+    private static void putFloat(LinkedHashMap<String, String> detailsMap, String label, JSONObject json, String field) {
+        if (!json.has(field)) {
+            return;
+        }
+
+        detailsMap.put(label, json.isNull(field) ? "" : String.valueOf(json.optDouble(field)));
+    }
+
+    private static void putEnum(LinkedHashMap<String, String> detailsMap, String label, JSONObject json, String field) {
+        if (!json.has(field)) {
+            return;
+        }
+
+        detailsMap.put(label, json.isNull(field) ? "" : AllQueryData.firstLetterCaps(json.optString(field)));
+    }
+
+    /**
+     * Enum lists are only displayed when not empty
+     */
+    private static void putEnumList(LinkedHashMap<String, String> detailsMap, String label, JSONObject json, String field) {
+        JSONArray values = json.optJSONArray(field);
+        if (values == null || values.length() == 0) {
+            return;
+        }
+
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < values.length(); i++) {
+            if (i != 0)
+                result.append(", ");
+
+            result.append(AllQueryData.firstLetterCaps(values.optString(i)));
+        }
+        detailsMap.put(label, result.toString());
+    }
+
+    /**
+     * Relations missing from the object are skipped, a null item or an empty list relates nothing
+     */
+    private static void putRelated(LinkedHashMap<SwapiRelation, List<SimpleQueryData>> relatedItems, JSONObject json, SwapiRelation relation) {
+        if (!json.has(relation.getField())) {
+            return;
+        }
+
+        List<SimpleQueryData> items = new ArrayList<>();
+        JSONArray values = json.optJSONArray(relation.getField());
+        if (values != null) {
+            for (int i = 0; i < values.length(); i++) {
+                putItem(items, values.optJSONObject(i), relation.getTarget());
+            }
+        } else {
+            putItem(items, json.optJSONObject(relation.getField()), relation.getTarget());
+        }
+        relatedItems.put(relation, items);
+    }
+
+    private static void putItem(List<SimpleQueryData> items, @Nullable JSONObject item, SwapiCategory category) {
+        if (item != null)
+            items.add(new SimpleQueryData(item.optString("id"), item.optString(category == SwapiCategory.FILM ? "title" : "name"), category));
+    }
+
+    private static String formatDate(String value) {
+        if (value == null) {
+            return "";
+        }
+
+        try {
+            return IsoDateTime.formatLongDate(IsoDateTime.parse(value));
+        } catch (IllegalArgumentException e) {
+            Timber.e(e);
+            return "";
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.models;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.dkaratzas.starwarspedia.api.SwapiCategory;
+import eu.dkaratzas.starwarspedia.api.SwapiRelation;
+
+/**
+ * Compact binary format of {@link SimpleQueryData}, {@link CategoryItems} and {@link AllQueryData},
+ * for disk caches and parcels. Unlike the Parcelable mapping it doesn't depend on the platform, so it can be persisted.
+ * <p>
+ * A blob holds the format {@link #VERSION}, the type of its root object, the table of its distinct strings and the
+ * root object. Strings are referenced by their index in the table, so the titles and detail labels repeated
+ * across items are stored once. Indexes, counts, lengths and the ordinals of categories and relations are varints.
+ * A {@link CategoryItems} ends with its {@link CategoryItems#isEndReached()} flag, 0 or 1.
+ */
+public class QueryDataCodec {
+    /**
+     * Bump on every change of the layout, blobs of another version are rejected
+     */
+    public static final int VERSION = 2;
+
+    private static final int TYPE_SIMPLE_QUERY_DATA = 1;
+    private static final int TYPE_CATEGORY_ITEMS = 2;
+    private static final int TYPE_ALL_QUERY_DATA = 3;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static byte[] encode(SimpleQueryData queryData) {
+        Encoder encoder = new Encoder();
+        encoder.writeSimpleQueryData(queryData);
+        return encoder.toByteArray(TYPE_SIMPLE_QUERY_DATA);
+    }
+
+    public static byte[] encode(CategoryItems categoryItems) {
+        Encoder encoder = new Encoder();
+        encoder.writeList(categoryItems.getQueryDataList());
+        encoder.writeVarint(categoryItems.isEndReached() ? 1 : 0);
+        return encoder.toByteArray(TYPE_CATEGORY_ITEMS);
+    }
+
+    public static byte[] encode(AllQueryData queryData) {
+        Encoder encoder = new Encoder();
+        encoder.writeString(queryData.getId());
+        encoder.writeString(queryData.getTitle());
+        encoder.writeCategory(queryData.getCategory());
+
+        Map<String, String> detailsMap = queryData.getDetailsMap();
+        encoder.writeVarint(detailsMap == null ? 0 : detailsMap.size());
+        if (detailsMap != null) {
+            for (Map.Entry<String, String> entry : detailsMap.entrySet()) {
+                encoder.writeString(entry.getKey());
+                encoder.writeString(entry.getValue());
+            }
+        }
+
+        Map<SwapiRelation, List<SimpleQueryData>> relatedItems = queryData.getRelatedItems();
+        encoder.writeVarint(relatedItems == null ? 0 : relatedItems.size());
+        if (relatedItems != null) {
+            for (Map.Entry<SwapiRelation, List<SimpleQueryData>> entry : relatedItems.entrySet()) {
+                encoder.writeVarint(entry.getKey().ordinal());
+                encoder.writeList(entry.getValue());
+            }
+        }
+        return encoder.toByteArray(TYPE_ALL_QUERY_DATA);
+    }
+
+    /**
+     * @throws IOException If the blob is not a {@link SimpleQueryData} of this {@link #VERSION} or is corrupt
+     */
+    public static SimpleQueryData decodeSimpleQueryData(byte[] bytes) throws IOException {
+        Decoder decoder = new Decoder(bytes, TYPE_SIMPLE_QUERY_DATA);
+        SimpleQueryData queryData = decoder.readSimpleQueryData();
+        decoder.finish();
+        return queryData;
+    }
+
+    /**
+     * @throws IOException If the blob is not a {@link CategoryItems} of this {@link #VERSION} or is corrupt
+     */
+    public static CategoryItems decodeCategoryItems(byte[] bytes) throws IOException {
+        Decoder decoder = new Decoder(bytes, TYPE_CATEGORY_ITEMS);
+        List<SimpleQueryData> items = decoder.readList();
+        int endReached = decoder.readVarint();
+        if (endReached > 1)
+            throw new IOException("Corrupt end flag " + endReached);
+        CategoryItems categoryItems = new CategoryItems(items, endReached == 1);
+        decoder.finish();
+        return categoryItems;
+    }
+
+    /**
+     * @throws IOException If the blob is not an {@link AllQueryData} of this {@link #VERSION} or is corrupt
+     */
+    public static AllQueryData decodeAllQueryData(byte[] bytes) throws IOException {
+        Decoder decoder = new Decoder(bytes, TYPE_ALL_QUERY_DATA);
+        String id = decoder.readString();
+        String title = decoder.readString();
+        SwapiCategory category = decoder.readCategory();
+
+        int detailsCount = decoder.readVarint();
+        LinkedHashMap<String, String> detailsMap = new LinkedHashMap<>(detailsCount);
+        for (int i = 0; i < detailsCount; i++) {
+            String key = decoder.readString();
+            detailsMap.put(key, decoder.readString());
+        }
+
+        int relationsCount = decoder.readVarint();
+        LinkedHashMap<SwapiRelation, List<SimpleQueryData>> relatedItems = new LinkedHashMap<>(relationsCount);
+        for (int i = 0; i < relationsCount; i++) {
+            SwapiRelation relation = decoder.readOrdinal(SwapiRelation.values());
+            relatedItems.put(relation, decoder.readList());
+        }
+        decoder.finish();
+
+        return new AllQueryData(id, title, category, detailsMap, relatedItems);
+    }
+
+    /**
+     * Writes the root object while collecting the string table, which goes before it in the blob
+     */
+    private static class Encoder {
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        // Index 0 stands for null
+        private final Map<String, Integer> stringIndexes = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        void writeSimpleQueryData(SimpleQueryData queryData) {
+            writeString(queryData.getId());
+            writeString(queryData.getTitle());
+            writeCategory(queryData.getCategory());
+        }
+
+        void writeList(List<SimpleQueryData> items) {
+            writeVarint(items.size());
+            for (SimpleQueryData item : items) {
+                writeSimpleQueryData(item);
+            }
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeVarint(0);
+                return;
+            }
+
+            Integer index = stringIndexes.get(value);
+            if (index == null) {
+                strings.add(value);
+                index = strings.size();
+                stringIndexes.put(value, index);
+            }
+            writeVarint(index);
+        }
+
+        // 0 stands for null
+        void writeCategory(SwapiCategory category) {
+            writeVarint(category == null ? 0 : category.ordinal() + 1);
+        }
+
+        void writeVarint(int value) {
+            writeVarint(body, value);
+        }
+
+        byte[] toByteArray(int type) {
+            ByteArrayOutputStream blob = new ByteArrayOutputStream(body.size() + strings.size() * 16 + 8);
+            writeVarint(blob, VERSION);
+            writeVarint(blob, type);
+
+            writeVarint(blob, strings.size());
+            for (String string : strings) {
+                byte[] bytes = string.getBytes(UTF_8);
+                writeVarint(blob, bytes.length);
+                blob.write(bytes, 0, bytes.length);
+            }
+
+            byte[] bodyBytes = body.toByteArray();
+            blob.write(bodyBytes, 0, bodyBytes.length);
+            return blob.toByteArray();
+        }
+
+        private static void writeVarint(ByteArrayOutputStream out, int value) {
+            if (value < 0)
+                throw new IllegalArgumentException("Negative varint " + value);
+
+            while ((value & ~0x7F) != 0) {
+                out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+    }
+
+    /**
+     * Reads the header and the string table up front, then the root object
+     */
+    private static class Decoder {
+        private final byte[] bytes;
+        private int position;
+        private final String[] strings;
+
+        Decoder(byte[] bytes, int expectedType) throws IOException {
+            this.bytes = bytes;
+
+            int version = readVarint();
+            if (version != VERSION)
+                throw new IOException("Unsupported version " + version);
+            int type = readVarint();
+            if (type != expectedType)
+                throw new IOException("Unexpected type " + type + ", expected " + expectedType);
+
+            int count = readVarint();
+            if (count > bytes.length - position)
+                throw new IOException("Corrupt string table of " + count + " strings");
+
+            strings = new String[count];
+            for (int i = 0; i < count; i++) {
+                int length = readVarint();
+                if (length > bytes.length - position)
+                    throw new IOException("Truncated string");
+
+                strings[i] = new String(bytes, position, length, UTF_8);
+                position += length;
+            }
+        }
+
+        SimpleQueryData readSimpleQueryData() throws IOException {
+            String id = readString();
+            String title = readString();
+            return new SimpleQueryData(id, title, readCategory());
+        }
+
+        List<SimpleQueryData> readList() throws IOException {
+            int count = readVarint();
+            // Every item takes at least 3 bytes, don't trust a corrupt count
+            if (count > (bytes.length - position) / 3)
+                throw new IOException("Corrupt list of " + count + " items");
+
+            List<SimpleQueryData> items = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                items.add(readSimpleQueryData());
+            }
+            return items;
+        }
+
+        String readString() throws IOException {
+            int index = readVarint();
+            if (index == 0)
+                return null;
+            if (index > strings.length)
+                throw new IOException("String index " + index + " out of " + strings.length);
+
+            return strings[index - 1];
+        }
+
+        SwapiCategory readCategory() throws IOException {
+            int value = readVarint();
+            if (value == 0)
+                return null;
+            if (value > SwapiCategory.values().length)
+                throw new IOException("Unknown category " + value);
+
+            return SwapiCategory.values()[value - 1];
+        }
+
+        <T extends Enum<T>> T readOrdinal(T[] values) throws IOException {
+            int ordinal = readVarint();
+            if (ordinal >= values.length)
+                throw new IOException("Unknown ordinal " + ordinal);
+
+            return values[ordinal];
+        }
+
+        int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                if (position >= bytes.length)
+                    throw new IOException("Truncated varint");
+
+                byte b = bytes[position++];
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    if (value < 0)
+                        throw new IOException("Negative varint");
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        /**
+         * @throws IOException If there are bytes left after the root object
+         */
+        void finish() throws IOException {
+            if (position != bytes.length)
+                throw new IOException((bytes.length - position) + " trailing bytes");
+        }
+    }
+}
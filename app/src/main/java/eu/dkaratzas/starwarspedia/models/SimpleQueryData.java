@@ -16,7 +16,6 @@
 
 package eu.dkaratzas.starwarspedia.models;
 
-import android.graphics.Bitmap;
 import android.os.Parcel;
 import android.os.Parcelable;
 
@@ -29,20 +28,11 @@ public class SimpleQueryData implements Parcelable {
     private String id;
     private String title;
     private SwapiCategory category;
-    private Bitmap image;
 
     public SimpleQueryData(String id, String title, SwapiCategory category) {
         this.id = id;
         this.title = title;
         this.category = category;
-        this.image = null;
-    }
-
-    public SimpleQueryData(String id, String title, SwapiCategory category, Bitmap image) {
-        this.id = id;
-        this.title = title;
-        this.category = category;
-        this.image = image;
     }
 
     public String getId() {
@@ -78,10 +68,6 @@ public class SimpleQueryData implements Parcelable {
         return null;
     }
 
-    public Bitmap getImage() {
-        return image;
-    }
-
     // region Parcelable
 
     @Override
@@ -89,6 +75,10 @@ public class SimpleQueryData implements Parcelable {
         return 0;
     }
 
+    /**
+     * Field by field, a lone item has no repeated strings for the {@link QueryDataCodec} to share.
+     * Lists of items are parcelled through {@link CategoryItems} or {@link AllQueryData}.
+     */
     @Override
     public void writeToParcel(Parcel dest, int flags) {
         dest.writeString(this.id);
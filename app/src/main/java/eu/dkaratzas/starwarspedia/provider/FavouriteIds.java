@@ -0,0 +1,144 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.provider;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import com.crashlytics.android.Crashlytics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import eu.dkaratzas.starwarspedia.api.SwapiCategory;
+import timber.log.Timber;
+
+/**
+ * In memory set of the favourite items, kept in sync with the {@link FavouriteItemsProvider} by a content observer,
+ * so checking if an item is favourite doesn't touch the database. The set is loaded on a background thread,
+ * {@link Listener}s are told when it is ready and every time it changes.
+ */
+public class FavouriteIds {
+    private static final String[] PROJECTION = {
+            FavouriteItemsContract.FavouriteItemEntry.COLUMN_ID,
+            FavouriteItemsContract.FavouriteItemEntry.COLUMN_CATEGORY
+    };
+
+    private static final Object sLock = new Object();
+    private static Context sContext;
+    private static Handler sHandler;
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    private static final List<Listener> sListeners = new ArrayList<>();
+    private static volatile Set<String> sIds;
+
+    public static void init(Context context) {
+        synchronized (sLock) {
+            if (sContext != null)
+                return;
+
+            sContext = context.getApplicationContext();
+
+            HandlerThread handlerThread = new HandlerThread("FavouriteIds");
+            handlerThread.start();
+            sHandler = new Handler(handlerThread.getLooper());
+
+            sContext.getContentResolver().registerContentObserver(FavouriteItemsContract.FavouriteItemEntry.CONTENT_URI, true, new ContentObserver(sHandler) {
+                @Override
+                public void onChange(boolean selfChange, Uri uri) {
+                    reload();
+                }
+            });
+
+            // Load off the main thread, contains() answers false meanwhile
+            sHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    reload();
+                }
+            });
+        }
+    }
+
+    /**
+     * @return true if the item is in the favourites, false while the set isn't loaded yet
+     */
+    public static boolean contains(SwapiCategory category, String swapiId) {
+        Set<String> ids = sIds;
+        return ids != null && ids.contains(key(String.valueOf(category.ordinal()), swapiId));
+    }
+
+    /**
+     * Must be called on the main thread and paired with {@link #removeListener(Listener)}
+     */
+    public static void addListener(Listener listener) {
+        sListeners.add(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        sListeners.remove(listener);
+    }
+
+    private static void reload() {
+        Set<String> ids = new HashSet<>();
+        Cursor cursor = null;
+        try {
+            cursor = sContext.getContentResolver().query(FavouriteItemsContract.FavouriteItemEntry.CONTENT_URI, PROJECTION, null, null, null);
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    ids.add(key(cursor.getString(1), cursor.getString(0)));
+                }
+            }
+        } catch (Exception e) {
+            Timber.e(e);
+            Crashlytics.logException(e);
+        } finally {
+            if (cursor != null)
+                cursor.close();
+        }
+
+        sIds = Collections.unmodifiableSet(ids);
+        Timber.d("Loaded %d favourite ids", ids.size());
+
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : new ArrayList<>(sListeners)) {
+                    listener.onFavouriteIdsChanged();
+                }
+            }
+        });
+    }
+
+    private static String key(String swapiCategory, String swapiId) {
+        return swapiCategory + ":" + swapiId;
+    }
+
+    public interface Listener {
+        /**
+         * Called on the main thread once the set is loaded and after every change of the favourites
+         */
+        void onFavouriteIdsChanged();
+    }
+}
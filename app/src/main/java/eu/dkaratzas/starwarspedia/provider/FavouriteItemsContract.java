@@ -35,6 +35,19 @@ public class FavouriteItemsContract {
         public static final String COLUMN_ID = "swapi_id";
         public static final String COLUMN_TITLE = "title";
         public static final String COLUMN_CATEGORY = "swapi_category";
-        public static final String COLUMN_IMAGE = "image_base64";
+        public static final String COLUMN_THUMBNAIL = "thumbnail";
+
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+        public static final String QUERY_PARAMETER_OFFSET = "offset";
+
+        /**
+         * @return The uri to query a page of the favourites
+         */
+        public static Uri buildPageUri(int offset, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_OFFSET, String.valueOf(offset))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
     }
 }
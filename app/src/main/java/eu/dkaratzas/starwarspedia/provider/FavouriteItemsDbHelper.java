@@ -16,34 +16,131 @@
 
 package eu.dkaratzas.starwarspedia.provider;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import timber.log.Timber;
+
 public class FavouriteItemsDbHelper extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "swp.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 3;
+
+    // Version 1 kept the thumbnail as a base64 encoded PNG
+    private static final String LEGACY_COLUMN_IMAGE = "image_base64";
+    private static final String INDEX_UNIQUE_ITEM = "favourites_unique_item";
+
+    private final Context mContext;
 
     public FavouriteItemsDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mContext = context.getApplicationContext();
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
-        final String CREATE_TABLE = "CREATE TABLE " + FavouriteItemsContract.FavouriteItemEntry.TABLE_NAME + " (" +
+        db.execSQL(createTableStatement(FavouriteItemsContract.FavouriteItemEntry.TABLE_NAME));
+        db.execSQL(createUniqueIndexStatement());
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        List<String> storedThumbnails = new ArrayList<>();
+        try {
+            if (oldVersion < 2) {
+                migrateThumbnailsToStore(db, storedThumbnails);
+            }
+            if (oldVersion < 3) {
+                removeDuplicates(db);
+                db.execSQL(createUniqueIndexStatement());
+            }
+        } catch (RuntimeException e) {
+            // The transaction is rolled back and the rows keep their base64 images, drop the files no row points to
+            for (String fileName : storedThumbnails) {
+                ThumbnailStore.delete(mContext, fileName);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * An item can be favourite once, the index also serves the membership lookups by SWAPI id
+     */
+    private static String createUniqueIndexStatement() {
+        return "CREATE UNIQUE INDEX " + INDEX_UNIQUE_ITEM + " ON " + FavouriteItemsContract.FavouriteItemEntry.TABLE_NAME + " (" +
+                FavouriteItemsContract.FavouriteItemEntry.COLUMN_ID + ", " +
+                FavouriteItemsContract.FavouriteItemEntry.COLUMN_CATEGORY + ");";
+    }
+
+    /**
+     * Versions before 3 didn't constrain the inserts, keep the oldest row of every item
+     */
+    private static void removeDuplicates(SQLiteDatabase db) {
+        final String tableName = FavouriteItemsContract.FavouriteItemEntry.TABLE_NAME;
+        int removed = db.delete(tableName,
+                FavouriteItemsContract.FavouriteItemEntry._ID + " NOT IN (SELECT MIN(" + FavouriteItemsContract.FavouriteItemEntry._ID + ") FROM " + tableName +
+                        " GROUP BY " + FavouriteItemsContract.FavouriteItemEntry.COLUMN_ID + ", " + FavouriteItemsContract.FavouriteItemEntry.COLUMN_CATEGORY + ")",
+                null);
+        Timber.d("Removed %d duplicate favourites", removed);
+    }
+
+    private static String createTableStatement(String tableName) {
+        return "CREATE TABLE " + tableName + " (" +
                 FavouriteItemsContract.FavouriteItemEntry._ID + " INTEGER PRIMARY KEY, " +
                 FavouriteItemsContract.FavouriteItemEntry.COLUMN_ID + " TEXT NOT NULL, " +
                 FavouriteItemsContract.FavouriteItemEntry.COLUMN_TITLE + " TEXT NOT NULL," +
                 FavouriteItemsContract.FavouriteItemEntry.COLUMN_CATEGORY + " TEXT NOT NULL," +
-                FavouriteItemsContract.FavouriteItemEntry.COLUMN_IMAGE + " TEXT NOT NULL)" +
+                FavouriteItemsContract.FavouriteItemEntry.COLUMN_THUMBNAIL + " TEXT)" +
                 "; ";
-
-        db.execSQL(CREATE_TABLE);
     }
 
-    @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + FavouriteItemsContract.FavouriteItemEntry.TABLE_NAME);
-        onCreate(db);
+    /**
+     * Move the base64 thumbnails of version 1 to the {@link ThumbnailStore}, keeping the favourites.
+     * onUpgrade runs in a transaction so a failure leaves the old table untouched.
+     *
+     * @param storedThumbnails Collects the files written, to be deleted if the upgrade fails
+     */
+    private void migrateThumbnailsToStore(SQLiteDatabase db, List<String> storedThumbnails) {
+        final String tableName = FavouriteItemsContract.FavouriteItemEntry.TABLE_NAME;
+        final String newTableName = tableName + "_v2";
+
+        db.execSQL(createTableStatement(newTableName));
+
+        Cursor cursor = db.query(tableName, null, null, null, null, null, FavouriteItemsContract.FavouriteItemEntry._ID);
+        try {
+            int rowIdIndex = cursor.getColumnIndex(FavouriteItemsContract.FavouriteItemEntry._ID);
+            int swapiIdIndex = cursor.getColumnIndex(FavouriteItemsContract.FavouriteItemEntry.COLUMN_ID);
+            int titleIndex = cursor.getColumnIndex(FavouriteItemsContract.FavouriteItemEntry.COLUMN_TITLE);
+            int swapiCategoryIndex = cursor.getColumnIndex(FavouriteItemsContract.FavouriteItemEntry.COLUMN_CATEGORY);
+            int base64ImageIndex = cursor.getColumnIndex(LEGACY_COLUMN_IMAGE);
+
+            ContentValues contentValues = new ContentValues();
+            while (cursor.moveToNext()) {
+                String swapiId = cursor.getString(swapiIdIndex);
+
+                contentValues.clear();
+                contentValues.put(FavouriteItemsContract.FavouriteItemEntry._ID, cursor.getLong(rowIdIndex));
+                contentValues.put(FavouriteItemsContract.FavouriteItemEntry.COLUMN_ID, swapiId);
+                contentValues.put(FavouriteItemsContract.FavouriteItemEntry.COLUMN_TITLE, cursor.getString(titleIndex));
+                contentValues.put(FavouriteItemsContract.FavouriteItemEntry.COLUMN_CATEGORY, cursor.getString(swapiCategoryIndex));
+                String thumbnail = ThumbnailStore.saveBase64(mContext, swapiId, cursor.getString(base64ImageIndex));
+                if (thumbnail != null)
+                    storedThumbnails.add(thumbnail);
+                contentValues.put(FavouriteItemsContract.FavouriteItemEntry.COLUMN_THUMBNAIL, thumbnail);
+
+                db.insertOrThrow(newTableName, null, contentValues);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        db.execSQL("DROP TABLE " + tableName);
+        db.execSQL("ALTER TABLE " + newTableName + " RENAME TO " + tableName);
+        Timber.d("Migrated favourite thumbnails to the thumbnail store");
     }
 }
@@ -18,9 +18,12 @@ package eu.dkaratzas.starwarspedia.provider;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
@@ -28,6 +31,9 @@ import android.net.Uri;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import timber.log.Timber;
 
 import static eu.dkaratzas.starwarspedia.provider.FavouriteItemsContract.FavouriteItemEntry.TABLE_NAME;
@@ -40,6 +46,9 @@ public class FavouriteItemsProvider extends ContentProvider {
     private FavouriteItemsDbHelper mOpenHelper;
     private static final UriMatcher sUriMatcher = buildUriMatcher();
 
+    // Set while the calling thread runs a bulk operation, changes are notified once on commit
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<>();
+
     public static UriMatcher buildUriMatcher() {
         UriMatcher uriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
         uriMatcher.addURI(FavouriteItemsContract.CONTENT_AUTHORITY, FavouriteItemsContract.PATH_FAVOURITES, FAVOURITE_ITEMS);
@@ -69,7 +78,8 @@ public class FavouriteItemsProvider extends ContentProvider {
                         selection, selectionArgs,
                         null,
                         null,
-                        sortOrder);
+                        sortOrder,
+                        buildLimitClause(uri));
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -85,7 +95,12 @@ public class FavouriteItemsProvider extends ContentProvider {
 
         switch (sUriMatcher.match(uri)) {
             case FAVOURITE_ITEMS:
-                long id = mOpenHelper.getWritableDatabase().insert(TABLE_NAME, null, values);
+                long id = mOpenHelper.getWritableDatabase().insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+                if (id == -1 && values != null) {
+                    // Already a favourite, the unique index ignored the insert
+                    id = queryRowId(values.getAsString(FavouriteItemsContract.FavouriteItemEntry.COLUMN_ID),
+                            values.getAsString(FavouriteItemsContract.FavouriteItemEntry.COLUMN_CATEGORY));
+                }
                 if (id > 0) {
                     resultUri = ContentUris.withAppendedId(FavouriteItemsContract.FavouriteItemEntry.CONTENT_URI, id);
                 } else {
@@ -95,11 +110,53 @@ public class FavouriteItemsProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(resultUri, null);
+        notifyChange(resultUri);
         Timber.d("Uri is %s", resultUri);
         return resultUri;
     }
 
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        switch (sUriMatcher.match(uri)) {
+            case FAVOURITE_ITEMS:
+                final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+                int numRowsInserted = 0;
+
+                beginBatch(db);
+                try {
+                    for (ContentValues value : values) {
+                        if (db.insertWithOnConflict(TABLE_NAME, null, value, SQLiteDatabase.CONFLICT_IGNORE) != -1)
+                            numRowsInserted++;
+                    }
+                    if (numRowsInserted != 0)
+                        notifyChange(uri);
+                    commitBatch(db);
+                } finally {
+                    endBatch(db);
+                }
+
+                Timber.d("Bulk inserted %d of %d rows", numRowsInserted, values.length);
+                return numRowsInserted;
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+    }
+
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        beginBatch(db);
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            commitBatch(db);
+            return results;
+        } finally {
+            endBatch(db);
+        }
+    }
+
     @Override
     public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
 
@@ -108,22 +165,141 @@ public class FavouriteItemsProvider extends ContentProvider {
         switch (sUriMatcher.match(uri)) {
             case FAVOURITE_ITEM_WITH_ID:
                 String id = uri.getPathSegments().get(1);
+                String thumbnail = queryThumbnail(id);
                 numRowsDeleted = mOpenHelper.getWritableDatabase().delete(TABLE_NAME, FavouriteItemsContract.FavouriteItemEntry.COLUMN_ID + "=?", new String[]{id});
+                if (numRowsDeleted != 0)
+                    deleteThumbnail(thumbnail);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
         if (numRowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
         return numRowsDeleted;
     }
 
+    /**
+     * @return The "offset,limit" clause of a page uri, or null to query everything
+     */
+    @Nullable
+    private static String buildLimitClause(Uri uri) {
+        String limit = uri.getQueryParameter(FavouriteItemsContract.FavouriteItemEntry.QUERY_PARAMETER_LIMIT);
+        if (limit == null)
+            return null;
+
+        String offset = uri.getQueryParameter(FavouriteItemsContract.FavouriteItemEntry.QUERY_PARAMETER_OFFSET);
+        try {
+            return (offset == null ? 0 : Integer.parseInt(offset)) + "," + Integer.parseInt(limit);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page in uri: " + uri);
+        }
+    }
+
+    private long queryRowId(String swapiId, String swapiCategory) {
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(TABLE_NAME,
+                new String[]{FavouriteItemsContract.FavouriteItemEntry._ID},
+                FavouriteItemsContract.FavouriteItemEntry.COLUMN_ID + "=? AND " + FavouriteItemsContract.FavouriteItemEntry.COLUMN_CATEGORY + "=?",
+                new String[]{swapiId, swapiCategory},
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Nullable
+    private String queryThumbnail(String swapiId) {
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(TABLE_NAME,
+                new String[]{FavouriteItemsContract.FavouriteItemEntry.COLUMN_THUMBNAIL},
+                FavouriteItemsContract.FavouriteItemEntry.COLUMN_ID + "=?", new String[]{swapiId},
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
     @Override
     public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) {
-        throw new RuntimeException("We are not implementing update in StarWars Pedia.");
+
+        int numRowsUpdated;
+
+        switch (sUriMatcher.match(uri)) {
+            case FAVOURITE_ITEMS:
+                numRowsUpdated = mOpenHelper.getWritableDatabase().update(TABLE_NAME, values, selection, selectionArgs);
+                break;
+            case FAVOURITE_ITEM_WITH_ID:
+                String id = uri.getPathSegments().get(1);
+                numRowsUpdated = mOpenHelper.getWritableDatabase().update(TABLE_NAME, values, FavouriteItemsContract.FavouriteItemEntry.COLUMN_ID + "=?", new String[]{id});
+                break;
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        if (numRowsUpdated != 0) {
+            notifyChange(uri);
+        }
+
+        return numRowsUpdated;
+    }
+
+    private void beginBatch(SQLiteDatabase db) {
+        if (mBatch.get() != null)
+            throw new IllegalStateException("Nested batches are not supported");
+
+        db.beginTransaction();
+        mBatch.set(new Batch());
+    }
+
+    /**
+     * Mark the transaction successful, must be the last call before {@link #endBatch}
+     */
+    private void commitBatch(SQLiteDatabase db) {
+        db.setTransactionSuccessful();
+        mBatch.get().committed = true;
+    }
+
+    /**
+     * Ends the transaction, on commit the whole batch is notified with a single change.
+     * A rolled back batch keeps the thumbnails of its rows and notifies nothing.
+     */
+    private void endBatch(SQLiteDatabase db) {
+        Batch batch = mBatch.get();
+        mBatch.remove();
+
+        db.endTransaction();
+        if (!batch.committed)
+            return;
+
+        for (String thumbnail : batch.deletedThumbnails) {
+            ThumbnailStore.delete(getContext(), thumbnail);
+        }
+        if (batch.changed)
+            getContext().getContentResolver().notifyChange(FavouriteItemsContract.FavouriteItemEntry.CONTENT_URI, null);
+    }
+
+    private void notifyChange(Uri uri) {
+        Batch batch = mBatch.get();
+        if (batch != null)
+            batch.changed = true;
+        else
+            getContext().getContentResolver().notifyChange(uri, null);
+    }
+
+    /**
+     * The file of a deleted row goes away only when its transaction commits
+     */
+    private void deleteThumbnail(@Nullable String thumbnail) {
+        Batch batch = mBatch.get();
+        if (batch != null)
+            batch.deletedThumbnails.add(thumbnail);
+        else
+            ThumbnailStore.delete(getContext(), thumbnail);
     }
 
     @Nullable
@@ -138,4 +314,11 @@ public class FavouriteItemsProvider extends ContentProvider {
         mOpenHelper.close();
         super.shutdown();
     }
+
+    private static class Batch {
+        // Set once the transaction is marked successful, endTransaction() returns after a rollback as well
+        boolean committed;
+        boolean changed;
+        final List<String> deletedThumbnails = new ArrayList<>();
+    }
 }
\ No newline at end of file
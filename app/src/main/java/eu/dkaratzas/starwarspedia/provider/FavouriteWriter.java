@@ -0,0 +1,188 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.provider;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.crashlytics.android.Crashlytics;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import eu.dkaratzas.starwarspedia.api.SwapiCategory;
+import eu.dkaratzas.starwarspedia.widget.FavouritesWidgetProvider;
+import timber.log.Timber;
+
+/**
+ * Single writer of the favourites. The requests for an item are held for {@link #COALESCE_WINDOW} ms and only
+ * its final state is written, so toggling an item repeatedly ends up in at most one write, or none when the
+ * final state is the stored one.
+ */
+public class FavouriteWriter {
+    private static final long COALESCE_WINDOW = 300;
+
+    private static final ScheduledExecutorService sExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "FavouriteWriter");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    private static final Map<String, PendingWrite> sPendingWrites = new HashMap<>();
+
+    /**
+     * Request the favourite state of an item
+     *
+     * @param favourite The state the item should end up
+     * @param thumbnail The image to keep with the favourite, compressed on the writer thread
+     * @param callback  Called on the main thread after the final state is stored. Held weakly, so an Activity
+     *                  can pass itself without being leaked by a pending write
+     */
+    public static void setFavourite(Context context, String swapiId, String title, SwapiCategory category,
+                                    boolean favourite, @Nullable Bitmap thumbnail, @Nullable Callback callback) {
+        final String key = category.ordinal() + ":" + swapiId;
+
+        synchronized (sPendingWrites) {
+            PendingWrite pendingWrite = sPendingWrites.get(key);
+            boolean scheduled = pendingWrite != null;
+            if (!scheduled) {
+                pendingWrite = new PendingWrite(context.getApplicationContext(), swapiId, title, category);
+                sPendingWrites.put(key, pendingWrite);
+            }
+
+            pendingWrite.favourite = favourite;
+            if (thumbnail != null)
+                pendingWrite.thumbnail = thumbnail;
+            pendingWrite.callback = callback == null ? null : new WeakReference<>(callback);
+
+            if (!scheduled) {
+                sExecutor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        PendingWrite write;
+                        synchronized (sPendingWrites) {
+                            write = sPendingWrites.remove(key);
+                        }
+                        write(write);
+                    }
+                }, COALESCE_WINDOW, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private static void write(final PendingWrite write) {
+        boolean success = true;
+        try {
+            boolean stored = isStored(write);
+            if (write.favourite && !stored) {
+                ContentValues contentValues = new ContentValues();
+                contentValues.put(FavouriteItemsContract.FavouriteItemEntry.COLUMN_ID, write.swapiId);
+                contentValues.put(FavouriteItemsContract.FavouriteItemEntry.COLUMN_TITLE, write.title);
+                contentValues.put(FavouriteItemsContract.FavouriteItemEntry.COLUMN_CATEGORY, write.category.ordinal());
+                contentValues.put(FavouriteItemsContract.FavouriteItemEntry.COLUMN_THUMBNAIL, ThumbnailStore.save(write.context, write.swapiId, write.thumbnail));
+
+                Uri uri = write.context.getContentResolver().insert(FavouriteItemsContract.FavouriteItemEntry.CONTENT_URI, contentValues);
+                success = uri != null;
+            } else if (!write.favourite && stored) {
+                Uri uri = FavouriteItemsContract.FavouriteItemEntry.CONTENT_URI.buildUpon().appendPath(write.swapiId).build();
+                // Nothing deleted means the row is still there, report it so the UI rolls back
+                success = write.context.getContentResolver().delete(uri, null, null) > 0;
+            } else {
+                Timber.d("Favourite %s already stored as %s", write.swapiId, write.favourite);
+                return;
+            }
+
+            if (success)
+                FavouritesWidgetProvider.sendRefreshBroadcast(write.context);
+        } catch (Exception e) {
+            Timber.e(e);
+            Crashlytics.logException(e);
+            success = false;
+        } finally {
+            notifyCallback(write, success);
+        }
+    }
+
+    private static boolean isStored(PendingWrite write) {
+        Cursor cursor = write.context.getContentResolver().query(FavouriteItemsContract.FavouriteItemEntry.CONTENT_URI,
+                new String[]{FavouriteItemsContract.FavouriteItemEntry._ID},
+                FavouriteItemsContract.FavouriteItemEntry.COLUMN_ID + "=? AND " + FavouriteItemsContract.FavouriteItemEntry.COLUMN_CATEGORY + "=?",
+                new String[]{write.swapiId, String.valueOf(write.category.ordinal())},
+                null);
+        if (cursor == null)
+            return false;
+        try {
+            return cursor.getCount() > 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void notifyCallback(final PendingWrite write, final boolean success) {
+        if (write.callback == null)
+            return;
+
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Callback callback = write.callback.get();
+                if (callback != null)
+                    callback.onFavouriteWritten(write.favourite, success);
+            }
+        });
+    }
+
+    public interface Callback {
+        /**
+         * @param favourite The state that was requested last
+         * @param success   False if it failed to be stored
+         */
+        void onFavouriteWritten(boolean favourite, boolean success);
+    }
+
+    private static class PendingWrite {
+        final Context context;
+        final String swapiId;
+        final String title;
+        final SwapiCategory category;
+        boolean favourite;
+        Bitmap thumbnail;
+        WeakReference<Callback> callback;
+
+        PendingWrite(Context context, String swapiId, String title, SwapiCategory category) {
+            this.context = context;
+            this.swapiId = swapiId;
+            this.title = title;
+            this.category = category;
+        }
+    }
+}
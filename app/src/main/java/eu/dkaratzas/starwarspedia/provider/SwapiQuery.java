@@ -0,0 +1,177 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.provider;
+
+import android.content.Context;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.annotation.Nullable;
+
+import eu.dkaratzas.starwarspedia.R;
+import eu.dkaratzas.starwarspedia.api.SwapiCategory;
+import eu.dkaratzas.starwarspedia.api.SwapiRelation;
+import eu.dkaratzas.starwarspedia.models.SimpleQueryData;
+
+/**
+ * A filtered and sorted list of the stored entities of a category, evaluated by the {@link SwapiQueryEngine}.
+ * The filter keeps the entities whose relation points to an item, i.e. the people whose homeworld is Tatooine.
+ * When the item is not of the category of the relation the filter joins through it, i.e. the starships whose films
+ * have Luke as a character.
+ */
+public class SwapiQuery implements Parcelable {
+
+    public enum Sort {
+        // Like the API lists them
+        ID,
+        TITLE,
+        // The most films first
+        FILM_COUNT
+    }
+
+    private final SwapiCategory category;
+    private final SwapiRelation relation;
+    private final SimpleQueryData relatedTo;
+    private final Sort sort;
+
+    /**
+     * @param category  The category to list
+     * @param relation  The relation to filter by, of the category, or null for every entity
+     * @param relatedTo The item the relation must point to, directly or through the target of the relation
+     * @param sort      The order of the results
+     */
+    public SwapiQuery(SwapiCategory category, @Nullable SwapiRelation relation, @Nullable SimpleQueryData relatedTo, Sort sort) {
+        if ((relation == null) != (relatedTo == null))
+            throw new IllegalArgumentException("A filter needs both a relation and an item");
+        if (relation != null && relatedTo.getCategory() != relation.getTarget()
+                && SwapiRelation.between(relation.getTarget(), relatedTo.getCategory()) == null)
+            throw new IllegalArgumentException(relation + " can't reach " + relatedTo.getCategory());
+
+        this.category = category;
+        this.relation = relation;
+        this.relatedTo = relatedTo;
+        this.sort = sort;
+    }
+
+    /**
+     * @return The same filter in another order
+     */
+    public SwapiQuery sortedBy(Sort sort) {
+        return new SwapiQuery(category, relation, relatedTo, sort);
+    }
+
+    public SwapiCategory getCategory() {
+        return category;
+    }
+
+    @Nullable
+    public SwapiRelation getRelation() {
+        return relation;
+    }
+
+    @Nullable
+    public SimpleQueryData getRelatedTo() {
+        return relatedTo;
+    }
+
+    public Sort getSort() {
+        return sort;
+    }
+
+    public boolean isFiltered() {
+        return relation != null;
+    }
+
+    /**
+     * @return true if the filter goes through the target of the relation to reach the item
+     */
+    public boolean isJoin() {
+        return relation != null && relatedTo.getCategory() != relation.getTarget();
+    }
+
+    /**
+     * @return The filter as displayed, i.e. <code>Homeworld: Tatooine</code>, or null if not filtered
+     */
+    @Nullable
+    public String getDescription(Context context) {
+        if (relation == null)
+            return null;
+
+        if (isJoin() && relation == SwapiRelation.FILMS)
+            return String.format(context.getString(R.string.query_shares_film_with), relatedTo.getTitle());
+        return String.format(context.getString(R.string.query_description), relation.getLabel(context), relatedTo.getTitle());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        SwapiQuery other = (SwapiQuery) o;
+        return category == other.category && relation == other.relation && sort == other.sort
+                && (relatedTo == null ? other.relatedTo == null : other.relatedTo != null
+                && relatedTo.getCategory() == other.relatedTo.getCategory() && relatedTo.getId().equals(other.relatedTo.getId()));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = category.hashCode();
+        result = 31 * result + (relation != null ? relation.hashCode() : 0);
+        result = 31 * result + (relatedTo != null ? relatedTo.getId().hashCode() : 0);
+        result = 31 * result + sort.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return category + (relation == null ? "" : " " + relation + "=" + relatedTo.getCategory() + ":" + relatedTo.getId()) + " by " + sort;
+    }
+
+    // region Parcelable
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(this.category.ordinal());
+        dest.writeInt(this.relation == null ? -1 : this.relation.ordinal());
+        dest.writeParcelable(this.relatedTo, flags);
+        dest.writeInt(this.sort.ordinal());
+    }
+
+    protected SwapiQuery(Parcel in) {
+        this.category = SwapiCategory.values()[in.readInt()];
+        int tmpRelation = in.readInt();
+        this.relation = tmpRelation == -1 ? null : SwapiRelation.values()[tmpRelation];
+        this.relatedTo = in.readParcelable(SimpleQueryData.class.getClassLoader());
+        this.sort = Sort.values()[in.readInt()];
+    }
+
+    public static final Creator<SwapiQuery> CREATOR = new Creator<SwapiQuery>() {
+        @Override
+        public SwapiQuery createFromParcel(Parcel source) {
+            return new SwapiQuery(source);
+        }
+
+        @Override
+        public SwapiQuery[] newArray(int size) {
+            return new SwapiQuery[size];
+        }
+    };
+    // endregion
+}
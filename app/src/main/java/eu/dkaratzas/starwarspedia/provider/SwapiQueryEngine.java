@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.provider;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v4.util.LruCache;
+
+import com.crashlytics.android.Crashlytics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import eu.dkaratzas.starwarspedia.models.SimpleQueryData;
+import timber.log.Timber;
+
+/**
+ * Evaluates {@link SwapiQuery} filters and joins on the {@link SwapiStore} thread, off the main thread and after the
+ * snapshot got loaded. The results are memoized until the stored entities change, so switching back and forth
+ * between the filters of the category screen doesn't query again.
+ */
+public class SwapiQueryEngine {
+    private static final int MAX_MEMOIZED_RESULTS = 32;
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    // Only touched on the store thread
+    private static final LruCache<SwapiQuery, List<SimpleQueryData>> sResults = new LruCache<>(MAX_MEMOIZED_RESULTS);
+    private static int sResultsGeneration = -1;
+
+    public interface Callback {
+        /**
+         * Called on the main thread, with an empty list if the query failed
+         */
+        void onResults(SwapiQuery query, List<SimpleQueryData> results);
+    }
+
+    public static void run(final SwapiQuery query, final Callback callback) {
+        SwapiStore.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<SimpleQueryData> results = evaluate(query);
+
+                sMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // A copy, the callers are free to modify it
+                        callback.onResults(query, new ArrayList<>(results));
+                    }
+                });
+            }
+        });
+    }
+
+    // Must run on the store thread
+    private static List<SimpleQueryData> evaluate(SwapiQuery query) {
+        if (sResultsGeneration != SwapiStore.getGeneration()) {
+            sResults.evictAll();
+            sResultsGeneration = SwapiStore.getGeneration();
+        }
+
+        List<SimpleQueryData> results = sResults.get(query);
+        if (results != null)
+            return results;
+
+        long startedAt = SystemClock.elapsedRealtime();
+        try {
+            results = SwapiStore.query(query);
+        } catch (RuntimeException e) {
+            Timber.e(e);
+            Crashlytics.logException(e);
+            return new ArrayList<>();
+        }
+        Timber.d("Query %s: %d results in %d ms", query, results.size(), SystemClock.elapsedRealtime() - startedAt);
+
+        sResults.put(query, results);
+        return results;
+    }
+}
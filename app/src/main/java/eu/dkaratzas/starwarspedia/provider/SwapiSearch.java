@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.provider;
+
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
+
+import com.crashlytics.android.Crashlytics;
+
+import java.util.List;
+
+import eu.dkaratzas.starwarspedia.models.SimpleQueryData;
+import timber.log.Timber;
+
+/**
+ * Runs the type-ahead queries of a search screen on the search thread, see {@link SwapiStore#search}.
+ * A keystroke supersedes the query before it: the pending one is dropped, the running one is cancelled
+ * on the database and its results are never delivered.
+ */
+public class SwapiSearch {
+    private static final int MAX_RESULTS = 60;
+
+    private static Handler sSearchHandler;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Object mLock = new Object();
+    private CancellationSignal mCancellationSignal;
+    private Runnable mPendingSearch;
+    private int mGeneration;
+
+    /**
+     * @param query    The text as typed
+     * @param callback Called on the main thread with the results, unless a newer query superseded this one
+     */
+    public void search(final String query, final Callback callback) {
+        final int generation;
+        final CancellationSignal cancellationSignal = new CancellationSignal();
+        synchronized (mLock) {
+            cancelLocked();
+            generation = ++mGeneration;
+            mCancellationSignal = cancellationSignal;
+
+            mPendingSearch = new Runnable() {
+                @Override
+                public void run() {
+                    final List<SimpleQueryData> results;
+                    long startedAt = SystemClock.elapsedRealtime();
+                    try {
+                        results = SwapiStore.search(query, MAX_RESULTS, cancellationSignal);
+                    } catch (OperationCanceledException e) {
+                        return;
+                    } catch (RuntimeException e) {
+                        Timber.e(e);
+                        Crashlytics.logException(e);
+                        return;
+                    }
+                    Timber.d("Search \"%s\": %d results in %d ms", query, results.size(), SystemClock.elapsedRealtime() - startedAt);
+
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (isCurrent(generation))
+                                callback.onResults(query, results);
+                        }
+                    });
+                }
+            };
+            getSearchHandler().post(mPendingSearch);
+        }
+    }
+
+    /**
+     * Drop the query in progress, i.e. when the screen goes away
+     */
+    public void cancel() {
+        synchronized (mLock) {
+            cancelLocked();
+            mGeneration++;
+        }
+    }
+
+    // Must be called holding mLock
+    private void cancelLocked() {
+        if (mPendingSearch != null) {
+            getSearchHandler().removeCallbacks(mPendingSearch);
+            mPendingSearch = null;
+        }
+        if (mCancellationSignal != null) {
+            mCancellationSignal.cancel();
+            mCancellationSignal = null;
+        }
+    }
+
+    private boolean isCurrent(int generation) {
+        synchronized (mLock) {
+            return mGeneration == generation;
+        }
+    }
+
+    private static synchronized Handler getSearchHandler() {
+        if (sSearchHandler == null) {
+            HandlerThread handlerThread = new HandlerThread("SwapiSearch");
+            handlerThread.start();
+            sSearchHandler = new Handler(handlerThread.getLooper());
+        }
+        return sSearchHandler;
+    }
+
+    public interface Callback {
+        void onResults(String query, List<SimpleQueryData> results);
+    }
+}
@@ -0,0 +1,616 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.provider;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.CancellationSignal;
+import android.os.HandlerThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.crashlytics.android.Crashlytics;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import eu.dkaratzas.starwarspedia.api.SwapiCategory;
+import eu.dkaratzas.starwarspedia.api.SwapiRelation;
+import eu.dkaratzas.starwarspedia.libs.IsoDateTime;
+import eu.dkaratzas.starwarspedia.models.AllQueryData;
+import eu.dkaratzas.starwarspedia.models.JsonQueryDataMapper;
+import eu.dkaratzas.starwarspedia.models.SimpleQueryData;
+import timber.log.Timber;
+
+/**
+ * Local copy of every SWAPI entity with its details, so the category lists and the items are served without the network.
+ * On the first run it is filled from the snapshot bundled in the assets, afterwards
+ * {@link eu.dkaratzas.starwarspedia.api.ApolloManager#refreshStore()} brings over the entities edited since.
+ * The writes run on the store thread, see {@link #execute(Runnable)}, and which entities are stored is kept in memory
+ * so checking it doesn't touch the database.
+ * <p>
+ * The titles and the details are indexed for {@link #search}, the related items for {@link #query}.
+ * <p>
+ * The snapshot is the gzipped response of a query selecting the details and <code>updatedAt</code> of every entity,
+ * the lists aliased by category, i.e. <code>{"data": {"FILM": [{"id": .., "updatedAt": .., "title": .., ..}, ..], "PEOPLE": [..], ..}}</code>.
+ * The query is <code>app/snapshot/swapi_snapshot.graphql</code>, the asset is checked in and refreshed by running
+ * the <code>swapiSnapshot</code> gradle task by hand. Release builds fail without it.
+ */
+public class SwapiStore {
+    private static final String SNAPSHOT_ASSET = "swapi_snapshot.json.gz";
+    // A hit on the title counts more than one on the details
+    private static final float[] COLUMN_WEIGHTS = {10f, 1f};
+    private static final float TITLE_PREFIX_BONUS = 20f;
+
+    private static final Object sLock = new Object();
+    private static Context sContext;
+    private static SwapiStoreDbHelper sDbHelper;
+    private static Handler sHandler;
+    private static volatile Set<String> sKeys = Collections.emptySet();
+    private static volatile Set<SwapiCategory> sCategories = Collections.emptySet();
+    // Bumped on every write, the results computed from older content are stale
+    private static volatile int sGeneration;
+
+    public static void init(Context context) {
+        synchronized (sLock) {
+            if (sContext != null)
+                return;
+
+            sContext = context.getApplicationContext();
+            sDbHelper = new SwapiStoreDbHelper(sContext);
+
+            HandlerThread handlerThread = new HandlerThread("SwapiStore");
+            handlerThread.start();
+            sHandler = new Handler(handlerThread.getLooper());
+
+            sHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (isEmpty()) {
+                        loadSnapshot();
+                    } else if (isIndexEmpty(SwapiStoreContract.SearchEntry.TABLE_NAME) || isIndexEmpty(SwapiStoreContract.RelationEntry.TABLE_NAME)) {
+                        // Stored before the indexes existed
+                        reindex();
+                    }
+                    reloadKeys();
+                }
+            });
+        }
+    }
+
+    /**
+     * Run the task on the store thread, after the snapshot has been loaded and in order with the writes
+     */
+    public static void execute(Runnable task) {
+        if (sHandler == null)
+            throw new RuntimeException("Must call init first.");
+
+        sHandler.post(task);
+    }
+
+    /**
+     * @return true if the entities of the category are stored
+     */
+    public static boolean contains(SwapiCategory category) {
+        return sCategories.contains(category);
+    }
+
+    public static boolean contains(SwapiCategory category, String swapiId) {
+        return sKeys.contains(key(category, swapiId));
+    }
+
+    /**
+     * @return A number that changes whenever the stored entities change
+     */
+    public static int getGeneration() {
+        return sGeneration;
+    }
+
+    /**
+     * @return A page of the category, ordered by id like the API lists them
+     */
+    public static List<SimpleQueryData> getItems(SwapiCategory category, int offset, int limit) {
+        List<SimpleQueryData> items = new ArrayList<>(limit);
+        Cursor cursor = sDbHelper.getReadableDatabase().query(SwapiStoreContract.EntityEntry.TABLE_NAME,
+                new String[]{SwapiStoreContract.EntityEntry.COLUMN_ID, SwapiStoreContract.EntityEntry.COLUMN_TITLE},
+                SwapiStoreContract.EntityEntry.COLUMN_CATEGORY + " = ?", new String[]{category.name()},
+                null, null, SwapiStoreContract.EntityEntry.COLUMN_ID, offset + "," + limit);
+        try {
+            while (cursor.moveToNext()) {
+                items.add(new SimpleQueryData(cursor.getString(0), cursor.getString(1), category));
+            }
+        } finally {
+            cursor.close();
+        }
+        return items;
+    }
+
+    /**
+     * @return The GraphQL object of the entity, with the details selection of its category, or null if it isn't stored
+     */
+    @Nullable
+    public static JSONObject getDetails(SwapiCategory category, String swapiId) {
+        Cursor cursor = sDbHelper.getReadableDatabase().query(SwapiStoreContract.EntityEntry.TABLE_NAME,
+                new String[]{SwapiStoreContract.EntityEntry.COLUMN_DATA},
+                SwapiStoreContract.EntityEntry.COLUMN_CATEGORY + " = ? AND " + SwapiStoreContract.EntityEntry.COLUMN_ID + " = ?",
+                new String[]{category.name(), swapiId}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? new JSONObject(cursor.getString(0)) : null;
+        } catch (JSONException e) {
+            Timber.e(e);
+            Crashlytics.logException(e);
+            return null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return The updatedAt epoch millis of the stored entities of the category, by id
+     */
+    public static Map<String, Long> getUpdatedAt(SwapiCategory category) {
+        Map<String, Long> updatedAt = new HashMap<>();
+        Cursor cursor = sDbHelper.getReadableDatabase().query(SwapiStoreContract.EntityEntry.TABLE_NAME,
+                new String[]{SwapiStoreContract.EntityEntry.COLUMN_ID, SwapiStoreContract.EntityEntry.COLUMN_UPDATED_AT},
+                SwapiStoreContract.EntityEntry.COLUMN_CATEGORY + " = ?", new String[]{category.name()},
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                updatedAt.put(cursor.getString(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return updatedAt;
+    }
+
+    /**
+     * Insert or replace the entities and delete the removed ones, in one transaction. Must run on the store thread.
+     *
+     * @param data       The lists of entities aliased by category, like the snapshot
+     * @param removedIds The ids to delete, by category
+     */
+    public static void update(JSONObject data, Map<SwapiCategory, ? extends Collection<String>> removedIds) {
+        SQLiteDatabase db = sDbHelper.getWritableDatabase();
+        int written = 0;
+        int deleted = 0;
+
+        db.beginTransaction();
+        try {
+            ContentValues contentValues = new ContentValues();
+            ContentValues indexValues = new ContentValues();
+            for (SwapiCategory category : SwapiCategory.values()) {
+                JSONArray entities = data.optJSONArray(category.name());
+                for (int i = 0; entities != null && i < entities.length(); i++) {
+                    JSONObject entity = entities.optJSONObject(i);
+                    if (entity == null || entity.optString("id", null) == null)
+                        continue;
+
+                    String id = entity.optString("id");
+                    String title = entity.optString(category == SwapiCategory.FILM ? "title" : "name");
+
+                    contentValues.clear();
+                    contentValues.put(SwapiStoreContract.EntityEntry.COLUMN_TITLE, title);
+                    contentValues.put(SwapiStoreContract.EntityEntry.COLUMN_UPDATED_AT, parseUpdatedAt(entity));
+                    contentValues.put(SwapiStoreContract.EntityEntry.COLUMN_DATA, entity.toString());
+
+                    // Updated in place so the row id, the docid of the search index, stays the same
+                    long rowId = findRowId(db, category, id);
+                    if (rowId != -1) {
+                        db.update(SwapiStoreContract.EntityEntry.TABLE_NAME, contentValues,
+                                SwapiStoreContract.EntityEntry._ID + " = ?", new String[]{String.valueOf(rowId)});
+                    } else {
+                        contentValues.put(SwapiStoreContract.EntityEntry.COLUMN_ID, id);
+                        contentValues.put(SwapiStoreContract.EntityEntry.COLUMN_CATEGORY, category.name());
+                        rowId = db.insert(SwapiStoreContract.EntityEntry.TABLE_NAME, null, contentValues);
+                    }
+
+                    index(db, indexValues, rowId, category, title, entity);
+                    written++;
+                }
+
+                Collection<String> ids = removedIds.get(category);
+                if (ids != null) {
+                    for (String id : ids) {
+                        long rowId = findRowId(db, category, id);
+                        if (rowId == -1)
+                            continue;
+
+                        db.delete(SwapiStoreContract.SearchEntry.TABLE_NAME, "docid = ?", new String[]{String.valueOf(rowId)});
+                        db.delete(SwapiStoreContract.RelationEntry.TABLE_NAME, SwapiStoreContract.RelationEntry.COLUMN_ENTITY_ROW + " = ?", new String[]{String.valueOf(rowId)});
+                        deleted += db.delete(SwapiStoreContract.EntityEntry.TABLE_NAME,
+                                SwapiStoreContract.EntityEntry.COLUMN_CATEGORY + " = ? AND " + SwapiStoreContract.EntityEntry.COLUMN_ID + " = ?",
+                                new String[]{category.name(), id});
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        sGeneration++;
+        reloadKeys();
+        Timber.d("Stored %d entities, deleted %d", written, deleted);
+    }
+
+    /**
+     * Search the titles and the details of every stored entity, the words of the query are matched as prefixes
+     * and all of them must match. Must not run on the main thread.
+     *
+     * @param query              The text as typed
+     * @param limit              The maximum number of results
+     * @param cancellationSignal Cancels the query when a newer one supersedes it
+     * @return The matches, the best ranked first
+     */
+    public static List<SimpleQueryData> search(String query, int limit, @Nullable CancellationSignal cancellationSignal) {
+        String match = toMatchExpression(query);
+        if (match.isEmpty())
+            return new ArrayList<>();
+
+        List<SearchMatch> matches = new ArrayList<>();
+        String normalizedQuery = query.trim().toLowerCase(Locale.US);
+        Cursor cursor = sDbHelper.getReadableDatabase().rawQuery("SELECT " +
+                        SwapiStoreContract.EntityEntry.TABLE_NAME + "." + SwapiStoreContract.EntityEntry.COLUMN_ID + ", " +
+                        SwapiStoreContract.EntityEntry.TABLE_NAME + "." + SwapiStoreContract.EntityEntry.COLUMN_CATEGORY + ", " +
+                        SwapiStoreContract.EntityEntry.TABLE_NAME + "." + SwapiStoreContract.EntityEntry.COLUMN_TITLE + ", " +
+                        "matchinfo(" + SwapiStoreContract.SearchEntry.TABLE_NAME + ", 'pcx')" +
+                        " FROM " + SwapiStoreContract.SearchEntry.TABLE_NAME +
+                        " JOIN " + SwapiStoreContract.EntityEntry.TABLE_NAME +
+                        " ON " + SwapiStoreContract.EntityEntry.TABLE_NAME + "." + SwapiStoreContract.EntityEntry._ID + " = " + SwapiStoreContract.SearchEntry.TABLE_NAME + ".docid" +
+                        " WHERE " + SwapiStoreContract.SearchEntry.TABLE_NAME + " MATCH ?",
+                new String[]{match}, cancellationSignal);
+        try {
+            while (cursor.moveToNext()) {
+                String title = cursor.getString(2);
+                float score = score(cursor.getBlob(3));
+                if (title.toLowerCase(Locale.US).startsWith(normalizedQuery))
+                    score += TITLE_PREFIX_BONUS;
+
+                matches.add(new SearchMatch(new SimpleQueryData(cursor.getString(0), title, SwapiCategory.valueOf(cursor.getString(1))), score));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Collections.sort(matches);
+        List<SimpleQueryData> results = new ArrayList<>(Math.min(limit, matches.size()));
+        for (int i = 0; i < matches.size() && i < limit; i++) {
+            results.add(matches.get(i).queryData);
+        }
+        return results;
+    }
+
+    /**
+     * Evaluate a query over the stored entities with the relation indexes, see {@link SwapiQueryEngine} for the memoized results.
+     * Must not run on the main thread.
+     *
+     * @return The matching entities in the order of the query
+     */
+    public static List<SimpleQueryData> query(SwapiQuery query) {
+        String entities = SwapiStoreContract.EntityEntry.TABLE_NAME;
+        String relations = SwapiStoreContract.RelationEntry.TABLE_NAME;
+        StringBuilder sql = new StringBuilder("SELECT e." + SwapiStoreContract.EntityEntry.COLUMN_ID + ", e." + SwapiStoreContract.EntityEntry.COLUMN_TITLE +
+                " FROM " + entities + " e");
+        List<String> args = new ArrayList<>();
+
+        if (query.getSort() == SwapiQuery.Sort.FILM_COUNT) {
+            sql.append(" LEFT JOIN (SELECT ").append(SwapiStoreContract.RelationEntry.COLUMN_ENTITY_ROW).append(", COUNT(*) AS films FROM ").append(relations)
+                    .append(" WHERE ").append(SwapiStoreContract.RelationEntry.COLUMN_RELATION).append(" = ?")
+                    .append(" GROUP BY ").append(SwapiStoreContract.RelationEntry.COLUMN_ENTITY_ROW).append(") f")
+                    .append(" ON f.").append(SwapiStoreContract.RelationEntry.COLUMN_ENTITY_ROW).append(" = e.").append(SwapiStoreContract.EntityEntry._ID);
+            args.add(SwapiRelation.FILMS.name());
+        }
+
+        sql.append(" WHERE e.").append(SwapiStoreContract.EntityEntry.COLUMN_CATEGORY).append(" = ?");
+        args.add(query.getCategory().name());
+
+        SwapiRelation relation = query.getRelation();
+        SimpleQueryData relatedTo = query.getRelatedTo();
+        if (relation != null && relatedTo != null) {
+            sql.append(" AND e.").append(SwapiStoreContract.EntityEntry._ID).append(" IN (SELECT ").append(SwapiStoreContract.RelationEntry.COLUMN_ENTITY_ROW)
+                    .append(" FROM ").append(relations)
+                    .append(" WHERE ").append(SwapiStoreContract.RelationEntry.COLUMN_RELATION).append(" = ?")
+                    .append(" AND ").append(SwapiStoreContract.RelationEntry.COLUMN_TARGET_ID);
+            args.add(relation.name());
+
+            if (!query.isJoin()) {
+                sql.append(" = ?)");
+                args.add(relatedTo.getId());
+            } else {
+                // The targets of the relation that point to the item, i.e. the films having the character
+                sql.append(" IN (SELECT t.").append(SwapiStoreContract.EntityEntry.COLUMN_ID)
+                        .append(" FROM ").append(relations).append(" r JOIN ").append(entities).append(" t")
+                        .append(" ON t.").append(SwapiStoreContract.EntityEntry._ID).append(" = r.").append(SwapiStoreContract.RelationEntry.COLUMN_ENTITY_ROW)
+                        .append(" WHERE r.").append(SwapiStoreContract.RelationEntry.COLUMN_RELATION).append(" = ?")
+                        .append(" AND r.").append(SwapiStoreContract.RelationEntry.COLUMN_TARGET_ID).append(" = ?")
+                        .append(" AND t.").append(SwapiStoreContract.EntityEntry.COLUMN_CATEGORY).append(" = ?))");
+                args.add(SwapiRelation.between(relation.getTarget(), relatedTo.getCategory()).name());
+                args.add(relatedTo.getId());
+                args.add(relation.getTarget().name());
+
+                if (relatedTo.getCategory() == query.getCategory()) {
+                    // Not related to itself
+                    sql.append(" AND e.").append(SwapiStoreContract.EntityEntry.COLUMN_ID).append(" != ?");
+                    args.add(relatedTo.getId());
+                }
+            }
+        }
+
+        switch (query.getSort()) {
+            case ID:
+                sql.append(" ORDER BY e.").append(SwapiStoreContract.EntityEntry.COLUMN_ID);
+                break;
+            case TITLE:
+                sql.append(" ORDER BY e.").append(SwapiStoreContract.EntityEntry.COLUMN_TITLE).append(" COLLATE NOCASE");
+                break;
+            case FILM_COUNT:
+                sql.append(" ORDER BY IFNULL(f.films, 0) DESC, e.").append(SwapiStoreContract.EntityEntry.COLUMN_TITLE).append(" COLLATE NOCASE");
+                break;
+        }
+
+        List<SimpleQueryData> items = new ArrayList<>();
+        Cursor cursor = sDbHelper.getReadableDatabase().rawQuery(sql.toString(), args.toArray(new String[args.size()]));
+        try {
+            while (cursor.moveToNext()) {
+                items.add(new SimpleQueryData(cursor.getString(0), cursor.getString(1), query.getCategory()));
+            }
+        } finally {
+            cursor.close();
+        }
+        return items;
+    }
+
+    /**
+     * @return The FTS expression of the words of the query as prefixes, i.e. <code>luke* sky*</code>, empty if there are no words
+     */
+    static String toMatchExpression(String query) {
+        StringBuilder match = new StringBuilder();
+        for (String word : query.toLowerCase(Locale.US).split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty())
+                continue;
+
+            if (match.length() != 0)
+                match.append(' ');
+            match.append(word).append('*');
+        }
+        return match.toString();
+    }
+
+    /**
+     * Sum the hits of every word on the entity, weighted by column and by how rare the word is across the entities
+     *
+     * @param matchInfo The <code>pcx</code> matchinfo, 32 bit unsigned integers in native byte order
+     */
+    private static float score(byte[] matchInfo) {
+        IntBuffer values = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+        int phrases = values.get(0);
+        int columns = values.get(1);
+
+        float score = 0;
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < columns; column++) {
+                int offset = 2 + 3 * (phrase * columns + column);
+                int hits = values.get(offset);
+                int matchingEntities = values.get(offset + 2);
+                if (hits > 0)
+                    score += COLUMN_WEIGHTS[column] * hits / (float) Math.max(1, matchingEntities);
+            }
+        }
+        return score;
+    }
+
+    private static boolean isEmpty() {
+        Cursor cursor = sDbHelper.getReadableDatabase().query(SwapiStoreContract.EntityEntry.TABLE_NAME,
+                new String[]{SwapiStoreContract.EntityEntry._ID}, null, null, null, null, null, "1");
+        try {
+            return cursor.getCount() == 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static boolean isIndexEmpty(String table) {
+        Cursor cursor = sDbHelper.getReadableDatabase().query(table,
+                new String[]{"rowid"}, null, null, null, null, null, "1");
+        try {
+            return cursor.getCount() == 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void reindex() {
+        SQLiteDatabase db = sDbHelper.getWritableDatabase();
+        Cursor cursor = db.query(SwapiStoreContract.EntityEntry.TABLE_NAME,
+                new String[]{SwapiStoreContract.EntityEntry._ID, SwapiStoreContract.EntityEntry.COLUMN_CATEGORY,
+                        SwapiStoreContract.EntityEntry.COLUMN_TITLE, SwapiStoreContract.EntityEntry.COLUMN_DATA},
+                null, null, null, null, null);
+
+        db.beginTransaction();
+        try {
+            ContentValues indexValues = new ContentValues();
+            while (cursor.moveToNext()) {
+                try {
+                    index(db, indexValues, cursor.getLong(0), SwapiCategory.valueOf(cursor.getString(1)), cursor.getString(2), new JSONObject(cursor.getString(3)));
+                } catch (JSONException e) {
+                    Timber.e(e);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            cursor.close();
+        }
+        sGeneration++;
+        Timber.d("Indexed the stored entities");
+    }
+
+    /**
+     * Replace the search row and the relations of an entity, the search body being the values of the details as displayed
+     */
+    private static void index(SQLiteDatabase db, ContentValues indexValues, long rowId, SwapiCategory category, String title, JSONObject entity) {
+        StringBuilder body = new StringBuilder();
+        AllQueryData queryData = JsonQueryDataMapper.map(sContext, category, entity);
+        if (queryData != null) {
+            for (String value : queryData.getDetailsMap().values()) {
+                body.append(value).append('\n');
+            }
+        }
+
+        db.delete(SwapiStoreContract.SearchEntry.TABLE_NAME, "docid = ?", new String[]{String.valueOf(rowId)});
+
+        indexValues.clear();
+        indexValues.put("docid", rowId);
+        indexValues.put(SwapiStoreContract.SearchEntry.COLUMN_TITLE, title);
+        indexValues.put(SwapiStoreContract.SearchEntry.COLUMN_BODY, body.toString());
+        db.insert(SwapiStoreContract.SearchEntry.TABLE_NAME, null, indexValues);
+
+        db.delete(SwapiStoreContract.RelationEntry.TABLE_NAME, SwapiStoreContract.RelationEntry.COLUMN_ENTITY_ROW + " = ?", new String[]{String.valueOf(rowId)});
+        if (queryData == null)
+            return;
+
+        for (Map.Entry<SwapiRelation, List<SimpleQueryData>> entry : queryData.getRelatedItems().entrySet()) {
+            for (SimpleQueryData related : entry.getValue()) {
+                indexValues.clear();
+                indexValues.put(SwapiStoreContract.RelationEntry.COLUMN_ENTITY_ROW, rowId);
+                indexValues.put(SwapiStoreContract.RelationEntry.COLUMN_RELATION, entry.getKey().name());
+                indexValues.put(SwapiStoreContract.RelationEntry.COLUMN_TARGET_ID, related.getId());
+                db.insert(SwapiStoreContract.RelationEntry.TABLE_NAME, null, indexValues);
+            }
+        }
+    }
+
+    private static long findRowId(SQLiteDatabase db, SwapiCategory category, String swapiId) {
+        Cursor cursor = db.query(SwapiStoreContract.EntityEntry.TABLE_NAME,
+                new String[]{SwapiStoreContract.EntityEntry._ID},
+                SwapiStoreContract.EntityEntry.COLUMN_CATEGORY + " = ? AND " + SwapiStoreContract.EntityEntry.COLUMN_ID + " = ?",
+                new String[]{category.name(), swapiId}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void loadSnapshot() {
+        Reader reader = null;
+        try {
+            InputStream inputStream = sContext.getAssets().open(SNAPSHOT_ASSET);
+            reader = new InputStreamReader(new GZIPInputStream(inputStream), "UTF-8");
+
+            StringBuilder json = new StringBuilder();
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                json.append(buffer, 0, read);
+            }
+
+            update(new JSONObject(json.toString()).getJSONObject("data"), Collections.<SwapiCategory, Collection<String>>emptyMap());
+            Timber.d("Loaded the bundled snapshot");
+        } catch (FileNotFoundException e) {
+            // Not bundled on this build, the store gets filled by the first refresh
+            Timber.d("No snapshot bundled");
+        } catch (IOException | JSONException e) {
+            Timber.e(e);
+            Crashlytics.logException(e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    Timber.e(e);
+                }
+            }
+        }
+    }
+
+    private static void reloadKeys() {
+        Set<String> keys = new HashSet<>();
+        Set<SwapiCategory> categories = EnumSet.noneOf(SwapiCategory.class);
+
+        Cursor cursor = sDbHelper.getReadableDatabase().query(SwapiStoreContract.EntityEntry.TABLE_NAME,
+                new String[]{SwapiStoreContract.EntityEntry.COLUMN_CATEGORY, SwapiStoreContract.EntityEntry.COLUMN_ID},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                SwapiCategory category = SwapiCategory.valueOf(cursor.getString(0));
+                categories.add(category);
+                keys.add(key(category, cursor.getString(1)));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        sKeys = Collections.unmodifiableSet(keys);
+        sCategories = Collections.unmodifiableSet(categories);
+        Timber.d("%d entities stored", keys.size());
+    }
+
+    private static long parseUpdatedAt(JSONObject entity) {
+        try {
+            return IsoDateTime.parseMillis(entity.optString("updatedAt"));
+        } catch (IllegalArgumentException e) {
+            // Refetched on the next refresh
+            return 0;
+        }
+    }
+
+    private static String key(SwapiCategory category, String swapiId) {
+        return category.name() + ":" + swapiId;
+    }
+
+    private static class SearchMatch implements Comparable<SearchMatch> {
+        final SimpleQueryData queryData;
+        final float score;
+
+        SearchMatch(SimpleQueryData queryData, float score) {
+            this.queryData = queryData;
+            this.score = score;
+        }
+
+        @Override
+        public int compareTo(@NonNull SearchMatch other) {
+            int byScore = Float.compare(other.score, score);
+            return byScore != 0 ? byScore : queryData.getTitle().compareToIgnoreCase(other.queryData.getTitle());
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.provider;
+
+import android.provider.BaseColumns;
+
+public class SwapiStoreContract {
+
+    public static final class EntityEntry implements BaseColumns {
+        public static final String TABLE_NAME = "entities";
+        public static final String COLUMN_ID = "swapi_id";
+        public static final String COLUMN_CATEGORY = "swapi_category";
+        public static final String COLUMN_TITLE = "title";
+        // Epoch millis of the server side updatedAt
+        public static final String COLUMN_UPDATED_AT = "updated_at";
+        // The GraphQL object with the details selection of the category, as JSON
+        public static final String COLUMN_DATA = "data";
+    }
+
+    /**
+     * Full text index of the entities, the docid of a row is the {@link EntityEntry#_ID} of its entity
+     */
+    public static final class SearchEntry {
+        public static final String TABLE_NAME = "entities_search";
+        public static final String COLUMN_TITLE = "title";
+        // The values of the details of the entity
+        public static final String COLUMN_BODY = "body";
+    }
+
+    /**
+     * The related items of the entities, a row per edge, for the {@link SwapiQuery} filters
+     */
+    public static final class RelationEntry {
+        public static final String TABLE_NAME = "entity_relations";
+        // The _ID of the entity owning the relation
+        public static final String COLUMN_ENTITY_ROW = "entity_row";
+        // The name of the SwapiRelation, it implies the category of the target
+        public static final String COLUMN_RELATION = "relation";
+        public static final String COLUMN_TARGET_ID = "target_id";
+    }
+}
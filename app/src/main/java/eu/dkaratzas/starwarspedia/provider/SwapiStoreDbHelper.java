@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.provider;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+/**
+ * The local copy of the SWAPI entities, kept apart from the favourites database since it can always be rebuilt.
+ */
+public class SwapiStoreDbHelper extends SQLiteOpenHelper {
+    private static final String DATABASE_NAME = "swapi_store.db";
+    private static final int DATABASE_VERSION = 3;
+
+    private static final String INDEX_UNIQUE_ENTITY = "entities_unique_entity";
+    private static final String INDEX_RELATION_TARGET = "entity_relations_target";
+    private static final String INDEX_RELATION_ENTITY = "entity_relations_entity";
+
+    public SwapiStoreDbHelper(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SwapiStoreContract.EntityEntry.TABLE_NAME + " (" +
+                SwapiStoreContract.EntityEntry._ID + " INTEGER PRIMARY KEY, " +
+                SwapiStoreContract.EntityEntry.COLUMN_ID + " TEXT NOT NULL, " +
+                SwapiStoreContract.EntityEntry.COLUMN_CATEGORY + " TEXT NOT NULL, " +
+                SwapiStoreContract.EntityEntry.COLUMN_TITLE + " TEXT NOT NULL, " +
+                SwapiStoreContract.EntityEntry.COLUMN_UPDATED_AT + " INTEGER NOT NULL, " +
+                SwapiStoreContract.EntityEntry.COLUMN_DATA + " TEXT NOT NULL)" +
+                "; ");
+
+        // Serves the lookups by id and the category lists, which are ordered by id like the API does
+        db.execSQL("CREATE UNIQUE INDEX " + INDEX_UNIQUE_ENTITY + " ON " + SwapiStoreContract.EntityEntry.TABLE_NAME + " (" +
+                SwapiStoreContract.EntityEntry.COLUMN_CATEGORY + ", " +
+                SwapiStoreContract.EntityEntry.COLUMN_ID + ");");
+
+        db.execSQL(createSearchTableStatement());
+        createRelationsTable(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            // Filled by the SwapiStore once opened
+            db.execSQL(createSearchTableStatement());
+        }
+        if (oldVersion < 3) {
+            // Filled by the SwapiStore once opened
+            createRelationsTable(db);
+        }
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Let the searches read while the refresh writes
+        db.enableWriteAheadLogging();
+    }
+
+    private static void createRelationsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SwapiStoreContract.RelationEntry.TABLE_NAME + " (" +
+                SwapiStoreContract.RelationEntry.COLUMN_ENTITY_ROW + " INTEGER NOT NULL, " +
+                SwapiStoreContract.RelationEntry.COLUMN_RELATION + " TEXT NOT NULL, " +
+                SwapiStoreContract.RelationEntry.COLUMN_TARGET_ID + " TEXT NOT NULL)" +
+                "; ");
+
+        // The secondary indexes of the queries, i.e. the people of a homeworld or the items of a film
+        db.execSQL("CREATE INDEX " + INDEX_RELATION_TARGET + " ON " + SwapiStoreContract.RelationEntry.TABLE_NAME + " (" +
+                SwapiStoreContract.RelationEntry.COLUMN_RELATION + ", " +
+                SwapiStoreContract.RelationEntry.COLUMN_TARGET_ID + ");");
+        // Replacing and counting the relations of an entity
+        db.execSQL("CREATE INDEX " + INDEX_RELATION_ENTITY + " ON " + SwapiStoreContract.RelationEntry.TABLE_NAME + " (" +
+                SwapiStoreContract.RelationEntry.COLUMN_ENTITY_ROW + ", " +
+                SwapiStoreContract.RelationEntry.COLUMN_RELATION + ");");
+    }
+
+    /**
+     * FTS4 keeps the inverted index on disk, the prefix indexes answer the type-ahead queries of up to 3 letters
+     * without scanning the terms
+     */
+    private static String createSearchTableStatement() {
+        return "CREATE VIRTUAL TABLE " + SwapiStoreContract.SearchEntry.TABLE_NAME + " USING fts4(" +
+                SwapiStoreContract.SearchEntry.COLUMN_TITLE + ", " +
+                SwapiStoreContract.SearchEntry.COLUMN_BODY + ", " +
+                "prefix=\"1,2,3\");";
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2018 Dionysios Karatzas
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.dkaratzas.starwarspedia.provider;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.annotation.Nullable;
+import android.util.Base64;
+
+import com.crashlytics.android.Crashlytics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import timber.log.Timber;
+
+/**
+ * Keeps the favourite thumbnails as downscaled WebP files on the app private storage,
+ * the favourites table only holds their file names.
+ */
+public class ThumbnailStore {
+    private static final String DIRECTORY = "thumbnails";
+    private static final String EXTENSION = ".webp";
+    private static final int MAX_DIMENSION = 320;
+    private static final int QUALITY = 80;
+
+    /**
+     * Downscale and write the bitmap of an item
+     *
+     * @param swapiId The SWAPI id of the item, ids are unique across categories
+     * @param bitmap  The full size bitmap
+     * @return The file name to store on the favourites table, or null if there was nothing to write
+     */
+    @Nullable
+    public static String save(Context context, String swapiId, @Nullable Bitmap bitmap) {
+        if (bitmap == null)
+            return null;
+
+        Bitmap scaled = downscale(bitmap);
+        String fileName = swapiId + EXTENSION;
+        FileOutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(new File(getDirectory(context), fileName));
+            scaled.compress(Bitmap.CompressFormat.WEBP, QUALITY, outputStream);
+            return fileName;
+        } catch (IOException e) {
+            Timber.e(e);
+            Crashlytics.logException(e);
+            return null;
+        } finally {
+            if (scaled != bitmap)
+                scaled.recycle();
+            closeQuietly(outputStream);
+        }
+    }
+
+    /**
+     * Re-encode a thumbnail of the version 1 schema, a base64 encoded PNG
+     */
+    @Nullable
+    static String saveBase64(Context context, String swapiId, @Nullable String base64) {
+        if (base64 == null || base64.isEmpty())
+            return null;
+
+        byte[] bytes = Base64.decode(base64, Base64.DEFAULT);
+        Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+        if (bitmap == null)
+            return null;
+
+        String fileName = save(context, swapiId, bitmap);
+        bitmap.recycle();
+        return fileName;
+    }
+
+    /**
+     * @return Where the thumbnail of the item is, or would be, stored. Doesn't touch the disk.
+     */
+    public static File getFileForItem(Context context, String swapiId) {
+        return new File(new File(context.getFilesDir(), DIRECTORY), swapiId + EXTENSION);
+    }
+
+    @Nullable
+    public static File getFile(Context context, @Nullable String fileName) {
+        if (fileName == null)
+            return null;
+
+        File file = new File(getDirectory(context), fileName);
+        return file.exists() ? file : null;
+    }
+
+    /**
+     * Decode a thumbnail subsampled to the size it is going to be displayed
+     *
+     * @param reqWidth  The width of the target view in px
+     * @param reqHeight The height of the target view in px
+     */
+    @Nullable
+    public static Bitmap decode(Context context, @Nullable String fileName, int reqWidth, int reqHeight) {
+        File file = getFile(context, fileName);
+        if (file == null)
+            return null;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+        return BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+    }
+
+    public static void delete(Context context, @Nullable String fileName) {
+        File file = getFile(context, fileName);
+        if (file != null && !file.delete())
+            Timber.w("Failed to delete thumbnail %s", fileName);
+    }
+
+    static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0)
+            return inSampleSize;
+
+        // Largest power of 2 that keeps both dimensions at least as large as requested
+        while ((height / (inSampleSize * 2)) >= reqHeight && (width / (inSampleSize * 2)) >= reqWidth) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    private static Bitmap downscale(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (width <= MAX_DIMENSION && height <= MAX_DIMENSION)
+            return bitmap;
+
+        float scale = Math.min((float) MAX_DIMENSION / width, (float) MAX_DIMENSION / height);
+        return Bitmap.createScaledBitmap(bitmap, Math.round(width * scale), Math.round(height * scale), true);
+    }
+
+    private static File getDirectory(Context context) {
+        File directory = new File(context.getFilesDir(), DIRECTORY);
+        if (!directory.exists() && !directory.mkdirs())
+            Timber.w("Failed to create %s", directory);
+        return directory;
+    }
+
+    private static void closeQuietly(@Nullable FileOutputStream outputStream) {
+        if (outputStream != null) {
+            try {
+                outputStream.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
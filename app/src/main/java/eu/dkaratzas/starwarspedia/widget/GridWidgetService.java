@@ -19,6 +19,7 @@ package eu.dkaratzas.starwarspedia.widget;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
+import android.graphics.Bitmap;
 import android.os.Binder;
 import android.os.Bundle;
 import android.widget.RemoteViews;
@@ -27,9 +28,9 @@ import android.widget.RemoteViewsService;
 import eu.dkaratzas.starwarspedia.R;
 import eu.dkaratzas.starwarspedia.api.SwapiCategory;
 import eu.dkaratzas.starwarspedia.controllers.activities.MainActivity;
-import eu.dkaratzas.starwarspedia.libs.Misc;
 import eu.dkaratzas.starwarspedia.models.SimpleQueryData;
 import eu.dkaratzas.starwarspedia.provider.FavouriteItemsContract;
+import eu.dkaratzas.starwarspedia.provider.ThumbnailStore;
 import timber.log.Timber;
 
 
@@ -101,18 +102,22 @@ class GridRemoteViewsFactory implements RemoteViewsService.RemoteViewsFactory {
         int swapiIdIndex = mCursor.getColumnIndex(FavouriteItemsContract.FavouriteItemEntry.COLUMN_ID);
         int titleIndex = mCursor.getColumnIndex(FavouriteItemsContract.FavouriteItemEntry.COLUMN_TITLE);
         int swapiCategoryIndex = mCursor.getColumnIndex(FavouriteItemsContract.FavouriteItemEntry.COLUMN_CATEGORY);
-        int base64ImageIndex = mCursor.getColumnIndex(FavouriteItemsContract.FavouriteItemEntry.COLUMN_IMAGE);
+        int thumbnailIndex = mCursor.getColumnIndex(FavouriteItemsContract.FavouriteItemEntry.COLUMN_THUMBNAIL);
 
         SimpleQueryData favouriteItemData = new SimpleQueryData(
                 mCursor.getString(swapiIdIndex),
                 mCursor.getString(titleIndex),
-                SwapiCategory.values()[mCursor.getInt(swapiCategoryIndex)],
-                Misc.base64ToBitmap(mCursor.getString(base64ImageIndex))
+                SwapiCategory.values()[mCursor.getInt(swapiCategoryIndex)]
         );
 
         RemoteViews views = new RemoteViews(mContext.getPackageName(), R.layout.favourite_item_widget);
 
-        views.setImageViewBitmap(R.id.widget_favourite_image, favouriteItemData.getImage());
+        // Decode at the size of the widget cell, RemoteViews are parceled to the launcher
+        Bitmap thumbnail = ThumbnailStore.decode(mContext, mCursor.getString(thumbnailIndex),
+                mContext.getResources().getDimensionPixelSize(R.dimen.widget_grid_view_column_width),
+                mContext.getResources().getDimensionPixelSize(R.dimen.widget_item_image_height));
+        if (thumbnail != null)
+            views.setImageViewBitmap(R.id.widget_favourite_image, thumbnail);
         views.setTextViewText(R.id.widget_favourite_title, favouriteItemData.getTitle());
 
         // Fill in the onClick PendingIntent Template using the specific item Id for each item individually
@@ -0,0 +1,24 @@
+package eu.dkaratzas.starwarspedia.api;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertTrue;
+
+public class SwapiSnapshotQueryTest {
+
+    @Test
+    public void snapshotQuery_matchesTheDetailsSelections() throws IOException {
+        // Unit tests run from the module directory
+        String query = new String(Files.readAllBytes(new File("snapshot/swapi_snapshot.graphql").toPath()), Charset.forName("UTF-8"));
+
+        for (SwapiCategory category : SwapiCategory.values()) {
+            String selection = category.name() + ": " + SwapiSelections.listField(category) + " { updatedAt " + SwapiSelections.details(category).substring(2);
+            assertTrue("Out of sync: " + category, query.contains(selection + "\n"));
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package eu.dkaratzas.starwarspedia.libs;
+
+import java.text.ParseException;
+import java.util.Locale;
+
+/**
+ * Compares {@link IsoDateTime} against the previous adapter, which built a SimpleDateFormat for every decoded value.
+ * Not a unit test, timings depend on the machine: run its main method from the IDE.
+ */
+public class IsoDateTimeBenchmark {
+    private static final int DATES = 100000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws ParseException {
+        String[] dates = IsoDateTimeTest.syntheticDates(DATES);
+
+        // Warm up both paths
+        long checksum = legacyParse(dates) + isoParse(dates);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            checksum += legacyParse(dates);
+            long legacyNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            checksum += isoParse(dates);
+            long isoNanos = System.nanoTime() - start;
+
+            System.out.println(String.format(Locale.US, "Parsed %d dates: SimpleDateFormat %d ms, IsoDateTime %d ms",
+                    dates.length, legacyNanos / 1000000, isoNanos / 1000000));
+        }
+        System.out.println("Checksum " + checksum);
+    }
+
+    private static long legacyParse(String[] dates) throws ParseException {
+        long sum = 0;
+        for (String value : dates) {
+            sum += IsoDateTimeTest.utcFormat().parse(value).getTime();
+        }
+        return sum;
+    }
+
+    private static long isoParse(String[] dates) {
+        long sum = 0;
+        for (String value : dates) {
+            sum += IsoDateTime.parse(value).getTime();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,104 @@
+package eu.dkaratzas.starwarspedia.libs;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+public class IsoDateTimeTest {
+
+    @Test
+    public void parse_matchesSimpleDateFormat() throws ParseException {
+        SimpleDateFormat reference = utcFormat();
+        for (String value : syntheticDates(10000)) {
+            assertEquals(value, reference.parse(value).getTime(), IsoDateTime.parseMillis(value));
+        }
+    }
+
+    @Test
+    public void parse_offsetsAndFractions() {
+        assertEquals(0L, IsoDateTime.parseMillis("1970-01-01"));
+        assertEquals(0L, IsoDateTime.parseMillis("1970-01-01T00:00:00Z"));
+        assertEquals(120L, IsoDateTime.parseMillis("1970-01-01T00:00:00.12Z"));
+        assertEquals(123L, IsoDateTime.parseMillis("1970-01-01T00:00:00.123456Z"));
+        assertEquals(-3600000L, IsoDateTime.parseMillis("1970-01-01T01:00:00.000+02:00"));
+        assertEquals(233366400000L, IsoDateTime.parseMillis("1977-05-25T00:00:00.000Z"));
+        assertEquals(-86400000L, IsoDateTime.parseMillis("1969-12-31T00:00:00.000Z"));
+    }
+
+    @Test
+    public void format_roundTrips() {
+        for (String value : syntheticDates(10000)) {
+            assertEquals(value, IsoDateTime.format(IsoDateTime.parseMillis(value)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_rejectsInvalidMonth() {
+        IsoDateTime.parseMillis("1977-13-25T00:00:00.000Z");
+    }
+
+    @Test
+    public void parse_acceptsLastDayOfMonth() {
+        assertEquals(IsoDateTime.parseMillis("2000-03-01") - 86400000L, IsoDateTime.parseMillis("2000-02-29"));
+        assertEquals(IsoDateTime.parseMillis("1996-03-01") - 86400000L, IsoDateTime.parseMillis("1996-02-29"));
+        assertEquals(IsoDateTime.parseMillis("1977-05-01") - 86400000L, IsoDateTime.parseMillis("1977-04-30"));
+        assertEquals(IsoDateTime.parseMillis("1978-01-01") - 86400000L, IsoDateTime.parseMillis("1977-12-31"));
+    }
+
+    @Test
+    public void parse_rejectsDayOutOfMonth() {
+        String[] values = {"1977-02-31", "1977-02-29T00:00:00.000Z", "1900-02-29", "1977-04-31", "1977-06-31", "1977-09-31", "1977-11-31", "1977-05-32", "1977-05-00"};
+        for (String value : values) {
+            try {
+                IsoDateTime.parseMillis(value);
+                throw new AssertionError("Parsed " + value);
+            } catch (IllegalArgumentException expected) {
+                // Not a calendar date
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_rejectsTrailingCharacters() {
+        IsoDateTime.parseMillis("1977-05-25T00:00:00.000Zx");
+    }
+
+    @Test
+    public void formatLongDate_usesCalendarDateOfTheApi() {
+        Locale defaultLocale = Locale.getDefault();
+        TimeZone defaultTimeZone = TimeZone.getDefault();
+        try {
+            Locale.setDefault(Locale.US);
+            TimeZone.setDefault(TimeZone.getTimeZone("America/Los_Angeles"));
+            assertEquals("May 25, 1977", IsoDateTime.formatLongDate(IsoDateTime.parse("1977-05-25T00:00:00.000Z")));
+        } finally {
+            Locale.setDefault(defaultLocale);
+            TimeZone.setDefault(defaultTimeZone);
+        }
+    }
+
+    static SimpleDateFormat utcFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+
+    static String[] syntheticDates(int count) {
+        SimpleDateFormat format = utcFormat();
+        Random random = new Random(1977);
+        String[] dates = new String[count];
+        for (int i = 0; i < count; i++) {
+            // 1900 - 2100
+            long millis = (long) ((random.nextDouble() * 200 - 70) * 365.25 * 24 * 3600 * 1000);
+            dates[i] = format.format(new Date(millis));
+        }
+        return dates;
+    }
+}
@@ -0,0 +1,153 @@
+package eu.dkaratzas.starwarspedia.models;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import eu.dkaratzas.starwarspedia.api.SwapiCategory;
+import eu.dkaratzas.starwarspedia.api.SwapiRelation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class QueryDataCodecTest {
+
+    @Test
+    public void simpleQueryData_roundTrips() throws IOException {
+        SimpleQueryData queryData = new SimpleQueryData("cj0nxmy3fga5s01148gf8iy3c", "Padmé Amidala", SwapiCategory.PEOPLE);
+        assertSameItem(queryData, QueryDataCodec.decodeSimpleQueryData(QueryDataCodec.encode(queryData)));
+    }
+
+    @Test
+    public void simpleQueryData_keepsNulls() throws IOException {
+        SimpleQueryData decoded = QueryDataCodec.decodeSimpleQueryData(QueryDataCodec.encode(new SimpleQueryData("id", null, null)));
+        assertEquals("id", decoded.getId());
+        assertNull(decoded.getTitle());
+        assertNull(decoded.getCategory());
+    }
+
+    @Test
+    public void categoryItems_roundTrip() throws IOException {
+        List<SimpleQueryData> items = syntheticItems(1000);
+        CategoryItems decoded = QueryDataCodec.decodeCategoryItems(QueryDataCodec.encode(new CategoryItems(items)));
+
+        assertEquals(items.size(), decoded.getQueryDataList().size());
+        for (int i = 0; i < items.size(); i++) {
+            assertSameItem(items.get(i), decoded.getQueryDataList().get(i));
+        }
+    }
+
+    @Test
+    public void categoryItems_keepsEndReached() throws IOException {
+        assertTrue(QueryDataCodec.decodeCategoryItems(QueryDataCodec.encode(new CategoryItems(syntheticItems(3), true))).isEndReached());
+        assertFalse(QueryDataCodec.decodeCategoryItems(QueryDataCodec.encode(new CategoryItems(syntheticItems(3), false))).isEndReached());
+    }
+
+    @Test
+    public void categoryItems_empty() throws IOException {
+        byte[] bytes = QueryDataCodec.encode(new CategoryItems(new ArrayList<SimpleQueryData>()));
+        assertTrue(QueryDataCodec.decodeCategoryItems(bytes).getQueryDataList().isEmpty());
+    }
+
+    @Test
+    public void allQueryData_roundTripsInOrder() throws IOException {
+        AllQueryData queryData = syntheticFilm();
+        AllQueryData decoded = QueryDataCodec.decodeAllQueryData(QueryDataCodec.encode(queryData));
+
+        assertEquals(queryData.getId(), decoded.getId());
+        assertEquals(queryData.getTitle(), decoded.getTitle());
+        assertEquals(queryData.getCategory(), decoded.getCategory());
+        assertEquals(new ArrayList<>(queryData.getDetailsMap().entrySet()), new ArrayList<>(decoded.getDetailsMap().entrySet()));
+
+        assertEquals(new ArrayList<>(queryData.getRelatedItems().keySet()), new ArrayList<>(decoded.getRelatedItems().keySet()));
+        Iterator<List<SimpleQueryData>> decodedLists = decoded.getRelatedItems().values().iterator();
+        for (List<SimpleQueryData> items : queryData.getRelatedItems().values()) {
+            List<SimpleQueryData> decodedItems = decodedLists.next();
+            assertEquals(items.size(), decodedItems.size());
+            for (int i = 0; i < items.size(); i++) {
+                assertSameItem(items.get(i), decodedItems.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void encode_storesRepeatedStringsOnce() {
+        List<SimpleQueryData> items = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            items.add(new SimpleQueryData("cj0nv9p8yewci0130wjy4o8ymq", "Millennium Falcon", SwapiCategory.STARSHIP));
+        }
+
+        // The strings once, then 3 bytes per item
+        int stringsLength = "cj0nv9p8yewci0130wjy4o8ymq".length() + "Millennium Falcon".length();
+        assertTrue(QueryDataCodec.encode(new CategoryItems(items)).length < stringsLength + 100 * 3 + 16);
+    }
+
+    @Test(expected = IOException.class)
+    public void decode_rejectsOtherVersion() throws IOException {
+        byte[] bytes = QueryDataCodec.encode(new CategoryItems(syntheticItems(10)));
+        bytes[0] = (byte) (QueryDataCodec.VERSION + 1);
+        QueryDataCodec.decodeCategoryItems(bytes);
+    }
+
+    @Test(expected = IOException.class)
+    public void decode_rejectsOtherType() throws IOException {
+        QueryDataCodec.decodeAllQueryData(QueryDataCodec.encode(new CategoryItems(syntheticItems(10))));
+    }
+
+    @Test
+    public void decode_rejectsTruncatedBlobs() {
+        byte[] bytes = QueryDataCodec.encode(syntheticFilm());
+        for (int length = 0; length < bytes.length; length++) {
+            try {
+                QueryDataCodec.decodeAllQueryData(Arrays.copyOf(bytes, length));
+                throw new AssertionError("Decoded a blob truncated to " + length + " bytes");
+            } catch (IOException expected) {
+                // Corrupt
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void decode_rejectsTrailingBytes() throws IOException {
+        byte[] bytes = QueryDataCodec.encode(new SimpleQueryData("id", "title", SwapiCategory.FILM));
+        QueryDataCodec.decodeSimpleQueryData(Arrays.copyOf(bytes, bytes.length + 1));
+    }
+
+    private static void assertSameItem(SimpleQueryData expected, SimpleQueryData actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getTitle(), actual.getTitle());
+        assertEquals(expected.getCategory(), actual.getCategory());
+    }
+
+    private static List<SimpleQueryData> syntheticItems(int count) {
+        List<SimpleQueryData> items = new ArrayList<>(count);
+        SwapiCategory[] categories = SwapiCategory.values();
+        for (int i = 0; i < count; i++) {
+            items.add(new SimpleQueryData("cj0nv9p8yewci0130wjy" + i, "Item " + i + " ü", categories[i % categories.length]));
+        }
+        return items;
+    }
+
+    private static AllQueryData syntheticFilm() {
+        LinkedHashMap<String, String> detailsMap = new LinkedHashMap<>();
+        detailsMap.put("Release Date", "May 25, 1977");
+        detailsMap.put("Director", "George Lucas");
+        detailsMap.put("Producer", "Gary Kurtz, Rick McCallum");
+        detailsMap.put("Opening Crawl", "It is a period of civil war.\r\nRebel spaceships…");
+
+        LinkedHashMap<SwapiRelation, List<SimpleQueryData>> relatedItems = new LinkedHashMap<>();
+        relatedItems.put(SwapiRelation.CHARACTERS, syntheticItems(40));
+        relatedItems.put(SwapiRelation.PLANETS, Collections.singletonList(new SimpleQueryData("p1", "Tatooine", SwapiCategory.PLANET)));
+        relatedItems.put(SwapiRelation.SPECIES, new ArrayList<SimpleQueryData>());
+
+        return new AllQueryData("cj0nxmy3fga5s01148gf8iy3c", "A New Hope", SwapiCategory.FILM, detailsMap, relatedItems);
+    }
+}